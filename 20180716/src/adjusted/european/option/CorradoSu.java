@@ -10,7 +10,7 @@ import java.util.Objects;
 /**
  * @author liangcy
  */
-public class CorradoSu implements Serializable {
+public class CorradoSu implements Serializable, Cloneable {
     private double skew = 0;
     private double kurtosis = 3;
     private BaseSingleOption option;
@@ -57,4 +57,15 @@ public class CorradoSu implements Serializable {
                 ", kurtosis=" + kurtosis +
                 '}';
     }
+
+    /**
+     * @return 浅复制, 计算时会用setOption绑定期权, 每个期权需要各自的模型参数
+     */
+    public CorradoSu copy() {
+        try {
+            return (CorradoSu) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -17,7 +17,7 @@ import java.util.Objects;
  * E[w(1, t), w(2, t)] = rho * dt;
  * longVariance = longVolatility ^ 2;
  */
-public class Heston implements IntegralFunction, Serializable {
+public class Heston implements IntegralFunction, Serializable, Cloneable {
 
     private BaseSingleOption option;
 
@@ -209,4 +209,15 @@ public class Heston implements IntegralFunction, Serializable {
                 ", volVolatility=" + volVolatility +
                 '}';
     }
+
+    /**
+     * @return 浅复制, 计算时会用setOption绑定期权, 每个期权需要各自的模型参数
+     */
+    public Heston copy() {
+        try {
+            return (Heston) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -18,7 +18,7 @@ import java.util.Objects;
  * E[dz, dw] = rho * dt;
  * alpha is estimated by using ATM vol, see West (2005)
  */
-public class Sabr implements Serializable{
+public class Sabr implements Serializable, Cloneable {
     private BaseSingleOption option;
     private double beta;
     private double volVolatility;
@@ -86,7 +86,10 @@ public class Sabr implements Serializable{
         double k = option.getVanillaOptionParams().getStrikePrice();
         double x = (1 - beta) * Math.log(s / k);
         double denominator = Math.pow(s * k, (1 - beta) / 2) * (1 + Math.pow(x, 2) / 24 + Math.pow(x, 4) / 1920);
-        return z() / xz() / denominator;
+        //平值时z / x(z)的极限为1
+        double z = z();
+        double ratio = Math.abs(z) < 1e-10 ? 1 : z / xz();
+        return ratio / denominator;
     }
 
     private double[] polynomialParams() {
@@ -95,12 +98,15 @@ public class Sabr implements Serializable{
         double cubic = Math.pow((1 - beta), 2) * t / (24 * Math.pow(s, 2 - 2 * beta));
         double quadratic = rho * beta * volVolatility * t / (4 * Math.pow(s, 1 - beta));
         double linear = 1 + (2 - 3 * rho * rho) * Math.pow(volVolatility, 2) * t / 24;
-        double constant = volAtMoney() * Math.pow(s, 1 - beta);
+        double constant = -volAtMoney() * Math.pow(s, 1 - beta);
         return new double[]{constant, linear, quadratic, cubic};
     }
 
-    private double solveAlpha() {
-        //solve cubic * alpha^3 + quadratic * alpha^2 + linear * alpha + constant = 0;
+    /**
+     * @return 由平值波动率反解的初始alpha, 没有正实根时为0
+     */
+    public double solveAlpha() {
+        //solve cubic * alpha^3 + quadratic * alpha^2 + linear * alpha + constant = 0, constant = -volAtm * s^(1 - beta);
         double cubic = polynomialParams()[3];
         double quadratic = polynomialParams()[2];
         double linear = polynomialParams()[1];
@@ -120,7 +126,7 @@ public class Sabr implements Serializable{
     }
 
     private double volAtMoney() {
-        if (option.getVolatilitySurface() == null) {
+        if (option.getVolatilitySurface() == null || !option.getVolatilitySurface().isValidSurface()) {
             return option.getVanillaOptionParams().getVolatility();
         } else {
             return option.getVolatilitySurface().getVolatility(1.0, option.getVanillaOptionParams().getTimeRemaining());
@@ -145,4 +151,15 @@ public class Sabr implements Serializable{
                 ", rho=" + rho +
                 '}';
     }
+
+    /**
+     * @return 浅复制, 计算时会用setOption绑定期权, 每个期权需要各自的模型参数
+     */
+    public Sabr copy() {
+        try {
+            return (Sabr) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
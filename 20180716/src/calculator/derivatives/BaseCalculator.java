@@ -5,6 +5,7 @@ import calculator.utility.CalculatorError;
 /**
  * @author liangcy
  * 最基本的计算器，计算各种衍生品
+ * 结果和错误保存在计算器中, 一个计算器不能在多个线程中同时使用;
  */
 public abstract class BaseCalculator {
     /**
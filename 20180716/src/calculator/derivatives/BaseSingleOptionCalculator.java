@@ -1,134 +1,25 @@
 package calculator.derivatives;
 
-import calculator.utility.CalculateUtil;
-import flanagan.math.DeepCopy;
+import calculator.utility.CalculatorResult;
+import calculator.utility.GreekSet;
 import option.BaseSingleOption;
 
-import java.io.Serializable;
-
 import static calculator.utility.CalculatorError.NORMAL;
 import static calculator.utility.CalculatorError.UNSUPPORTED_METHOD;
 
-
-class ShiftSingleOption implements Serializable {
-    private BaseSingleOption option;
-    private BaseSingleOption[] options = new BaseSingleOption[2];
-    private double denominator = 0;
-
-    ShiftSingleOption() {}
-
-    ShiftSingleOption(BaseSingleOption option) {
-        setOption(option);
-    }
-
-    public void setOption(BaseSingleOption option) {
-        this.option = option;
-    }
-
-    public BaseSingleOption[] getOptions() {
-        return options;
-    }
-
-    public double getDenominator() {
-        return denominator;
-    }
-
-    private void setOptions(BaseSingleOption[] options) {
-        this.options = options;
-    }
-
-    private void setDenominator(double denominator) {
-        this.denominator = denominator;
-    }
-
-    private void initialOptions() {
-        options[0] = (BaseSingleOption) DeepCopy.copy(option);
-        options[1] = (BaseSingleOption) DeepCopy.copy(option);
-    }
-
-    void shiftUnderlyingPrice(boolean useVolatilitySurface) {
-        if(useVolatilitySurface) {
-            option.refreshVolSurface();
-        }
-        initialOptions();
-
-        double precision = option.getPrecision().getUnderlyingPricePrecision();
-        double s = option.getUnderlying().getSpotPrice();
-        double[] diffSpotPrice = CalculateUtil.midDiffValue(s, precision);
-        setDenominator(diffSpotPrice[1] - diffSpotPrice[0]);
-
-        options[0].getUnderlying().setSpotPrice(diffSpotPrice[0]);
-        options[1].getUnderlying().setSpotPrice(diffSpotPrice[1]);
-        if(useVolatilitySurface) {
-            double lowerVolatility = options[0].getVolatilityFromSurface();
-            double upperVolatility = options[1].getVolatilityFromSurface();
-            options[0].getVanillaOptionParams().setVolatility(lowerVolatility);
-            options[1].getVanillaOptionParams().setVolatility(upperVolatility);
-        }
-
-    }
-
-    void shiftVolatility() {
-        initialOptions();
-
-        double precision = option.getPrecision().getVolatilityPrecision();
-        double vol = option.getVanillaOptionParams().getVolatility();
-        double[] diffVol = CalculateUtil.midDiffValue(vol, precision);
-        setDenominator(diffVol[1] - diffVol[0]);
-        options[0].getVanillaOptionParams().setVolatility(diffVol[0]);
-        options[1].getVanillaOptionParams().setVolatility(diffVol[1]);
-    }
-
-    void shiftTimeRemaining(boolean useVolatilitySurface) {
-        if(useVolatilitySurface) {
-            option.refreshVolSurface();
-        }
-        initialOptions();
-
-        double precision = option.getPrecision().getTimeRemainingPrecision();
-        double t = option.getVanillaOptionParams().getTimeRemaining();
-        double[] diffTime = CalculateUtil.backwardDiffValue(t, precision);
-        setDenominator(diffTime[1] - diffTime[0]);
-
-        options[0].getVanillaOptionParams().setTimeRemaining(diffTime[0]);
-        if(useVolatilitySurface) {
-            double volatility = options[0].getVolatilityFromSurface();
-            options[0].getVanillaOptionParams().setVolatility(volatility);
-        }
-    }
-
-    void shiftInterestRate() {
-        initialOptions();
-
-        double precision = option.getPrecision().getInterestRatePrecision();
-        double r = option.getUnderlying().getRiskFreeRate();
-        double[] diffRate = CalculateUtil.midDiffValue(r, precision);
-        setDenominator(diffRate[1] - diffRate[0]);
-
-        options[0].getUnderlying().setRiskFreeRate(diffRate[0]);
-        options[1].getUnderlying().setRiskFreeRate(diffRate[1]);
-    }
-
-    void shiftDividendRate() {
-        initialOptions();
-
-        double precision = option.getPrecision().getInterestRatePrecision();
-        double q = option.getUnderlying().getDividendRate();
-        double[] diffRate = CalculateUtil.midDiffValue(q, precision);
-        setDenominator(diffRate[1] - diffRate[0]);
-
-        options[0].getUnderlying().setDividendRate(diffRate[0]);
-        options[1].getUnderlying().setDividendRate(diffRate[1]);
-    }
-
-}
-
 /**
  * @author liangcy
+ * calculateXxx()计算setOption设置的期权, 结果保存在计算器中, 一个计算器不能在多个线程中同时使用;
+ * 差分计算希腊值的过程(xxxOf)只依赖传入的期权, 结果为不可修改的CalculatorResult,
+ * priceOf无状态时(见SingleOptionAnalysisCalculator)可以在多个线程中同时调用;
  */
 public abstract class BaseSingleOptionCalculator extends BaseCalculator {
     BaseSingleOption option;
     private boolean useVolatilitySurface = false;
+    /**
+     * calculateAllGreeks的结果
+     */
+    private GreekSet greeks = new GreekSet();
 
     public BaseSingleOptionCalculator() {
 
@@ -146,6 +37,14 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
         this.option = option;
     }
 
+    public GreekSet getGreeks() {
+        return greeks;
+    }
+
+    void setGreeks(GreekSet greeks) {
+        this.greeks = greeks;
+    }
+
     public void enableVolSurface() {
         this.useVolatilitySurface = true;
     }
@@ -175,6 +74,27 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
         return new ShiftSingleOption(option);
     }
 
+    /**
+     * 计算一个期权的价格, 差分计算希腊值时对每个平移后的期权调用;
+     * 默认临时替换计算器的期权再调用calculatePrice, 会修改计算器的状态, 子类可以覆盖为无状态的实现;
+     */
+    CalculatorResult priceOf(BaseSingleOption shiftOption) {
+        BaseSingleOption baseOption = option;
+        setOption(shiftOption);
+        calculatePrice();
+        //reset;
+        setOption(baseOption);
+        return isNormal() ? CalculatorResult.of(getResult()) : CalculatorResult.error(getError());
+    }
+
+    /**
+     * 把xxxOf的结果保存到计算器中, 失败时结果为0
+     */
+    void setCalculatorResult(CalculatorResult calculatorResult) {
+        setResult(Double.isNaN(calculatorResult.getValue()) ? 0.0 : calculatorResult.getValue());
+        setError(calculatorResult.getError());
+    }
+
     /**
      * 计算Delta;
      */
@@ -184,16 +104,7 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
             setError(UNSUPPORTED_METHOD);
             return;
         }
-
-        ShiftSingleOption shiftSingleOption = shiftOption();
-        shiftSingleOption.shiftUnderlyingPrice(canUseVolatilitySurface());
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions());
-        if(!isNormal()) {
-            return;
-        }
-        double delta = diffPrice / shiftSingleOption.getDenominator();
-        setResult(delta);
-        setError(NORMAL);
+        setCalculatorResult(deltaOf(option));
     }
 
     /**
@@ -205,15 +116,7 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        ShiftSingleOption shiftSingleOption = shiftOption();
-        shiftSingleOption.shiftVolatility();
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions());
-        if(!isNormal()) {
-            return;
-        }
-        double vega = diffPrice / shiftSingleOption.getDenominator() / 100;
-        setResult(vega);
-        setError(NORMAL);
+        setCalculatorResult(vegaOf(option));
     }
 
     /**
@@ -225,15 +128,7 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        ShiftSingleOption shiftSingleOption = shiftOption();
-        shiftSingleOption.shiftTimeRemaining(canUseVolatilitySurface());
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions());
-        if(!isNormal()) {
-            return;
-        }
-        double theta = -diffPrice / shiftSingleOption.getDenominator() / 365;
-        setResult(theta);
-        setError(NORMAL);
+        setCalculatorResult(thetaOf(option));
     }
 
     public void calculateGamma() {
@@ -242,15 +137,7 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        ShiftSingleOption shiftSingleOption = shiftOption();
-        shiftSingleOption.shiftUnderlyingPrice(canUseVolatilitySurface());
-        double diffDelta = getDiffDelta(shiftSingleOption.getOptions());
-        if(!isNormal()) {
-            return;
-        }
-        double gamma = diffDelta / shiftSingleOption.getDenominator();
-        setResult(gamma);
-        setError(NORMAL);
+        setCalculatorResult(gammaOf(option));
     }
 
     /**
@@ -262,16 +149,7 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
             setError(UNSUPPORTED_METHOD);
             return;
         }
-
-        ShiftSingleOption shiftSingleOption = shiftOption();
-        shiftSingleOption.shiftInterestRate();
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions());
-        if(!isNormal()) {
-            return;
-        }
-        double rho = diffPrice / shiftSingleOption.getDenominator() / 10000;
-        setResult(rho);
-        setError(NORMAL);
+        setCalculatorResult(rhoOf(option));
     }
 
     public void calculateRho2() {
@@ -280,26 +158,145 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
             setError(UNSUPPORTED_METHOD);
             return;
         }
+        setCalculatorResult(rho2Of(option));
+    }
 
-        if(option.isUnderlyingFuture()) {
-            setResult(0);
-            setError(NORMAL);
-            return;
+    CalculatorResult deltaOf(BaseSingleOption baseOption) {
+        ShiftSingleOption shiftSingleOption = new ShiftSingleOption(baseOption);
+        shiftSingleOption.shiftUnderlyingPrice(canUseVolatilitySurface(baseOption));
+        return diffPriceOf(shiftSingleOption, 1);
+    }
+
+    CalculatorResult vegaOf(BaseSingleOption baseOption) {
+        ShiftSingleOption shiftSingleOption = new ShiftSingleOption(baseOption);
+        shiftSingleOption.shiftVolatility();
+        return diffPriceOf(shiftSingleOption, 100);
+    }
+
+    CalculatorResult thetaOf(BaseSingleOption baseOption) {
+        ShiftSingleOption shiftSingleOption = new ShiftSingleOption(baseOption);
+        shiftSingleOption.shiftTimeRemaining(canUseVolatilitySurface(baseOption));
+        return diffPriceOf(shiftSingleOption, -365);
+    }
+
+    CalculatorResult gammaOf(BaseSingleOption baseOption) {
+        ShiftSingleOption shiftSingleOption = new ShiftSingleOption(baseOption);
+        shiftSingleOption.shiftUnderlyingPrice(canUseVolatilitySurface(baseOption));
+        CalculatorResult lowerDelta = deltaOf(shiftSingleOption.getOptions()[0]);
+        if(!lowerDelta.isNormal()) {
+            return lowerDelta;
         }
+        CalculatorResult upperDelta = deltaOf(shiftSingleOption.getOptions()[1]);
+        if(!upperDelta.isNormal()) {
+            return upperDelta;
+        }
+        return CalculatorResult.of((upperDelta.getValue() - lowerDelta.getValue()) /
+                shiftSingleOption.getDenominator());
+    }
+
+    CalculatorResult rhoOf(BaseSingleOption baseOption) {
+        ShiftSingleOption shiftSingleOption = new ShiftSingleOption(baseOption);
+        shiftSingleOption.shiftInterestRate();
+        return diffPriceOf(shiftSingleOption, 10000);
+    }
 
-        ShiftSingleOption shiftSingleOption = shiftOption();
+    CalculatorResult rho2Of(BaseSingleOption baseOption) {
+        if(baseOption.isUnderlyingFuture()) {
+            return CalculatorResult.of(0);
+        }
+        ShiftSingleOption shiftSingleOption = new ShiftSingleOption(baseOption);
         shiftSingleOption.shiftDividendRate();
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions());
-        if(!isNormal()) {
+        return diffPriceOf(shiftSingleOption, 10000);
+    }
+
+    /**
+     * 一次计算价格和全部希腊值, 每个平移后的期权只计算一次价格:
+     * delta和gamma共用标的价格上下平移的两个价格(gamma用二阶中心差分, 不再计算平移后的delta),
+     * theta的另一个点就是基准价格; 单独计算全部希腊值要15次定价, 这里最多10次;
+     * 结果通过getGreeks()获取, getResult()返回价格;
+     */
+    public void calculateAllGreeks() {
+        resetCalculator();
+        if(!hasMethod()) {
+            greeks = new GreekSet();
+            setError(UNSUPPORTED_METHOD);
+            greeks.setError(UNSUPPORTED_METHOD);
             return;
         }
-        double rho2 = diffPrice / shiftSingleOption.getDenominator() / 10000;
-        setResult(rho2);
-        setError(NORMAL);
+        greeks = greeksOf(option);
+        if(greeks.isNormal()) {
+            setResult(greeks.getPrice());
+        }
+        setError(greeks.getError());
+    }
+
+    /**
+     * @return calculateAllGreeks的结果
+     */
+    public GreekSet calculateAll() {
+        calculateAllGreeks();
+        return greeks;
+    }
+
+    /**
+     * calculateAllGreeks的计算过程, 每次返回新的GreekSet
+     */
+    GreekSet greeksOf(BaseSingleOption baseOption) {
+        GreekSet greekSet = new GreekSet();
+        boolean useVolatilitySurface = canUseVolatilitySurface(baseOption);
+        boolean hasRho2 = !baseOption.isUnderlyingFuture();
+        ShiftSingleOption spotShift = new ShiftSingleOption(baseOption);
+        spotShift.shiftUnderlyingPrice(useVolatilitySurface);
+        ShiftSingleOption volShift = new ShiftSingleOption(baseOption);
+        volShift.shiftVolatility();
+        ShiftSingleOption timeShift = new ShiftSingleOption(baseOption);
+        timeShift.shiftTimeRemaining(useVolatilitySurface);
+        ShiftSingleOption rateShift = new ShiftSingleOption(baseOption);
+        rateShift.shiftInterestRate();
+        ShiftSingleOption dividendShift = new ShiftSingleOption(baseOption);
+        if(hasRho2) {
+            dividendShift.shiftDividendRate();
+        }
+
+        //0:基准期权, 1-2:标的价格, 3-4:波动率, 5:剩余期限缩短, 6-7:利率, 8-9:分红率
+        BaseSingleOption[] options = {baseOption,
+                spotShift.getOptions()[0], spotShift.getOptions()[1],
+                volShift.getOptions()[0], volShift.getOptions()[1],
+                timeShift.getOptions()[0],
+                rateShift.getOptions()[0], rateShift.getOptions()[1],
+                dividendShift.getOptions()[0], dividendShift.getOptions()[1]};
+        int optionNums = hasRho2 ? options.length : options.length - 2;
+        double[] prices = new double[optionNums];
+        for(int i = 0; i < optionNums; i++) {
+            CalculatorResult price = priceOf(options[i]);
+            if(!price.isNormal()) {
+                greekSet.setError(price.getError());
+                return greekSet;
+            }
+            prices[i] = price.getValue();
+        }
+
+        double price = prices[0];
+        double spotStep = spotShift.getDenominator() / 2;
+        greekSet.setPrice(price);
+        greekSet.setDelta((prices[2] - prices[1]) / spotShift.getDenominator());
+        greekSet.setGamma((prices[2] - 2 * price + prices[1]) / (spotStep * spotStep));
+        greekSet.setVega((prices[4] - prices[3]) / volShift.getDenominator() / 100);
+        greekSet.setTheta(-(price - prices[5]) / timeShift.getDenominator() / 365);
+        greekSet.setRho((prices[7] - prices[6]) / rateShift.getDenominator() / 10000);
+        if(hasRho2) {
+            greekSet.setRho2((prices[9] - prices[8]) / dividendShift.getDenominator() / 10000);
+        }
+        greekSet.setError(NORMAL);
+        return greekSet;
     }
 
     boolean canUseVolatilitySurface() {
-        return useVolatilitySurface && option.getVolatilitySurface().isValidSurface();
+        return canUseVolatilitySurface(option);
+    }
+
+    boolean canUseVolatilitySurface(BaseSingleOption baseOption) {
+        return useVolatilitySurface && baseOption.getVolatilitySurface().isValidSurface();
     }
 
     /**
@@ -341,28 +338,21 @@ public abstract class BaseSingleOptionCalculator extends BaseCalculator {
         calculateRho2();
     }
 
-    private double getDiffPrice(BaseSingleOption[] options) {
-        setOption(options[0]);
-        calculatePrice();
-        double lowerPrice = getResult();
-        setOption(options[1]);
-        calculatePrice();
-        double upperPrice = getResult();
-        //reset;
-        setOption(option);
-        return upperPrice - lowerPrice;
-    }
-
-    private double getDiffDelta(BaseSingleOption[] options) {
-        setOption(options[0]);
-        calculateDelta();
-        double lowerDelta = getResult();
-        setOption(options[1]);
-        calculateDelta();
-        double upperDelta = getResult();
-        //reset;
-        setOption(option);
-        return upperDelta - lowerDelta;
+    /**
+     * @param unit 单位换算, 例如vega为1%时是100, theta为1天时是-365(剩余期限缩短)
+     * @return (平移后较大的期权价格 - 较小的期权价格) / 差分的分母 / unit
+     */
+    private CalculatorResult diffPriceOf(ShiftSingleOption shiftSingleOption, double unit) {
+        CalculatorResult lowerPrice = priceOf(shiftSingleOption.getOptions()[0]);
+        if(!lowerPrice.isNormal()) {
+            return lowerPrice;
+        }
+        CalculatorResult upperPrice = priceOf(shiftSingleOption.getOptions()[1]);
+        if(!upperPrice.isNormal()) {
+            return upperPrice;
+        }
+        return CalculatorResult.of((upperPrice.getValue() - lowerPrice.getValue()) /
+                shiftSingleOption.getDenominator() / unit);
     }
 
 }
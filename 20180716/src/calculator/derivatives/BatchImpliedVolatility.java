@@ -0,0 +1,322 @@
+package calculator.derivatives;
+
+import calculator.utility.CalculateUtil;
+import calculator.utility.CalculatorThreadPool;
+import calculator.utility.ConstantNumber;
+import calculator.utility.NewtonIterationParams;
+import option.BaseOption;
+import option.BaseSingleOption;
+import underlying.gbm.BaseUnderlying;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 一组报价的远期价格, 行权价等, 见BatchImpliedVolatility
+ */
+class ImpliedVolatilityQuotes {
+    final double[] forwardPrices;
+    final double[] strikePrices;
+    final double[] timeRemaining;
+    /**
+     * 除以无风险折现因子后的价格
+     */
+    final double[] undiscountedPrices;
+    /**
+     * 看涨1, 看跌-1
+     */
+    final int[] optionTypes;
+
+    ImpliedVolatilityQuotes(int size) {
+        forwardPrices = new double[size];
+        strikePrices = new double[size];
+        timeRemaining = new double[size];
+        undiscountedPrices = new double[size];
+        optionTypes = new int[size];
+    }
+
+    int size() {
+        return strikePrices.length;
+    }
+}
+
+/**
+ * @author liangcy
+ * 批量计算欧式期权(bsm模型)的隐含波动率, 例如整条期权链;
+ * 价格标准化为 b = 价格 / 折现因子 / sqrt(F * K), x = ln(F / K), s = vol * sqrt(t),
+ * 实值期权用平价公式转换为虚值期权; 初值按拐点s = sqrt(2|x|)分两段(Jaeckel, By Implication),
+ * 拐点以下对ln(b)迭代, 以上对b迭代, 用解析的一到三阶导数做三阶Householder迭代, 迭代时保持根的区间, 一般2到3次收敛;
+ * 拐点以下(深度虚值, 期限短)价格的两项都在正态分布尾部, 直接相减会抵消或下溢为0, 用Mills比率在对数下计算;
+ * 期权较多时按块提交到共享线程池{@link CalculatorThreadPool}并行计算, 等待时被中断则取消没有完成的块, 这些期权为NaN;
+ * 只读取传入的参数, 可以在多个线程中同时使用;
+ */
+public class BatchImpliedVolatility {
+    /**
+     * 牛顿迭代参数, 收敛条件为s的相对变化小于tol
+     */
+    private NewtonIterationParams iterParams = new NewtonIterationParams();
+    /**
+     * 每个并行任务计算的期权个数, 期权数不超过该值时在当前线程计算
+     */
+    private int chunkSize = 1024;
+    /**
+     * Mills比率的自变量不小于该值时用连分式计算
+     */
+    private static final double MILLS_RATIO_THRESHOLD = 10;
+    /**
+     * Mills比率连分式的项数
+     */
+    private static final int MILLS_RATIO_TERMS = 60;
+
+    public void setIterParams(NewtonIterationParams iterParams) {
+        this.iterParams = iterParams;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * 同一个标的的期权链
+     *
+     * @param optionTypes 看涨或看跌, 见BaseOption.OPTION_TYPE_CALL
+     * @return 隐含波动率, 价格不在无套利范围内(低于内在价值或高于上限)或计算被中断时为NaN
+     */
+    public double[] impliedVolatility(BaseUnderlying underlying, double[] strikePrices, double[] timeRemaining,
+                                      double[] prices, String[] optionTypes) {
+        int n = strikePrices.length;
+        ImpliedVolatilityQuotes quote = new ImpliedVolatilityQuotes(n);
+        for (int i = 0; i < n; i++) {
+            double t = timeRemaining[i];
+            quote.forwardPrices[i] = underlying.getFutureValue(t);
+            quote.strikePrices[i] = strikePrices[i];
+            quote.timeRemaining[i] = t;
+            quote.undiscountedPrices[i] = prices[i] * Math.exp(underlying.getRiskFreeRate() * t);
+            quote.optionTypes[i] = BaseOption.OPTION_TYPE_CALL.equals(optionTypes[i]) ? 1 : -1;
+        }
+        return solve(quote);
+    }
+
+    /**
+     * 每个期权用自己的标的和目标价格(targetPrice), 按欧式期权bsm模型计算, 不修改期权
+     *
+     * @return 隐含波动率, 价格不在无套利范围内或计算被中断时为NaN
+     */
+    public double[] impliedVolatility(List<? extends BaseSingleOption> options) {
+        int n = options.size();
+        ImpliedVolatilityQuotes quote = new ImpliedVolatilityQuotes(n);
+        for (int i = 0; i < n; i++) {
+            BaseSingleOption option = options.get(i);
+            BaseUnderlying underlying = option.getUnderlying();
+            double t = option.getVanillaOptionParams().getTimeRemaining();
+            quote.forwardPrices[i] = underlying.getFutureValue(t);
+            quote.strikePrices[i] = option.getVanillaOptionParams().getStrikePrice();
+            quote.timeRemaining[i] = t;
+            quote.undiscountedPrices[i] = option.getVanillaOptionParams().getTargetPrice() /
+                    option.getDiscountValueByRiskFreeRate();
+            quote.optionTypes[i] = option.getVanillaOptionParams().indexOfOptionType();
+        }
+        return solve(quote);
+    }
+
+    private double[] solve(ImpliedVolatilityQuotes quote) {
+        int n = quote.size();
+        if (n <= chunkSize || CalculatorThreadPool.getParallelism() == 1 || CalculatorThreadPool.isPoolThread()) {
+            return solve(quote, 0, n);
+        }
+        double[] result = new double[n];
+        //每块写入自己的数组, 取得结果后再复制, 被取消的块晚些完成也不会修改result
+        List<Future<double[]>> futureList = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        int submitted = 0;
+        try {
+            for (; submitted < n; submitted += chunkSize) {
+                int from = submitted;
+                int to = Math.min(n, from + chunkSize);
+                futureList.add(CalculatorThreadPool.submit(() -> solve(quote, from, to)));
+                ranges.add(new int[]{from, to});
+            }
+        } catch (RejectedExecutionException e) {
+            //线程池拒绝任务(例如已关闭)时, 没有提交的部分在当前线程计算
+            System.arraycopy(solve(quote, submitted, n), 0, result, submitted, n - submitted);
+        }
+        for (int i = 0; i < futureList.size(); i++) {
+            int from = ranges.get(i)[0];
+            int to = ranges.get(i)[1];
+            try {
+                System.arraycopy(futureList.get(i).get(), 0, result, from, to - from);
+            } catch (InterruptedException e) {
+                //取消没有完成的块, 没有取得结果的期权为NaN
+                Thread.currentThread().interrupt();
+                CalculatorThreadPool.cancelAll(futureList.subList(i, futureList.size()));
+                Arrays.fill(result, from, ranges.get(ranges.size() - 1)[1], Double.NaN);
+                break;
+            } catch (ExecutionException e) {
+                //重新在当前线程计算这一块
+                System.arraycopy(solve(quote, from, to), 0, result, from, to - from);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 第from到to - 1个期权的隐含波动率
+     */
+    private double[] solve(ImpliedVolatilityQuotes quote, int from, int to) {
+        double[] result = new double[to - from];
+        for (int i = from; i < to; i++) {
+            result[i - from] = impliedVolatility(quote.forwardPrices[i], quote.strikePrices[i],
+                    quote.timeRemaining[i], quote.undiscountedPrices[i], quote.optionTypes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @param undiscountedPrice 价格 / 无风险折现因子
+     * @param index             看涨1, 看跌-1
+     * @return 隐含波动率, 价格等于内在价值时为0, 不在无套利范围内时为NaN
+     */
+    double impliedVolatility(double forwardPrice, double strikePrice, double timeRemaining,
+                             double undiscountedPrice, int index) {
+        if (!(forwardPrice > 0 && strikePrice > 0 && timeRemaining > 0)) {
+            return Double.NaN;
+        }
+        double x = Math.log(forwardPrice / strikePrice);
+        double beta = undiscountedPrice / Math.sqrt(forwardPrice * strikePrice);
+        int theta = index;
+        //实值期权减去内在价值, 转换为虚值期权
+        if (theta * x > 0) {
+            beta = beta - theta * (Math.exp(x / 2) - Math.exp(-x / 2));
+            theta = -theta;
+        }
+        double maxBeta = Math.exp(theta * x / 2);
+        if (beta == 0) {
+            return 0;
+        }
+        if (!(beta > 0 && beta < maxBeta)) {
+            return Double.NaN;
+        }
+        double s = normalizedVolatility(x, beta, theta, maxBeta);
+        return s / Math.sqrt(timeRemaining);
+    }
+
+    /**
+     * @return s = vol * sqrt(t), 使得normalizedPrice(x, s, theta) = beta
+     */
+    private double normalizedVolatility(double x, double beta, int theta, double maxBeta) {
+        double sc = Math.sqrt(2 * Math.abs(x));
+        double logBeta = Math.log(beta);
+        //平值时拐点为0
+        double logBc = x == 0 ? Double.NEGATIVE_INFINITY : logNormalizedPrice(x, sc, theta);
+        double bc = Math.exp(logBc);
+        //拐点以下价格是s的凸函数, 对ln(b)迭代
+        boolean isLowerBranch = logBeta < logBc;
+        double s;
+        if (isLowerBranch) {
+            s = Math.sqrt(2 * x * x / (Math.abs(x) - 4 * (logBeta - logBc)));
+        } else {
+            s = -2 * CalculateUtil.inverseNormalCDF((maxBeta - beta) / (maxBeta - bc) *
+                    CalculateUtil.normalCDF(-sc / 2));
+        }
+        double lower = 0;
+        double upper = Double.POSITIVE_INFINITY;
+        double tol = iterParams.getTol();
+        for (int i = 0; i < iterParams.getIterations(); i++) {
+            //b', b''/b', b'''/b'
+            double logVega = logVega(x, s);
+            double g = x * x / (s * s * s) - s / 4;
+            double h = g * g - 3 * x * x / (s * s * s * s) - 0.25;
+            double newton;
+            double h2;
+            double h3;
+            if (isLowerBranch) {
+                //f = ln(b) - ln(beta); 相减抵消时ln(b)为负无穷, 步长为NaN, 在区间内二分
+                double logB = logNormalizedPrice(x, s, theta);
+                if (logB > logBeta) {
+                    upper = s;
+                } else {
+                    lower = s;
+                }
+                double v = Math.exp(logVega - logB);
+                newton = -(logB - logBeta) / v;
+                h2 = g - v;
+                h3 = h - 3 * g * v + 2 * v * v;
+            } else {
+                double b = normalizedPrice(x, s, theta);
+                if (b > beta) {
+                    upper = s;
+                } else {
+                    lower = s;
+                }
+                newton = -(b - beta) / Math.exp(logVega);
+                h2 = g;
+                h3 = h;
+            }
+            double step = newton * (1 + 0.5 * h2 * newton) / (1 + newton * (h2 + h3 * newton / 6));
+            double next = s + step;
+            if (!(next > lower && next < upper)) {
+                next = Double.isInfinite(upper) ? 2 * s : (lower + upper) / 2;
+            }
+            if (Math.abs(next - s) <= tol * next) {
+                return next;
+            }
+            s = next;
+        }
+        return s;
+    }
+
+    /**
+     * @return 标准化的bsm价格 theta * (exp(x / 2) * N(theta * d1) - exp(-x / 2) * N(theta * d2))
+     */
+    private static double normalizedPrice(double x, double s, int theta) {
+        double d1 = x / s + s / 2;
+        double d2 = d1 - s;
+        return theta * (Math.exp(x / 2) * CalculateUtil.normalCDF(theta * d1) -
+                Math.exp(-x / 2) * CalculateUtil.normalCDF(theta * d2));
+    }
+
+    /**
+     * 虚值期权(theta * x <= 0)标准化价格的对数; s不超过拐点sqrt(2|x|)时两项都在尾部, 令u = |x| / s,
+     * b = n(u) * exp(-s * s / 8) * (R(u - s / 2) - R(u + s / 2)), R为Mills比率, 不会下溢;
+     * 相减的相对误差约为 机器精度 * |x| / (s * s), 结果不为正时返回负无穷
+     *
+     * @return ln(normalizedPrice(x, s, theta))
+     */
+    private static double logNormalizedPrice(double x, double s, int theta) {
+        double u = Math.abs(x) / s;
+        if (u < s / 2) {
+            return Math.log(normalizedPrice(x, s, theta));
+        }
+        double diff = millsRatio(u - s / 2) - millsRatio(u + s / 2);
+        return diff > 0 ? logVega(x, s) + Math.log(diff) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return ln(b'), b' = n(x / s) * exp(-s * s / 8) 为标准化价格对s的导数
+     */
+    private static double logVega(double x, double s) {
+        return -0.5 * (x * x / (s * s) + s * s / 4) - Math.log(ConstantNumber.SQRT_TWO_PI);
+    }
+
+    /**
+     * Mills比率 R(z) = N(-z) / n(z), z >= 0; z较大时N(-z)下溢, 用连分式 1 / (z + 1 / (z + 2 / (z + ...)))
+     */
+    private static double millsRatio(double z) {
+        if (z < MILLS_RATIO_THRESHOLD) {
+            return CalculateUtil.normalCDF(-z) / CalculateUtil.normalPDF(z);
+        }
+        double tail = z;
+        for (int k = MILLS_RATIO_TERMS; k >= 1; k--) {
+            tail = z + k / tail;
+        }
+        return 1 / tail;
+    }
+}
@@ -0,0 +1,86 @@
+package calculator.derivatives;
+
+import calculator.utility.PathKernel;
+import calculator.utility.RandomNumberGenerator;
+
+/**
+ * @author liangcy
+ * 一块训练路径的紧凑缓存: 不保存路径, 只保存每条路径在每个行权日的行权收益和回归状态(float),
+ * 以及每条路径当前的现金流(折现到0时刻); 第d个行权日第p条路径的位置为d * pathSize + p;
+ * 向后递推时每个行权日先累加回归方程, 汇总求解后再按行权规则更新现金流;
+ */
+class LeastSquaresBlock {
+    private final LeastSquaresPolicy policy;
+    private final int pathSize;
+    private final float[] exerciseValues;
+    private final float[] states;
+    private final double[] cashFlows;
+
+    LeastSquaresBlock(LeastSquaresPolicy policy, int pathSize) {
+        this.policy = policy;
+        this.pathSize = pathSize;
+        int exerciseNums = policy.getExerciseNums();
+        this.exerciseValues = new float[exerciseNums * pathSize];
+        this.states = new float[exerciseNums * pathSize];
+        this.cashFlows = new double[pathSize];
+    }
+
+    /**
+     * 生成路径, 保存每个行权日的行权收益和回归状态, 现金流初始化为到期日的收益
+     *
+     * @param dimension 每条路径的随机数个数
+     */
+    void simulate(PathKernel kernel, RandomNumberGenerator generator, int dimension) {
+        double[] randomNums = new double[dimension];
+        double[] pricePath = new double[kernel.getTimeGrid().getNodes() + 1];
+        int last = policy.getExerciseNums() - 1;
+        for (int p = 0; p < pathSize; p++) {
+            generator.nextStandardNormal(randomNums);
+            kernel.generate(randomNums, pricePath);
+            for (int d = 0; d <= last; d++) {
+                exerciseValues[d * pathSize + p] = (float) policy.exerciseValue(pricePath, d);
+                states[d * pathSize + p] = (float) policy.state(pricePath, d);
+            }
+            cashFlows[p] = exerciseValues[last * pathSize + p] * policy.getDiscount(last);
+        }
+    }
+
+    /**
+     * 在第d个行权日的实值路径上累加回归方程 X'X 和 X'Y, Y为现金流
+     *
+     * @return 长度为BASIS_SIZE * (BASIS_SIZE + 1)的数组, 前面是X'X, 最后BASIS_SIZE个是X'Y
+     */
+    double[] accumulate(int d) {
+        int n = LeastSquaresPolicy.BASIS_SIZE;
+        double[] sums = new double[n * (n + 1)];
+        double[] basis = new double[n];
+        int offset = d * pathSize;
+        for (int p = 0; p < pathSize; p++) {
+            if (exerciseValues[offset + p] <= 0) {
+                continue;
+            }
+            LeastSquaresPolicy.basis(states[offset + p], basis);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    sums[i * n + j] = sums[i * n + j] + basis[i] * basis[j];
+                }
+                sums[n * n + i] = sums[n * n + i] + basis[i] * cashFlows[p];
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * 按第d个行权日的回归结果更新现金流
+     */
+    void exercise(int d) {
+        int offset = d * pathSize;
+        double discount = policy.getDiscount(d);
+        for (int p = 0; p < pathSize; p++) {
+            double exerciseValue = exerciseValues[offset + p] * discount;
+            if (policy.isExercise(d, exerciseValue, states[offset + p])) {
+                cashFlows[p] = exerciseValue;
+            }
+        }
+    }
+}
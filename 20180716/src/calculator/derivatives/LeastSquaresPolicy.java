@@ -0,0 +1,218 @@
+package calculator.derivatives;
+
+import calculator.utility.TimeGrid;
+import option.BaseSingleOption;
+
+/**
+ * @author liangcy
+ * 最小二乘蒙特卡洛(Longstaff-Schwartz)的行权规则;
+ * 每个行权日用实值路径的现金流(折现到0时刻)对回归状态x的多项式1, x, x^2, x^3回归, 得到继续持有的价值,
+ * 行权收益(折现到0时刻)不小于继续持有的价值时行权; 回归方程只有BASIS_SIZE阶, 用Cholesky分解原地求解;
+ * 回归系数由一组独立的训练路径得到, 定价时在新的路径上按规则行权, 因此价格是美式期权价格的下界估计;
+ * 行权日为时间网格上的点, 期权没有指定行权时间时网格上除0时刻外的每个点都可以行权, 到期日总是行权日;
+ */
+class LeastSquaresPolicy {
+    static final int BASIS_SIZE = 4;
+    /**
+     * 实值路径少于该值时这一天不行权
+     */
+    private static final int MIN_REGRESSION_PATHS = 2 * BASIS_SIZE;
+    private static final double TIME_TOLERANCE = 1e-10;
+
+    private final BaseSingleOption option;
+    /**
+     * 每个行权日在路径上的位置和折现因子
+     */
+    private final int[] exerciseIndex;
+    private final double[] discount;
+    /**
+     * 每个行权日的回归系数, 为null时这一天不行权
+     */
+    private final double[][] coefficients;
+
+    /**
+     * 与policy使用相同的回归系数, 行权收益, 回归状态和折现因子用option自己的;
+     * 用于平移后的期权计算希腊值, 行权规则不随平移改变, 差分不受回归误差的影响;
+     */
+    LeastSquaresPolicy(BaseSingleOption option, TimeGrid timeGrid, LeastSquaresPolicy policy) {
+        this(option, timeGrid, policy.coefficients);
+    }
+
+    LeastSquaresPolicy(BaseSingleOption option, TimeGrid timeGrid) {
+        this(option, timeGrid, (double[][]) null);
+    }
+
+    private LeastSquaresPolicy(BaseSingleOption option, TimeGrid timeGrid, double[][] coefficients) {
+        this.option = option;
+        double[] exerciseTimes = option.getMonteCarloExerciseTimes();
+        int nodes = timeGrid.getNodes();
+        int[] index = new int[nodes];
+        int n = 0;
+        for (int i = 1; i <= nodes; i++) {
+            if (i == nodes || exerciseTimes == null || contains(exerciseTimes, timeGrid.getTime(i))) {
+                index[n] = i;
+                n = n + 1;
+            }
+        }
+        this.exerciseIndex = new int[n];
+        System.arraycopy(index, 0, exerciseIndex, 0, n);
+        double r = option.getUnderlying().getRiskFreeRate();
+        this.discount = new double[n];
+        for (int d = 0; d < n; d++) {
+            discount[d] = Math.exp(-r * timeGrid.getTime(exerciseIndex[d]));
+        }
+        this.coefficients = coefficients == null ? new double[n][] : coefficients;
+    }
+
+    private static boolean contains(double[] times, double time) {
+        for (double t : times) {
+            if (Math.abs(t - time) < TIME_TOLERANCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 与policy的行权日个数相同时可以共用回归系数
+     */
+    boolean isCompatible(LeastSquaresPolicy policy) {
+        return coefficients.length == policy.coefficients.length;
+    }
+
+    /**
+     * @return 是否与policy共用回归系数
+     */
+    boolean isSharedWith(LeastSquaresPolicy policy) {
+        return coefficients == policy.coefficients;
+    }
+
+    int getExerciseNums() {
+        return exerciseIndex.length;
+    }
+
+    double getDiscount(int d) {
+        return discount[d];
+    }
+
+    double exerciseValue(double[] pricePath, int d) {
+        return option.monteCarloExerciseValue(pricePath, exerciseIndex[d]);
+    }
+
+    double state(double[] pricePath, int d) {
+        return option.monteCarloRegressionState(pricePath, exerciseIndex[d]);
+    }
+
+    static void basis(double x, double[] basis) {
+        basis[0] = 1;
+        for (int i = 1; i < basis.length; i++) {
+            basis[i] = basis[i - 1] * x;
+        }
+    }
+
+    /**
+     * 用所有训练路径在第d个行权日的回归方程求解回归系数
+     *
+     * @param sums 各块accumulate(d)的和, X'X的第一个元素就是实值路径的条数
+     */
+    void fit(int d, double[] sums) {
+        int n = BASIS_SIZE;
+        if (sums[0] < MIN_REGRESSION_PATHS || !solve(sums, n)) {
+            coefficients[d] = null;
+            return;
+        }
+        double[] beta = new double[n];
+        System.arraycopy(sums, n * n, beta, 0, n);
+        coefficients[d] = beta;
+    }
+
+    /**
+     * @param exerciseValue 折现到0时刻的行权收益
+     * @param state         回归状态
+     * @return 是否在第d个行权日行权
+     */
+    boolean isExercise(int d, double exerciseValue, double state) {
+        double[] beta = coefficients[d];
+        if (exerciseValue <= 0 || beta == null) {
+            return false;
+        }
+        double continuation = beta[BASIS_SIZE - 1];
+        for (int i = BASIS_SIZE - 2; i >= 0; i--) {
+            continuation = continuation * state + beta[i];
+        }
+        return exerciseValue >= continuation;
+    }
+
+    /**
+     * 按行权规则找到一条路径的行权日
+     *
+     * @param pricePath 与训练路径相同时间网格上的路径
+     * @return 行权日的序号, 不提前行权时为最后一个行权日(到期日)
+     */
+    int exerciseDate(double[] pricePath) {
+        int last = exerciseIndex.length - 1;
+        for (int d = 0; d < last; d++) {
+            if (coefficients[d] == null) {
+                continue;
+            }
+            double exerciseValue = exerciseValue(pricePath, d);
+            if (exerciseValue > 0 && isExercise(d, exerciseValue * discount[d], state(pricePath, d))) {
+                return d;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return 在第d个行权日行权的折现收益
+     */
+    double price(double[] pricePath, int d) {
+        return exerciseValue(pricePath, d) * discount[d];
+    }
+
+    /**
+     * 原地求解 A * beta = b, A是n阶对称正定矩阵;
+     * A按行保存在sums的前n * n个元素中, b保存在之后的n个元素中, 结果写回b的位置;
+     *
+     * @return A不正定时返回false
+     */
+    static boolean solve(double[] sums, int n) {
+        int b = n * n;
+        //Cholesky分解 A = L * L', L保存在A的下三角
+        for (int j = 0; j < n; j++) {
+            double diagonal = sums[j * n + j];
+            for (int k = 0; k < j; k++) {
+                diagonal = diagonal - sums[j * n + k] * sums[j * n + k];
+            }
+            if (!(diagonal > 0)) {
+                return false;
+            }
+            diagonal = Math.sqrt(diagonal);
+            sums[j * n + j] = diagonal;
+            for (int i = j + 1; i < n; i++) {
+                double value = sums[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    value = value - sums[i * n + k] * sums[j * n + k];
+                }
+                sums[i * n + j] = value / diagonal;
+            }
+        }
+        //L * y = b
+        for (int i = 0; i < n; i++) {
+            double value = sums[b + i];
+            for (int k = 0; k < i; k++) {
+                value = value - sums[i * n + k] * sums[b + k];
+            }
+            sums[b + i] = value / sums[i * n + i];
+        }
+        //L' * beta = y
+        for (int i = n - 1; i >= 0; i--) {
+            double value = sums[b + i];
+            for (int k = i + 1; k < n; k++) {
+                value = value - sums[k * n + i] * sums[b + k];
+            }
+            sums[b + i] = value / sums[i * n + i];
+        }
+        return true;
+    }
+}
@@ -0,0 +1,208 @@
+package calculator.derivatives;
+
+import calculator.utility.CalculateUtil;
+import calculator.utility.CalculatorThreadPool;
+import calculator.utility.CorrelatedPathKernel;
+import calculator.utility.MonteCarlo;
+import calculator.utility.RandomNumberGenerator;
+import calculator.utility.RunningStatistics;
+import flanagan.math.DeepCopy;
+import option.BaseSingleOption;
+import option.MultiAssetOption;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongFunction;
+
+import static calculator.utility.CalculatorError.*;
+
+/**
+ * 一个任务模拟一段路径: 每组随机数生成所有标的的相关路径并立即计算收益, 只累加到流式统计量中;
+ * 随机数和路径数组在任务内复用; 使用对偶变量时样本取Z和-Z两组路径的平均;
+ */
+class MultiAssetMonteCarloTask implements Callable<RunningStatistics> {
+    private final MultiAssetOption option;
+    private final CorrelatedPathKernel kernel;
+    private final RandomNumberGenerator generator;
+    private final int pathSize;
+    private final boolean useAntithetic;
+
+    private final double[] randomNums;
+    private final double[][] correlatedNums;
+    private final double[][] pricePaths;
+
+    MultiAssetMonteCarloTask(MultiAssetOption option, CorrelatedPathKernel kernel, RandomNumberGenerator generator,
+                             int nodes, int pathSize, boolean useAntithetic) {
+        this.option = option;
+        this.kernel = kernel;
+        this.generator = generator;
+        this.pathSize = pathSize;
+        this.useAntithetic = useAntithetic;
+        int assetNums = kernel.getAssetNums();
+        this.randomNums = new double[nodes * assetNums];
+        this.correlatedNums = new double[assetNums][nodes];
+        this.pricePaths = new double[assetNums][nodes + 1];
+    }
+
+    @Override
+    public RunningStatistics call() {
+        RunningStatistics statistics = new RunningStatistics();
+        for (int i = 0; i < pathSize; i++) {
+            generator.nextStandardNormal(randomNums);
+            kernel.generate(randomNums, correlatedNums, pricePaths);
+            double sample = option.monteCarloPrice(pricePaths);
+            if (useAntithetic) {
+                for (int d = 0; d < randomNums.length; d++) {
+                    randomNums[d] = -randomNums[d];
+                }
+                kernel.generate(randomNums, correlatedNums, pricePaths);
+                sample = (sample + option.monteCarloPrice(pricePaths)) / 2;
+            }
+            statistics.add(sample);
+        }
+        return statistics;
+    }
+}
+
+/**
+ * @author liangcy
+ * 多标的期权的蒙特卡洛计算器, 目前只计算价格;
+ * 各标的服从几何布朗运动(可使用各自的波动率曲面), 相关性由相关系数矩阵的Cholesky分解给出;
+ * 与SingleOptionMonteCarloCalculator相同: 路径按chunkSize分块提交到共享线程池, 按任务顺序合并,
+ * 随机数由MonteCarlo的种子和路径序号决定, 结果与线程数无关;
+ * MonteCarlo中的model, 控制变量, 矩匹配和自适应参数对多标的不起作用;
+ */
+public class MultiAssetMonteCarloCalculator extends BaseCalculator implements Serializable {
+    private MultiAssetOption option;
+    private MonteCarlo monteCarloParams = new MonteCarlo();
+    /**
+     * 每个任务模拟的路径条数
+     */
+    private int chunkSize = 2000;
+    private double standardError = 0;
+    private double[] confidenceInterval = new double[2];
+
+    public MultiAssetMonteCarloCalculator() {
+
+    }
+
+    public MultiAssetMonteCarloCalculator(MultiAssetOption option) {
+        this.option = option;
+    }
+
+    public MultiAssetOption getOption() {
+        return option;
+    }
+
+    public void setOption(MultiAssetOption option) {
+        this.option = option;
+    }
+
+    public MonteCarlo getMonteCarloParams() {
+        return monteCarloParams;
+    }
+
+    public void setMonteCarloParams(MonteCarlo monteCarloParams) {
+        this.monteCarloParams = monteCarloParams;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public double getStandardError() {
+        return standardError;
+    }
+
+    public double[] getConfidenceInterval() {
+        return confidenceInterval;
+    }
+
+    @Override
+    public void resetCalculator() {
+        super.resetCalculator();
+        standardError = 0;
+        confidenceInterval = new double[2];
+    }
+
+    /**
+     * 各标的的期限以第一个期权为准, 期限不同的期权复制一份并改为第一个期权的期限
+     */
+    private List<BaseSingleOption> alignedUnderlyingOptions() {
+        List<BaseSingleOption> options = option.getUnderlyingOptions();
+        double t = options.get(0).getVanillaOptionParams().getTimeRemaining();
+        List<BaseSingleOption> aligned = new ArrayList<>(options.size());
+        for (BaseSingleOption underlyingOption : options) {
+            if (underlyingOption.getVanillaOptionParams().getTimeRemaining() != t) {
+                underlyingOption = (BaseSingleOption) DeepCopy.copy(underlyingOption);
+                underlyingOption.getVanillaOptionParams().setTimeRemaining(t);
+            }
+            aligned.add(underlyingOption);
+        }
+        return aligned;
+    }
+
+    @Override
+    public void calculatePrice() {
+        resetCalculator();
+        List<BaseSingleOption> options = option.getUnderlyingOptions();
+        double[][] correlationMatrix = option.getCorrelationMatrix();
+        if (options == null || options.isEmpty() || correlationMatrix == null ||
+                correlationMatrix.length != options.size()) {
+            setError(CALCULATE_FAILED);
+            return;
+        }
+        CorrelatedPathKernel kernel = new CorrelatedPathKernel(alignedUnderlyingOptions(), correlationMatrix,
+                monteCarloParams);
+        if (!kernel.isValidCorrelation()) {
+            setError(CALCULATE_NAN);
+            return;
+        }
+        int nodes = monteCarloParams.getNodes();
+        int pathSize = monteCarloParams.getPathSize();
+        int taskNums = (pathSize + chunkSize - 1) / chunkSize;
+        LongFunction<RandomNumberGenerator> generators =
+                monteCarloParams.createRandomNumberGeneratorFactory(kernel.getAssetNums());
+        List<Future<RunningStatistics>> futureList = new ArrayList<>(taskNums);
+        RunningStatistics statistics = new RunningStatistics();
+        try {
+            for (int i = 0; i < taskNums; i++) {
+                int subPathSize = Math.min(chunkSize, pathSize - i * chunkSize);
+                futureList.add(CalculatorThreadPool.submit(new MultiAssetMonteCarloTask(option, kernel,
+                        generators.apply((long) i * chunkSize), nodes, subPathSize,
+                        monteCarloParams.isUseAntithetic())));
+            }
+            for (Future<RunningStatistics> future : futureList) {
+                statistics.merge(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CalculatorThreadPool.cancelAll(futureList);
+            setError(CALCULATE_FAILED);
+            return;
+        } catch (ExecutionException | RejectedExecutionException e) {
+            CalculatorThreadPool.cancelAll(futureList);
+            setError(CALCULATE_FAILED);
+            return;
+        }
+        double mean = statistics.getMean();
+        if (Double.isNaN(mean)) {
+            setError(CALCULATE_NAN);
+            return;
+        }
+        setResult(mean);
+        standardError = statistics.getStandardError();
+        double z = CalculateUtil.inverseNormalCDF(0.5 + monteCarloParams.getConfidenceLevel() / 2);
+        confidenceInterval = new double[]{mean - z * standardError, mean + z * standardError};
+        setError(NORMAL);
+    }
+}
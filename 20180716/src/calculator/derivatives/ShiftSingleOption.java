@@ -0,0 +1,131 @@
+package calculator.derivatives;
+
+import calculator.utility.CalculateUtil;
+import option.BaseSingleOption;
+
+import java.io.Serializable;
+
+/**
+ * @author liangcy
+ * 期权的情景平移: 复制两份期权分别向下和向上平移一个参数, 差分的分母为两者参数之差
+ */
+class ShiftSingleOption implements Serializable {
+    private BaseSingleOption option;
+    private BaseSingleOption[] options = new BaseSingleOption[2];
+    private double denominator = 0;
+
+    ShiftSingleOption() {}
+
+    ShiftSingleOption(BaseSingleOption option) {
+        setOption(option);
+    }
+
+    public void setOption(BaseSingleOption option) {
+        this.option = option;
+    }
+
+    public BaseSingleOption[] getOptions() {
+        return options;
+    }
+
+    public double getDenominator() {
+        return denominator;
+    }
+
+    private void setOptions(BaseSingleOption[] options) {
+        this.options = options;
+    }
+
+    private void setDenominator(double denominator) {
+        this.denominator = denominator;
+    }
+
+    /**
+     * 平移只修改标的和期权参数, 用BaseSingleOption.copy, 不序列化整个期权
+     */
+    private void initialOptions() {
+        initialOptions(false);
+    }
+
+    /**
+     * refreshVolSurface只在复制出来的期权上做(先复制曲面再修改), 不修改原期权共享的曲面, 多线程同时计算同一期权时安全;
+     * 两个复制共享修正后的曲面
+     */
+    private void initialOptions(boolean refreshVolSurface) {
+        options[0] = option.copy();
+        if(refreshVolSurface) {
+            options[0].refreshVolSurface();
+        }
+        options[1] = options[0].copy();
+    }
+
+    void shiftUnderlyingPrice(boolean useVolatilitySurface) {
+        initialOptions(useVolatilitySurface);
+
+        double precision = option.getPrecision().getUnderlyingPricePrecision();
+        double s = option.getUnderlying().getSpotPrice();
+        double[] diffSpotPrice = CalculateUtil.midDiffValue(s, precision);
+        setDenominator(diffSpotPrice[1] - diffSpotPrice[0]);
+
+        options[0].getUnderlying().setSpotPrice(diffSpotPrice[0]);
+        options[1].getUnderlying().setSpotPrice(diffSpotPrice[1]);
+        if(useVolatilitySurface) {
+            double lowerVolatility = options[0].getVolatilityFromSurface();
+            double upperVolatility = options[1].getVolatilityFromSurface();
+            options[0].getVanillaOptionParams().setVolatility(lowerVolatility);
+            options[1].getVanillaOptionParams().setVolatility(upperVolatility);
+        }
+
+    }
+
+    void shiftVolatility() {
+        initialOptions();
+
+        double precision = option.getPrecision().getVolatilityPrecision();
+        double vol = option.getVanillaOptionParams().getVolatility();
+        double[] diffVol = CalculateUtil.midDiffValue(vol, precision);
+        setDenominator(diffVol[1] - diffVol[0]);
+        options[0].getVanillaOptionParams().setVolatility(diffVol[0]);
+        options[1].getVanillaOptionParams().setVolatility(diffVol[1]);
+    }
+
+    void shiftTimeRemaining(boolean useVolatilitySurface) {
+        initialOptions(useVolatilitySurface);
+
+        double precision = option.getPrecision().getTimeRemainingPrecision();
+        double t = option.getVanillaOptionParams().getTimeRemaining();
+        double[] diffTime = CalculateUtil.backwardDiffValue(t, precision);
+        setDenominator(diffTime[1] - diffTime[0]);
+
+        options[0].getVanillaOptionParams().setTimeRemaining(diffTime[0]);
+        if(useVolatilitySurface) {
+            double volatility = options[0].getVolatilityFromSurface();
+            options[0].getVanillaOptionParams().setVolatility(volatility);
+        }
+    }
+
+    void shiftInterestRate() {
+        initialOptions();
+
+        double precision = option.getPrecision().getInterestRatePrecision();
+        double r = option.getUnderlying().getRiskFreeRate();
+        double[] diffRate = CalculateUtil.midDiffValue(r, precision);
+        setDenominator(diffRate[1] - diffRate[0]);
+
+        options[0].getUnderlying().setRiskFreeRate(diffRate[0]);
+        options[1].getUnderlying().setRiskFreeRate(diffRate[1]);
+    }
+
+    void shiftDividendRate() {
+        initialOptions();
+
+        double precision = option.getPrecision().getInterestRatePrecision();
+        double q = option.getUnderlying().getDividendRate();
+        double[] diffRate = CalculateUtil.midDiffValue(q, precision);
+        setDenominator(diffRate[1] - diffRate[0]);
+
+        options[0].getUnderlying().setDividendRate(diffRate[0]);
+        options[1].getUnderlying().setDividendRate(diffRate[1]);
+    }
+
+}
@@ -1,43 +1,124 @@
 package calculator.derivatives;
 
+import calculator.utility.CalculatorResult;
+import calculator.utility.GreekSet;
 import calculator.utility.NewtonIterationParams;
 import flanagan.roots.RealRoot;
 import flanagan.roots.RealRootDerivFunction;
+import option.BaseOption;
 import option.BaseSingleOption;
+import option.PricingModel;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Optional;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import static calculator.utility.CalculatorError.*;
 
 /**
- * 构造计算隐含波动率的Newton方程。
+ * 构造计算隐含波动率的Newton方程, 修改的是期权复制的波动率。
  */
 class ImpliedVolFunction implements RealRootDerivFunction {
-    private BaseSingleOption option;
+    private final SingleOptionAnalysisCalculator calculator;
+    private final BaseSingleOption option;
 
-    public void setOption(BaseSingleOption option) {
+    ImpliedVolFunction(SingleOptionAnalysisCalculator calculator, BaseSingleOption option) {
+        this.calculator = calculator;
         this.option = option;
     }
 
     @Override
     public double[] function(double estimateVol) {
         option.getVanillaOptionParams().setVolatility(estimateVol);
-        SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator(option);
-        calculator.calculatePrice();
         double[] y = new double[2];
-        y[0] = calculator.getResult() - option.getVanillaOptionParams().getTargetPrice();
-        calculator.calculateVega();
+        y[0] = calculator.priceOf(option).getValue() - option.getVanillaOptionParams().getTargetPrice();
         // 计算的是1%的Vega, 计算斜率要乘100.
-        y[1] = calculator.getResult() * 100;
+        y[1] = calculator.vegaOf(option).getValue() * 100;
         return y;
     }
 }
 
 
+/**
+ * 按期权类型和模型名称缓存解析解模型, 每个组合只查找一次;
+ * 先用期权的getPricingModel(直接调用), 没有时按名称查找无参数的方法(先查自身的方法, 再查继承来的方法),
+ * 找到的方法转换为MethodHandle, 调用时不装箱; 找不到时缓存NOT_FOUND;
+ */
+class PricingModels {
+    private static final PricingModel NOT_FOUND = option -> Double.NaN;
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, PricingModel>> MODELS =
+            new ConcurrentHashMap<>();
+
+    private PricingModels() {}
+
+    /**
+     * @return 模型, 找不到时返回null
+     */
+    static PricingModel get(BaseSingleOption option, String methodName) {
+        if (methodName == null) {
+            return null;
+        }
+        PricingModel model = MODELS.computeIfAbsent(option.getClass(), c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(methodName, name -> resolve(option, name));
+        return model == NOT_FOUND ? null : model;
+    }
+
+    private static PricingModel resolve(BaseSingleOption option, String methodName) {
+        PricingModel model = option.getPricingModel(methodName);
+        if (model != null) {
+            return model;
+        }
+        Method method = findMethod(option.getClass(), methodName);
+        if (method == null) {
+            return NOT_FOUND;
+        }
+        MethodHandle handle;
+        try {
+            method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method);
+            if (Modifier.isStatic(method.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, BaseSingleOption.class);
+            }
+            handle = handle.asType(MethodType.methodType(double.class, BaseSingleOption.class));
+        } catch (IllegalAccessException | RuntimeException e) {
+            //返回值不能转换为double等情况
+            return NOT_FOUND;
+        }
+        MethodHandle methodHandle = handle;
+        return target -> {
+            try {
+                return (double) methodHandle.invokeExact(target);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static Method findMethod(Class<?> c, String methodName) {
+        try {
+            return c.getDeclaredMethod(methodName);
+        } catch (NoSuchMethodException e) {
+            try {
+                return c.getMethod(methodName);
+            } catch (NoSuchMethodException e1) {
+                return null;
+            }
+        }
+    }
+}
+
+
 /**
  * 计算解析解的价格, implied volatility.
+ * 除了calculateXxx(), 还有只依赖传入期权的price, delta等方法, 返回不可修改的CalculatorResult,
+ * 同一个计算器可以在多个线程中同时计算不同的期权(计算器的参数在计算时不能修改);
+ * 使用波动率曲面时会平移期权自己的曲面, sabr等模型会修改期权, 同一个期权不能在多个线程中同时计算;
  *
  * @author liangcy
  */
@@ -61,43 +142,18 @@ public class SingleOptionAnalysisCalculator extends BaseSingleOptionCalculator {
     }
 
     /**
-     * @return 获取对象的方法，先检查自身的方法，再检查继承来的方法
+     * @return 期权的解析解模型, 见PricingModels; 找不到时返回null
      */
-    private Optional<Method> getMethod() {
-        Class<?> c = option.getClass();
-        String methodName = option.getVanillaOptionParams().getMethodName();
-        try {
-            return Optional.of(c.getDeclaredMethod(methodName));
-        } catch (NoSuchMethodException e) {
-            try {
-                return Optional.of(c.getMethod(methodName));
-            } catch (NoSuchMethodException e1) {
-                return Optional.empty();
-            }
-        }
+    private static PricingModel getModel(BaseSingleOption option) {
+        return PricingModels.get(option, option.getVanillaOptionParams().getMethodName());
     }
 
     @Override
     public boolean hasMethod() {
-        return getMethod().isPresent();
+        return getModel(option) != null;
     }
 
-    /**
-     * 根据方法来获取结果。
-     *
-     * @param method 方法
-     * @return 根据方法计算的价格。
-     * @throws InvocationTargetException 内部异常捕获
-     * @throws IllegalAccessException    非法访问方法
-     */
-    private double getPrice(Method method) throws InvocationTargetException, IllegalAccessException {
-        if(!method.isAccessible()) {
-            method.setAccessible(true);
-        }
-        return (double) method.invoke(option);
-    }
-
-    private RealRoot initialRealRootFun() {
+    private RealRoot initialRealRootFun(BaseSingleOption option) {
         RealRoot realRoot = new RealRoot();
         realRoot.setTolerance(iterParams.getTol());
         realRoot.setIterMax(iterParams.getIterations());
@@ -122,59 +178,142 @@ public class SingleOptionAnalysisCalculator extends BaseSingleOptionCalculator {
     @Override
     public void calculateImpliedVolatility() {
         resetCalculator();
-        RealRoot realRoot = initialRealRootFun();
-        ImpliedVolFunction function = new ImpliedVolFunction();
-        function.setOption(option);
+        CalculatorResult impliedVolatility = impliedVolatility(option);
+        //计算成功
+        if (impliedVolatility.isNormal()) {
+            option.getVanillaOptionParams().setVolatility(impliedVolatility.getValue());
+        }
+        setCalculatorResult(impliedVolatility);
+    }
+
+    /**
+     * 牛顿二分法计算隐含波动率, 下限0.001, 上限4.000; 在期权的复制上迭代, 不修改期权的波动率;
+     *
+     * @return 隐含波动率和迭代次数, 达到迭代上限时返回最后一次迭代的值
+     */
+    public CalculatorResult impliedVolatility(BaseSingleOption option) {
+        if (getModel(option) == null) {
+            return CalculatorResult.error(NOT_FOUND_METHOD);
+        }
+        RealRoot realRoot = initialRealRootFun(option);
+        ImpliedVolFunction function = new ImpliedVolFunction(this, option.copy());
         double root;
         try {
             root = realRoot.bisectNewtonRaphson(function);
         } catch (Exception e) {
-            setError(CALCULATE_FAILED);
-            return;
+            return CalculatorResult.error(CALCULATE_FAILED);
         }
         //root是NaN,计算失败
         if (Double.isNaN(root)) {
-            setError(CALCULATE_NAN);
-            return;
+            return CalculatorResult.error(CALCULATE_NAN);
         }
         //达到迭代上限
         if (realRoot.getIterN() > realRoot.getIterMax()) {
-            setResult(root);
-            setError(REACH_MAX_ITERATION);
-            return;
+            return new CalculatorResult(root, REACH_MAX_ITERATION, realRoot.getIterN());
         }
-        //计算成功
-        option.getVanillaOptionParams().setVolatility(root);
-        setResult(root);
-        setError(NORMAL);
+        return new CalculatorResult(root, NORMAL, realRoot.getIterN());
     }
 
-    @Override
-    public void calculatePrice() {
-        resetCalculator();
+    public CalculatorResult price(BaseSingleOption option) {
+        return priceOf(option);
+    }
+
+    public CalculatorResult delta(BaseSingleOption option) {
+        return withModel(option, this::deltaOf);
+    }
 
-        if (!hasMethod()) {
-            setError(NOT_FOUND_METHOD);
-            return;
+    public CalculatorResult gamma(BaseSingleOption option) {
+        return withModel(option, this::gammaOf);
+    }
+
+    public CalculatorResult vega(BaseSingleOption option) {
+        return withModel(option, this::vegaOf);
+    }
+
+    public CalculatorResult theta(BaseSingleOption option) {
+        return withModel(option, this::thetaOf);
+    }
+
+    public CalculatorResult rho(BaseSingleOption option) {
+        return withModel(option, this::rhoOf);
+    }
+
+    public CalculatorResult rho2(BaseSingleOption option) {
+        return withModel(option, this::rho2Of);
+    }
+
+    /**
+     * @return 价格和全部希腊值, 每次返回新的GreekSet, 见calculateAllGreeks
+     */
+    public GreekSet allGreeks(BaseSingleOption option) {
+        if (getModel(option) == null) {
+            GreekSet greeks = new GreekSet();
+            greeks.setError(UNSUPPORTED_METHOD);
+            return greeks;
+        }
+        return greeksOf(option);
+    }
+
+    private static CalculatorResult withModel(BaseSingleOption option,
+                                              Function<BaseSingleOption, CalculatorResult> greek) {
+        if (getModel(option) == null) {
+            return CalculatorResult.error(UNSUPPORTED_METHOD);
+        }
+        return greek.apply(option);
+    }
+
+    /**
+     * bsm模型且期权有解析希腊值(见BaseSingleOption.hasBsmGreeks)时用公式一次计算;
+     * 使用波动率曲面时delta, gamma, theta要包含波动率随标的价格和剩余期限的变化, 仍然用差分;
+     */
+    @Override
+    GreekSet greeksOf(BaseSingleOption option) {
+        if (!option.hasBsmGreeks() || canUseVolatilitySurface(option) ||
+                !BaseOption.OPTION_METHOD_BSM.equals(option.getVanillaOptionParams().getMethodName())) {
+            return super.greeksOf(option);
+        }
+        GreekSet greeks = new GreekSet();
+        try {
+            option.bsmGreeks(greeks);
+        } catch (RuntimeException e) {
+            greeks.setError(CALCULATE_FAILED);
+            return greeks;
+        }
+        if (Double.isNaN(greeks.getPrice() + greeks.getDelta() + greeks.getGamma() + greeks.getVega() +
+                greeks.getTheta() + greeks.getRho() + greeks.getRho2())) {
+            greeks.setError(CALCULATE_NAN);
+            return greeks;
         }
+        greeks.setError(NORMAL);
+        return greeks;
+    }
 
-        //这里未做try-catch是因为前面已经return走了;
-        Method method = getMethod().get();
+    /**
+     * 只读取期权, 不修改计算器
+     */
+    @Override
+    CalculatorResult priceOf(BaseSingleOption option) {
+        PricingModel model = getModel(option);
+        if (model == null) {
+            return CalculatorResult.error(NOT_FOUND_METHOD);
+        }
 
         double price;
         try {
-            price = getPrice(method);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            setError(CALCULATE_FAILED);
-            return;
+            price = model.price(option);
+        } catch (RuntimeException e) {
+            return CalculatorResult.error(CALCULATE_FAILED);
         }
 
         if (Double.isNaN(price)) {
-            setError(CALCULATE_NAN);
-            return;
+            return CalculatorResult.error(CALCULATE_NAN);
         }
+        return CalculatorResult.of(price);
+    }
 
-        setResult(price);
-        setError(NORMAL);
+    @Override
+    public void calculatePrice() {
+        resetCalculator();
+        setCalculatorResult(priceOf(option));
     }
 }
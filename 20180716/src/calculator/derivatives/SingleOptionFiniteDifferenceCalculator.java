@@ -1,19 +1,44 @@
 package calculator.derivatives;
 
-import calculator.utility.CalculateUtil;
 import calculator.utility.CalculatorError;
+import calculator.utility.CalculatorResult;
 import calculator.utility.FiniteDifference;
-import flanagan.math.Matrix;
+import calculator.utility.FiniteDifferenceResult;
+import calculator.utility.GreekSet;
+import calculator.utility.TridiagonalMatrix;
+import option.BaseSingleOption;
 import option.EuropeanOption;
 import java.io.Serializable;
+import java.util.Arrays;
 
 
 /**
  * @author liangcy
+ * 一次求解得到整个价格网格(FiniteDifferenceResult), 价格, delta, gamma, theta都从网格读取;
+ * 最近一次求解的结果按期权参数, 网格设置和到期收益缓存, 参数不变时连续计算价格和希腊值只求解一次;
+ * 提前行权的处理方法见FiniteDifference.getExerciseMethod(), 投影SOR不收敛时返回REACH_MAX_ITERATION;
+ * 障碍期权等给出价格区域边界的期权, 网格截断在边界上, 每步把边界上的期权价格代入右端项;
+ * vega, rho, rho2把参数上下平移后的期权放在缓存的价格网格上求解(中心差分), 不替换缓存;
  */
 public class SingleOptionFiniteDifferenceCalculator extends BaseSingleOptionCalculator implements Serializable {
 
     private FiniteDifference finiteDifference = new FiniteDifference();
+    private FiniteDifferenceResult finiteDifferenceResult;
+
+    public FiniteDifference getFiniteDifference() {
+        return finiteDifference;
+    }
+
+    public void setFiniteDifference(FiniteDifference finiteDifference) {
+        this.finiteDifference = finiteDifference;
+    }
+
+    /**
+     * @return 最近一次求解的结果
+     */
+    public FiniteDifferenceResult getFiniteDifferenceResult() {
+        return finiteDifferenceResult;
+    }
 
     @Override
     public boolean hasMethod() {
@@ -23,42 +48,222 @@ public class SingleOptionFiniteDifferenceCalculator extends BaseSingleOptionCalc
     @Override
     public void calculatePrice() {
         resetCalculator();
-        if (!option.hasFiniteDifferenceMethod()) {
-            setError(CalculatorError.UNSUPPORTED_METHOD);
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
             return;
         }
-        double result = optionPriceMatrix()[0][finiteDifference.getIndexOfInitialSpot()];
-        setResult(result);
+        setResult(result.getPrice());
         setError(CalculatorError.NORMAL);
     }
 
     /**
-     * @return n * m matrix;第一行是时刻为0时期权价格向量, 最后一行是时刻为t时期权价格向量;
-     * 期权价格向量根据标的资产价格从小到大排列;
+     * @return 当前期权的求解结果, 与缓存的状态相同时直接返回缓存; 不能计算时设置错误并返回null
      */
-    private double[][] optionPriceMatrix() {
+    private FiniteDifferenceResult solve() {
+        if (!option.hasFiniteDifferenceMethod()) {
+            setError(CalculatorError.UNSUPPORTED_METHOD);
+            return null;
+        }
         finiteDifference.generateFiniteDifferencePoints(option);
+        double[] payoff = option.finiteDifferencePrice(finiteDifference.getPricePoints());
+        String settings = finiteDifference.toString();
+        double[] parameters = stateParameters(option);
+        if (finiteDifferenceResult == null || !finiteDifferenceResult.isSameState(settings, parameters, payoff,
+                finiteDifference.getPricePoints())) {
+            double[][] values = optionPriceLayers(option, payoff);
+            if (values == null) {
+                setError(CalculatorError.REACH_MAX_ITERATION);
+                return null;
+            }
+            finiteDifferenceResult = new FiniteDifferenceResult(settings, parameters, payoff,
+                    finiteDifference.getPricePoints(), finiteDifference.getTimePoints(),
+                    values, finiteDifference.getIndexOfInitialSpot());
+        }
+        return finiteDifferenceResult;
+    }
+
+    /**
+     * 在grid的网格上求解平移后的期权, 结果不缓存
+     *
+     * @return 期权价格, 投影SOR不收敛时为NaN
+     */
+    private double solvePrice(BaseSingleOption shiftedOption, FiniteDifferenceResult grid) {
+        finiteDifference.generateFiniteDifferencePoints(shiftedOption, grid.getPricePoints(),
+                grid.getIndexOfInitialSpot());
+        double[] payoff = shiftedOption.finiteDifferencePrice(finiteDifference.getPricePoints());
+        double[][] values = optionPriceLayers(shiftedOption, payoff);
+        return values == null ? Double.NaN : values[0][grid.getIndexOfInitialSpot()];
+    }
+
+    /**
+     * @return 决定差分方程系数, 网格和边界条件的参数; 边界条件用0时刻和到期日边界上的期权价格表示
+     */
+    private static double[] stateParameters(BaseSingleOption option) {
+        double[] parameters = new double[]{
+                option.getUnderlying().getSpotPrice(),
+                option.getUnderlying().getRiskFreeRate(),
+                option.getUnderlying().getCostOfCarry(),
+                option.getVanillaOptionParams().getVolatility(),
+                option.getVanillaOptionParams().getTimeRemaining(),
+                option.getVanillaOptionParams().getStrikePrice(),
+                option.isEarlyExercise() ? 1 : 0};
+        double[] exerciseTimes = option.getFiniteDifferenceExerciseTimes();
+        if (exerciseTimes != null) {
+            parameters = append(parameters, exerciseTimes);
+        }
+        double[] boundaryTimes = new double[]{0, option.getVanillaOptionParams().getTimeRemaining()};
+        double lowerBoundary = option.getFiniteDifferenceLowerBoundary();
+        if (!Double.isNaN(lowerBoundary)) {
+            parameters = append(parameters, option.finiteDifferenceBoundaryPrice(lowerBoundary, boundaryTimes));
+        }
+        double upperBoundary = option.getFiniteDifferenceUpperBoundary();
+        if (!Double.isNaN(upperBoundary)) {
+            parameters = append(parameters, option.finiteDifferenceBoundaryPrice(upperBoundary, boundaryTimes));
+        }
+        return parameters;
+    }
+
+    private static double[] append(double[] array, double[] values) {
+        double[] result = Arrays.copyOf(array, array.length + values.length);
+        System.arraycopy(values, 0, result, array.length, values.length);
+        return result;
+    }
+
+    /**
+     * 从到期日向前递推, 只用一个价格数组原地滚动, 每步不分配内存; 只复制需要保存的前几个时间点;
+     * 可以行权的时间点上求解线性互补问题, 行权价值就是到期收益;
+     *
+     * @param payoff 到期日(行权时)的期权价格, 不会被修改
+     * @return 前numOfSavedTimeLayers个时间点的期权价格, 第一行是时刻为0时期权价格向量;
+     * 期权价格向量根据标的资产价格从小到大排列; 投影SOR不收敛时返回null;
+     */
+    private double[][] optionPriceLayers(BaseSingleOption option, double[] payoff) {
         int n = finiteDifference.getNumOfTimePoints();
-        double[][] result = new double[n][];
-        //记录行权时的期权价格;
-        double[] exercisePrice = option.finiteDifferencePrice(finiteDifference.getPricePoints());
-        //初始化矩阵最后一行;
-        result[n - 1] = exercisePrice;
-        //要把option price转成列矩阵;
-        Matrix optionPriceMat;
-        //对矩阵系数直接求逆;
-        Matrix params = finiteDifference.paramsMatrix(option).inverse();
-        //递推求解option price矩阵;
+        int m = payoff.length;
+        double[][] result = new double[Math.min(n, finiteDifference.getNumOfSavedTimeLayers())][];
+        double[] layer = payoff.clone();
+        if (n - 1 < result.length) {
+            result[n - 1] = payoff.clone();
+        }
+        //系数矩阵是三对角矩阵, 只做一次LU分解, 每步用Thomas算法求解;
+        double theta = finiteDifference.getTheta();
+        double diffTime = finiteDifference.getDiffTime();
+        TridiagonalMatrix params = finiteDifference.thetaMatrix(theta, diffTime);
+        //Rannacher步用两个隐式半步;
+        TridiagonalMatrix halfStepParams = finiteDifference.isRannacherStep(1) ?
+                finiteDifference.thetaMatrix(1, diffTime / 2) : null;
+        boolean[] isExerciseLayer = exerciseLayers(option, n, diffTime);
+        //收益随价格增加时(看涨)行权区域在价格高的一端
+        boolean isExerciseUpper = payoff[m - 1] > payoff[0];
+        double[] pricePoints = finiteDifference.getPricePoints();
+        double[] lowerValues = finiteDifference.hasLowerBoundary() ?
+                boundaryValues(option, pricePoints[0], n, diffTime) : null;
+        double[] upperValues = finiteDifference.hasUpperBoundary() ?
+                boundaryValues(option, pricePoints[m - 1], n, diffTime) : null;
+        double[] rhs = new double[m];
+        //递推求解option price;
         for (int i = 1; i < n; i++) {
-            optionPriceMat = Matrix.columnMatrix(result[n - i]);
-            result[n - i - 1] = params.times(optionPriceMat).getColumnCopy(0);
-            if (option.isEarlyExercise()) {
-                result[n - i - 1] = CalculateUtil.maxVector(result[n - i - 1], exercisePrice);
+            double[] lowerBound = isExerciseLayer[n - i - 1] ? payoff : null;
+            boolean isConverged;
+            if (finiteDifference.isRannacherStep(i)) {
+                applyBoundary(layer, lowerValues, upperValues, 2 * i - 1);
+                isConverged = step(halfStepParams, layer, layer, lowerBound, isExerciseUpper, rhs);
+                applyBoundary(layer, lowerValues, upperValues, 2 * i);
+                isConverged = isConverged && step(halfStepParams, layer, layer, lowerBound, isExerciseUpper, rhs);
+            } else if (theta == 1) {
+                applyBoundary(layer, lowerValues, upperValues, 2 * i);
+                isConverged = step(params, layer, layer, lowerBound, isExerciseUpper, rhs);
+            } else {
+                finiteDifference.explicitStep(layer, (1 - theta) * diffTime, rhs);
+                applyBoundary(rhs, lowerValues, upperValues, 2 * i);
+                isConverged = step(params, rhs, layer, lowerBound, isExerciseUpper, null);
+            }
+            if (!isConverged) {
+                return null;
+            }
+            if (n - i - 1 < result.length) {
+                result[n - i - 1] = layer.clone();
             }
         }
         return result;
     }
 
+    /**
+     * @param spotPrice 边界上的标的价格
+     * @return 边界上每半个时间步的期权价格, 第k个是距到期日k * diffTime / 2时的价格(Rannacher半步也用到)
+     */
+    private static double[] boundaryValues(BaseSingleOption option, double spotPrice, int n, double diffTime) {
+        double[] timeRemaining = new double[2 * n - 1];
+        for (int k = 0; k < timeRemaining.length; k++) {
+            timeRemaining[k] = k * diffTime / 2;
+        }
+        return option.finiteDifferenceBoundaryPrice(spotPrice, timeRemaining);
+    }
+
+    /**
+     * 截断的边界行是单位行, 把第k个半步的边界价格代入右端项
+     */
+    private static void applyBoundary(double[] rhs, double[] lowerValues, double[] upperValues, int k) {
+        if (lowerValues != null) {
+            rhs[0] = lowerValues[k];
+        }
+        if (upperValues != null) {
+            rhs[rhs.length - 1] = upperValues[k];
+        }
+    }
+
+    /**
+     * @return 每个时间点是否可以行权; 百慕大期权的行权时间取最近的时间点
+     */
+    private static boolean[] exerciseLayers(BaseSingleOption option, int n, double diffTime) {
+        boolean[] isExerciseLayer = new boolean[n];
+        if (!option.isEarlyExercise()) {
+            return isExerciseLayer;
+        }
+        double[] exerciseTimes = option.getFiniteDifferenceExerciseTimes();
+        if (exerciseTimes == null) {
+            Arrays.fill(isExerciseLayer, true);
+            return isExerciseLayer;
+        }
+        for (double time : exerciseTimes) {
+            long index = Math.round(time / diffTime);
+            if (index >= 0 && index < n) {
+                isExerciseLayer[(int) index] = true;
+            }
+        }
+        return isExerciseLayer;
+    }
+
+    /**
+     * 求解一个时间步 A * x = rhs, lowerBound不为null时求解线性互补问题;
+     *
+     * @param scratch rhs和x是同一个数组时, 投影SOR用来保存右端项的数组
+     * @return 投影SOR不收敛时返回false
+     */
+    private boolean step(TridiagonalMatrix matrix, double[] rhs, double[] x, double[] lowerBound,
+                         boolean isExerciseUpper, double[] scratch) {
+        String exerciseMethod = finiteDifference.getExerciseMethod();
+        if (lowerBound == null) {
+            matrix.solve(rhs, x);
+        } else if (FiniteDifference.EXERCISE_BRENNAN_SCHWARTZ.equals(exerciseMethod)) {
+            matrix.solveBrennanSchwartz(rhs, x, lowerBound, isExerciseUpper);
+        } else if (FiniteDifference.EXERCISE_PSOR.equals(exerciseMethod)) {
+            double[] b = rhs;
+            if (rhs == x) {
+                System.arraycopy(rhs, 0, scratch, 0, rhs.length);
+                b = scratch;
+            }
+            return matrix.solveProjectedSor(b, x, lowerBound, finiteDifference.getSorOmega(),
+                    finiteDifference.getSorTolerance(), finiteDifference.getSorMaxIterations()) > 0;
+        } else {
+            matrix.solve(rhs, x);
+            for (int j = 0; j < x.length; j++) {
+                x[j] = Math.max(x[j], lowerBound[j]);
+            }
+        }
+        return true;
+    }
+
     @Override
     public void calculateImpliedVolatility() {
         resetCalculator();
@@ -68,71 +273,145 @@ public class SingleOptionFiniteDifferenceCalculator extends BaseSingleOptionCalc
     @Override
     public void calculateDelta() {
         resetCalculator();
-        if (!option.hasFiniteDifferenceMethod()) {
-            setError(CalculatorError.UNSUPPORTED_METHOD);
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
             return;
         }
-        int upperIndex = finiteDifference.getIndexOfInitialSpot() + 1;
-        int lowerIndex = finiteDifference.getIndexOfInitialSpot() - 1;
-        double[] optionPriceList = optionPriceMatrix()[0];
-        double[] underlyingPriceList = finiteDifference.getPricePoints();
-
-        double delta = (optionPriceList[upperIndex] - optionPriceList[lowerIndex]) /
-                (underlyingPriceList[upperIndex] - underlyingPriceList[lowerIndex]);
-        setResult(delta);
+        setResult(result.getDelta());
         setError(CalculatorError.NORMAL);
     }
 
     @Override
     public void calculateTheta() {
         resetCalculator();
-        if (!option.hasFiniteDifferenceMethod()) {
-            setError(CalculatorError.UNSUPPORTED_METHOD);
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
             return;
         }
-        double priceT0 = optionPriceMatrix()[0][finiteDifference.getIndexOfInitialSpot()];
-        double priceT1 = optionPriceMatrix()[1][finiteDifference.getIndexOfInitialSpot()];
-
-        double theta = (priceT1 - priceT0) / finiteDifference.getDiffTime() / 365;
-        setResult(theta);
+        setResult(result.getTheta());
         setError(CalculatorError.NORMAL);
     }
 
     @Override
     public void calculateGamma() {
         resetCalculator();
-        if (!option.hasFiniteDifferenceMethod()) {
-            setError(CalculatorError.UNSUPPORTED_METHOD);
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
             return;
         }
-        int upperIndex1 = finiteDifference.getIndexOfInitialSpot() + 1;
-        int upperIndex2 = finiteDifference.getIndexOfInitialSpot() + 2;
-        int lowerIndex1 = finiteDifference.getIndexOfInitialSpot() - 1;
-        int lowerIndex2 = finiteDifference.getIndexOfInitialSpot() - 2;
-        int index = finiteDifference.getIndexOfInitialSpot();
-        double[] optionPriceList = optionPriceMatrix()[0];
-        double[] underlyingPriceList = finiteDifference.getPricePoints();
+        setResult(result.getGamma());
+        setError(CalculatorError.NORMAL);
+    }
 
-        double upperDelta = (optionPriceList[upperIndex2] - optionPriceList[index]) /
-                (underlyingPriceList[upperIndex2] - underlyingPriceList[index]);
+    /**
+     * 平移后的两个期权都在grid的价格网格上求解, 结果不缓存, 所以不会替换grid;
+     *
+     * @param unit 单位换算, 见BaseSingleOptionCalculator
+     * @return 中心差分的结果, 投影SOR不收敛时返回REACH_MAX_ITERATION
+     */
+    private CalculatorResult diffPriceOnGrid(ShiftSingleOption shiftSingleOption, FiniteDifferenceResult grid,
+                                             double unit) {
+        double lowerPrice = solvePrice(shiftSingleOption.getOptions()[0], grid);
+        double upperPrice = solvePrice(shiftSingleOption.getOptions()[1], grid);
+        if (Double.isNaN(lowerPrice) || Double.isNaN(upperPrice)) {
+            return CalculatorResult.error(CalculatorError.REACH_MAX_ITERATION);
+        }
+        return CalculatorResult.of((upperPrice - lowerPrice) / shiftSingleOption.getDenominator() / unit);
+    }
 
-        double lowerDelta = (optionPriceList[index] - optionPriceList[lowerIndex2]) /
-                (underlyingPriceList[index] - underlyingPriceList[lowerIndex2]);
+    private CalculatorResult vegaOnGrid(FiniteDifferenceResult grid) {
+        ShiftSingleOption shiftSingleOption = shiftOption();
+        shiftSingleOption.shiftVolatility();
+        return diffPriceOnGrid(shiftSingleOption, grid, 100);
+    }
 
-        double gamma = (upperDelta - lowerDelta) /
-                (underlyingPriceList[upperIndex1] - underlyingPriceList[lowerIndex1]);
+    private CalculatorResult rhoOnGrid(FiniteDifferenceResult grid) {
+        ShiftSingleOption shiftSingleOption = shiftOption();
+        shiftSingleOption.shiftInterestRate();
+        return diffPriceOnGrid(shiftSingleOption, grid, 10000);
+    }
 
-        setResult(gamma);
+    private CalculatorResult rho2OnGrid(FiniteDifferenceResult grid) {
+        if (option.isUnderlyingFuture()) {
+            return CalculatorResult.of(0);
+        }
+        ShiftSingleOption shiftSingleOption = shiftOption();
+        shiftSingleOption.shiftDividendRate();
+        return diffPriceOnGrid(shiftSingleOption, grid, 10000);
+    }
+
+    @Override
+    public void calculateVega() {
+        resetCalculator();
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
+            return;
+        }
+        setCalculatorResult(vegaOnGrid(result));
+    }
+
+    @Override
+    public void calculateRho() {
+        resetCalculator();
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
+            return;
+        }
+        setCalculatorResult(rhoOnGrid(result));
+    }
+
+    @Override
+    public void calculateRho2() {
+        resetCalculator();
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
+            return;
+        }
+        setCalculatorResult(rho2OnGrid(result));
+    }
+
+    /**
+     * 价格, delta, gamma, theta来自同一次求解, vega, rho, rho2与单独计算时相同(缓存网格上的中心差分);
+     * 结果通过getGreeks()获取, getResult()返回价格;
+     */
+    public void calculateAllGreeks() {
+        resetCalculator();
+        GreekSet greeks = new GreekSet();
+        setGreeks(greeks);
+        FiniteDifferenceResult result = solve();
+        if (result == null) {
+            greeks.setError(getError());
+            return;
+        }
+        double price = result.getPrice();
+        greeks.setPrice(price);
+        greeks.setDelta(result.getDelta());
+        greeks.setGamma(result.getGamma());
+        greeks.setTheta(result.getTheta());
+        CalculatorResult vega = vegaOnGrid(result);
+        CalculatorResult rho = rhoOnGrid(result);
+        CalculatorResult rho2 = rho2OnGrid(result);
+        if (!vega.isNormal() || !rho.isNormal() || !rho2.isNormal()) {
+            setError(CalculatorError.REACH_MAX_ITERATION);
+            greeks.setError(CalculatorError.REACH_MAX_ITERATION);
+            return;
+        }
+        greeks.setVega(vega.getValue());
+        greeks.setRho(rho.getValue());
+        greeks.setRho2(rho2.getValue());
+        greeks.setError(CalculatorError.NORMAL);
+        setResult(price);
         setError(CalculatorError.NORMAL);
     }
 
     /**
-     * @return 普通欧式期权解析解和数值解的误差
+     * @return 普通欧式期权解析解和数值解(相同的网格和差分格式)的误差
      */
     public double getEuropeanOptionError() {
         EuropeanOption europeanOption = new EuropeanOption(option);
         SingleOptionFiniteDifferenceCalculator calculator = new SingleOptionFiniteDifferenceCalculator();
         calculator.setOption(europeanOption);
+        calculator.setFiniteDifference(finiteDifference);
         calculator.calculatePrice();
         return europeanOption.bsm() - calculator.getResult();
     }
@@ -2,8 +2,13 @@ package calculator.derivatives;
 
 import calculator.utility.CalculateUtil;
 import calculator.utility.CalculatorError;
+import calculator.utility.CalculatorThreadPool;
+import calculator.utility.GreekSet;
 import calculator.utility.MonteCarlo;
-import flanagan.analysis.Stat;
+import calculator.utility.PathKernel;
+import calculator.utility.RandomNumberGenerator;
+import calculator.utility.RunningStatistics;
+import calculator.utility.TimeGrid;
 import option.BaseSingleOption;
 
 import java.io.Serializable;
@@ -11,23 +16,299 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongFunction;
 
 
 import static calculator.utility.CalculatorError.*;
 
+/**
+ * 路径导数法和似然比法计算delta, gamma, vega, 只适用于常数波动率的几何布朗运动;
+ * 路径导数法: delta = sum(g_i * S_i) / S0, vega = sum(g_i * S_i * (W_i - vol * t_i)),
+ * gamma用路径导数-似然比混合估计 sum(g_i * S_i) / S0^2 * (Z_1 / (vol * sqrt(dt)) - 1);
+ * 似然比法: delta = P * Z_1 / (S0 * vol * sqrt(dt)),
+ * gamma = P * ((Z_1^2 - 1) / (S0^2 * vol^2 * dt) - Z_1 / (S0^2 * vol * sqrt(dt))),
+ * vega = P * sum((Z_i^2 - 1) / vol - Z_i * sqrt(dt));
+ * 其中g_i是折现收益对S_i的偏导数, P是折现收益, Z_i是第i步的标准正态随机数;
+ * 时间网格可以不等间距, dt取各步自己的步长, 公式中第一步的dt为第一步的步长;
+ * 每个任务新建一个估计器, 偏导数数组在任务内复用;
+ */
+class MonteCarloGreekEstimator {
+    static final int DELTA = 0;
+    static final int GAMMA = 1;
+    static final int VEGA = 2;
+    static final int GREEK_NUMS = 3;
+
+    private final boolean pathwise;
+    private final double spotPrice;
+    private final double volatility;
+    private final TimeGrid timeGrid;
+    private final double deltaT;
+    private final double sqrtDeltaT;
+    private final double[] gradient;
+
+    MonteCarloGreekEstimator(BaseSingleOption option, TimeGrid timeGrid, boolean pathwise) {
+        this.pathwise = pathwise;
+        this.spotPrice = option.getUnderlying().getSpotPrice();
+        this.volatility = option.getVanillaOptionParams().getVolatility();
+        this.timeGrid = timeGrid;
+        this.deltaT = timeGrid.getStep(0);
+        this.sqrtDeltaT = Math.sqrt(deltaT);
+        this.gradient = pathwise ? new double[timeGrid.getNodes() + 1] : null;
+    }
+
+    /**
+     * @param option     基准期权
+     * @param randomNums 生成路径用的标准正态随机数
+     * @param pricePath  基准期权的路径
+     * @param result     保存delta, gamma, vega(1%)的估计值
+     * @return 折现收益
+     */
+    double estimate(BaseSingleOption option, double[] randomNums, double[] pricePath, double[] result) {
+        double s2 = spotPrice * spotPrice;
+        double z1 = randomNums[0];
+        if (pathwise) {
+            double payoff = option.monteCarloPathwiseGradient(pricePath, timeGrid.getTimePoints(), gradient);
+            double h = gradient[0] * pricePath[0];
+            double vega = 0;
+            double brownian = 0;
+            for (int i = 1; i < pricePath.length; i++) {
+                brownian = brownian + randomNums[i - 1] * Math.sqrt(timeGrid.getStep(i - 1));
+                double weighted = gradient[i] * pricePath[i];
+                h = h + weighted;
+                vega = vega + weighted * (brownian - volatility * timeGrid.getTime(i));
+            }
+            result[DELTA] = h / spotPrice;
+            result[GAMMA] = h / s2 * (z1 / (volatility * sqrtDeltaT) - 1);
+            result[VEGA] = vega / 100;
+            return payoff;
+        }
+        double payoff = option.monteCarloPrice(pricePath, timeGrid.getTimePoints());
+        double score = 0;
+        for (int i = 0; i < timeGrid.getNodes(); i++) {
+            double z = randomNums[i];
+            score = score + (z * z - 1) / volatility - z * Math.sqrt(timeGrid.getStep(i));
+        }
+        result[DELTA] = payoff * z1 / (spotPrice * volatility * sqrtDeltaT);
+        result[GAMMA] = payoff * ((z1 * z1 - 1) / (s2 * volatility * volatility * deltaT) -
+                z1 / (s2 * volatility * sqrtDeltaT));
+        result[VEGA] = payoff * score / 100;
+        return payoff;
+    }
+}
+
+/**
+ * 一个任务模拟一段路径: 同一组随机数分别生成每个期权的路径并立即计算收益,
+ * 第i个样本为 sum(weights[i][j] * payoff[j]), 只累加到流式统计量中, 不保存路径;
+ * 随机数和路径数组在任务内复用, 内存只与nodes和线程数有关(矩匹配时与分块大小有关);
+ * 每个期权的路径在各自的时间网格上生成, 随机数的维数取所有期权中最大的, 每个期权只用前面的一段;
+ * 使用控制变量时, 第i个样本的控制变量为 sum(weights[i][j] * control[j]);
+ * 使用对偶变量时, 样本取Z和-Z两条路径的平均;
+ * 有估计器时, 在options[0]的路径上计算delta, gamma, vega, 追加在weights对应的统计量之后;
+ * 提前行权的期权按最小二乘行权规则(LeastSquaresPolicy)在options[0]的路径上确定行权日,
+ * 共用同一规则的期权在各自路径的同一个行权日行权, 平移前后的收益对参数连续, 差分的方差较小;
+ */
+class MonteCarloTask implements Callable<RunningStatistics[]> {
+    /**
+     * 矩匹配时每块的路径条数
+     */
+    static final int MOMENT_MATCHING_BLOCK_SIZE = 1000;
+
+    private final MonteCarlo params;
+    private final RandomNumberGenerator generator;
+    private final BaseSingleOption[] options;
+    private final PathKernel[] kernels;
+    private final LeastSquaresPolicy[] policies;
+    private final double[][] weights;
+    private final MonteCarloGreekEstimator estimator;
+    private final boolean useControlVariate;
+
+    private final int dimension;
+    private final double[] antitheticNums;
+    private final double[][] pricePaths;
+    private final double[] payoffs;
+    private final double[] controls;
+    private final double[][] samples;
+    private final double[][] controlSamples;
+    private final double[][] estimates;
+
+    /**
+     * @param policies  每个期权的行权规则, 不提前行权时为null
+     * @param dimension 每条路径的随机数个数
+     */
+    MonteCarloTask(MonteCarlo params, RandomNumberGenerator generator, BaseSingleOption[] options,
+                   PathKernel[] kernels, LeastSquaresPolicy[] policies, int dimension, double[][] weights,
+                   String greekMethod, boolean useControlVariate) {
+        this.params = params;
+        this.generator = generator;
+        this.options = options;
+        this.kernels = kernels;
+        this.policies = policies;
+        this.dimension = dimension;
+        this.weights = weights;
+        this.useControlVariate = useControlVariate;
+        this.estimator = MonteCarlo.GREEK_METHOD_BUMP.equals(greekMethod) ? null :
+                new MonteCarloGreekEstimator(options[0], kernels[0].getTimeGrid(),
+                        MonteCarlo.GREEK_METHOD_PATHWISE.equals(greekMethod));
+        this.antitheticNums = new double[dimension];
+        this.pricePaths = new double[options.length][];
+        for (int j = 0; j < options.length; j++) {
+            pricePaths[j] = new double[kernels[j].getTimeGrid().getNodes() + 1];
+        }
+        this.payoffs = new double[options.length];
+        this.controls = new double[options.length];
+        //第二行保存对偶路径的结果
+        this.samples = new double[2][weights.length];
+        this.controlSamples = new double[2][weights.length];
+        this.estimates = new double[2][MonteCarloGreekEstimator.GREEK_NUMS];
+    }
+
+    int getStatisticsSize() {
+        return estimator == null ? weights.length : weights.length + MonteCarloGreekEstimator.GREEK_NUMS;
+    }
+
+    @Override
+    public RunningStatistics[] call() {
+        int size = getStatisticsSize();
+        RunningStatistics[] statistics = new RunningStatistics[size];
+        for (int i = 0; i < size; i++) {
+            statistics[i] = new RunningStatistics();
+        }
+        int pathSize = params.getPathSize();
+        int blockSize = params.isUseMomentMatching() ? Math.min(MOMENT_MATCHING_BLOCK_SIZE, pathSize) : 1;
+        double[][] block = new double[blockSize][dimension];
+        for (int start = 0; start < pathSize; start = start + blockSize) {
+            int count = Math.min(blockSize, pathSize - start);
+            for (int k = 0; k < count; k++) {
+                generator.nextStandardNormal(block[k]);
+            }
+            if (params.isUseMomentMatching()) {
+                matchMoments(block, count);
+            }
+            for (int k = 0; k < count; k++) {
+                addPath(block[k], statistics);
+            }
+        }
+        return statistics;
+    }
+
+    private void addPath(double[] randomNums, RunningStatistics[] statistics) {
+        evaluate(randomNums, 0);
+        double scale = 1;
+        if (params.isUseAntithetic()) {
+            for (int d = 0; d < randomNums.length; d++) {
+                antitheticNums[d] = -randomNums[d];
+            }
+            evaluate(antitheticNums, 1);
+            scale = 0.5;
+        }
+        int n = params.isUseAntithetic() ? 2 : 1;
+        for (int i = 0; i < weights.length; i++) {
+            double sample = 0;
+            double control = 0;
+            for (int k = 0; k < n; k++) {
+                sample = sample + samples[k][i];
+                control = control + controlSamples[k][i];
+            }
+            statistics[i].add(sample * scale, control * scale);
+        }
+        if (estimator != null) {
+            for (int i = 0; i < MonteCarloGreekEstimator.GREEK_NUMS; i++) {
+                double estimate = 0;
+                for (int k = 0; k < n; k++) {
+                    estimate = estimate + estimates[k][i];
+                }
+                statistics[weights.length + i].add(estimate * scale);
+            }
+        }
+    }
+
+    /**
+     * 用一组随机数计算所有期权的收益和控制变量, 结果保存在第row行
+     */
+    private void evaluate(double[] randomNums, int row) {
+        int exerciseDate = 0;
+        for (int j = 0; j < options.length; j++) {
+            double[] pricePath = pricePaths[j];
+            kernels[j].generate(randomNums, pricePath);
+            if (policies != null) {
+                if (j == 0) {
+                    exerciseDate = policies[j].exerciseDate(pricePath);
+                }
+                payoffs[j] = policies[j].price(pricePath, policies[j].isSharedWith(policies[0]) ?
+                        exerciseDate : policies[j].exerciseDate(pricePath));
+            } else if (j == 0 && estimator != null) {
+                payoffs[j] = estimator.estimate(options[j], randomNums, pricePath, estimates[row]);
+            } else {
+                payoffs[j] = options[j].monteCarloPrice(pricePath, kernels[j].getTimeGrid().getTimePoints());
+            }
+            controls[j] = useControlVariate ?
+                    options[j].monteCarloControlVariate(pricePath, kernels[j].getTimeGrid().getTimePoints()) : 0;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            double sample = 0;
+            double control = 0;
+            for (int j = 0; j < options.length; j++) {
+                sample = sample + weights[i][j] * payoffs[j];
+                control = control + weights[i][j] * controls[j];
+            }
+            samples[row][i] = sample;
+            controlSamples[row][i] = control;
+        }
+    }
+
+    /**
+     * 矩匹配: 每个时间步上, 这一块随机数的样本均值调整为0, 样本标准差调整为1
+     */
+    private static void matchMoments(double[][] block, int count) {
+        if (count < 2) {
+            return;
+        }
+        int nodes = block[0].length;
+        for (int d = 0; d < nodes; d++) {
+            double mean = 0;
+            for (int k = 0; k < count; k++) {
+                mean = mean + block[k][d];
+            }
+            mean = mean / count;
+            double sumOfSquares = 0;
+            for (int k = 0; k < count; k++) {
+                sumOfSquares = sumOfSquares + (block[k][d] - mean) * (block[k][d] - mean);
+            }
+            double std = Math.sqrt(sumOfSquares / count);
+            if (std <= 0) {
+                continue;
+            }
+            for (int k = 0; k < count; k++) {
+                block[k][d] = (block[k][d] - mean) / std;
+            }
+        }
+    }
+}
+
 /**
  * @author liangcy
  * 蒙特卡洛模拟可能会消耗大量时间和内存
- * 利用多线程提高计算速度
+ * 路径按chunkSize分块, 提交到共享线程池{@link CalculatorThreadPool}并行计算, 在线程池的线程中计算时各块在当前线程依次计算
+ * 每条路径生成后立即计算收益并累加, 不保存随机数和路径
+ * 提前行权的期权用最小二乘蒙特卡洛(Longstaff-Schwartz): 先用一组训练路径估计行权规则, 再用独立的路径定价
  */
 public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator implements Serializable {
     private MonteCarlo monteCarloParams = new MonteCarlo();
     /**
-     * 线程池线程数
+     * 默认每个任务模拟的路径条数
      */
-    private static final int SUB_PATH_SIZE = 200;
+    private static final int DEFAULT_CHUNK_SIZE = 2000;
+    /**
+     * 自适应模式下每批最多的任务数
+     */
+    private static final int MAX_ADAPTIVE_BATCH_TASKS = 64;
+    /**
+     * 每个任务模拟的路径条数, 任务数 = pathSize / chunkSize (向上取整), 与线程数无关
+     */
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
 
     public MonteCarlo getMonteCarloParams() {
         return monteCarloParams;
@@ -37,68 +318,419 @@ public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator
         this.monteCarloParams = monteCarloParams;
     }
 
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * 上一次计算结果的标准误差
+     */
+    private double standardError = 0;
+
+    public double getStandardError() {
+        return standardError;
+    }
+
+    /**
+     * 上一次计算结果的置信区间{下限, 上限}, 置信水平见MonteCarlo.confidenceLevel
+     */
+    private double[] confidenceInterval = new double[2];
+
+    public double[] getConfidenceInterval() {
+        return confidenceInterval;
+    }
+
+    /**
+     * 上一次计算实际模拟的路径条数, 自适应模式下可能小于pathSize
+     */
+    private int simulatedPathSize = 0;
+
+    public int getSimulatedPathSize() {
+        return simulatedPathSize;
+    }
+
+    /**
+     * calculateAllGreeks的结果对应的标准误差
+     */
+    private GreekSet greeksStandardError = new GreekSet();
+
+    public GreekSet getGreeksStandardError() {
+        return greeksStandardError;
+    }
+
+    @Override
+    public void resetCalculator() {
+        super.resetCalculator();
+        standardError = 0;
+        confidenceInterval = new double[2];
+        simulatedPathSize = 0;
+    }
+
     @Override
     public boolean hasMethod() {
         return option.hasMonteCarloMethod();
     }
 
-    private int getThreadNums() {
-        return monteCarloParams.getPathSize() / SUB_PATH_SIZE;
+    private int getTaskNums() {
+        return (monteCarloParams.getPathSize() + chunkSize - 1) / chunkSize;
     }
 
-    private MonteCarlo subMonteCarloParams() {
-        return new MonteCarlo(monteCarloParams.getNodes(), SUB_PATH_SIZE);
+    /**
+     * @param taskIndex 任务序号
+     * @return 该任务的模拟参数, 最后一个任务只模拟剩余的路径
+     */
+    private MonteCarlo subMonteCarloParams(int taskIndex) {
+        int subPathSize = Math.min(chunkSize, monteCarloParams.getPathSize() - taskIndex * chunkSize);
+        MonteCarlo subParams = new MonteCarlo(monteCarloParams.getNodes(), subPathSize);
+        subParams.setModel(monteCarloParams.getModel());
+        subParams.setUseAntithetic(monteCarloParams.isUseAntithetic());
+        subParams.setUseMomentMatching(monteCarloParams.isUseMomentMatching());
+        return subParams;
     }
 
-    private List<Future<Double>> createTask(Callable<Double> call) {
-        ExecutorService pool = CalculateUtil.createThreadPool(getThreadNums());
-        List<Future<Double>> futureList = new ArrayList<>(getThreadNums());
-        for (int i = 0; i < getThreadNums(); i++) {
-            futureList.add(pool.submit(call));
+    /**
+     * 提交第fromTask到toTask-1个任务;
+     * 每个任务有自己的随机数生成器, 从任务第一条路径的序号开始取随机数;
+     * 任务里不能修改计算器的状态, 因为所有任务共用同一个计算器;
+     *
+     * @param options           期权(平移后的期权), 需要在提交任务前生成
+     * @param kernels           每个期权的路径生成核
+     * @param policies          每个期权的行权规则, 不提前行权时为null
+     * @param dimension         每条路径的随机数个数
+     * @param weights           每行对应一个统计量, 每列对应一个期权收益的权重
+     * @param greekMethod       希腊值计算方法
+     * @param useControlVariate 是否使用控制变量
+     * @param generators        本次计算的随机数生成器工厂, 所有批次共用
+     * @return 任务列表, 线程池拒绝任务时取消已提交的任务, 设置错误并返回null
+     */
+    private List<Future<RunningStatistics[]>> createTask(BaseSingleOption[] options, PathKernel[] kernels,
+                                                         LeastSquaresPolicy[] policies,
+                                                         int dimension, double[][] weights,
+                                                         String greekMethod, boolean useControlVariate,
+                                                         LongFunction<RandomNumberGenerator> generators,
+                                                         int fromTask, int toTask) {
+        List<Future<RunningStatistics[]>> futureList = new ArrayList<>(toTask - fromTask);
+        try {
+            for (int i = fromTask; i < toTask; i++) {
+                MonteCarloTask task = new MonteCarloTask(subMonteCarloParams(i),
+                        generators.apply((long) i * chunkSize), options, kernels, policies, dimension, weights,
+                        greekMethod, useControlVariate);
+                futureList.add(CalculatorThreadPool.submit(task));
+            }
+        } catch (RejectedExecutionException e) {
+            CalculatorThreadPool.cancelAll(futureList);
+            setError(CalculatorError.CALCULATE_FAILED);
+            return null;
         }
         return futureList;
     }
 
-    private double getAverage(List<Future<Double>> futureList) throws ExecutionException, InterruptedException {
-        int n = futureList.size();
-        double[] result = new double[n];
-        for (int i = 0; i < n; i++) {
-            result[i] = futureList.get(i).get();
+    /**
+     * 按任务顺序把各任务的统计量合并到statistics, 计算失败时取消剩余的任务, 设置错误并返回false
+     */
+    private boolean mergeStatistics(List<Future<RunningStatistics[]>> futureList, RunningStatistics[] statistics) {
+        try {
+            for (Future<RunningStatistics[]> future : futureList) {
+                RunningStatistics[] taskStatistics = future.get();
+                for (int i = 0; i < statistics.length; i++) {
+                    statistics[i].merge(taskStatistics[i]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CalculatorThreadPool.cancelAll(futureList);
+            setError(CalculatorError.CALCULATE_FAILED);
+            return false;
+        } catch (ExecutionException e) {
+            CalculatorThreadPool.cancelAll(futureList);
+            setError(CalculatorError.CALCULATE_FAILED);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 自适应模式下, 已模拟的路径是否已达到目标误差或时间预算
+     *
+     * @param statistics         结果对应的统计量
+     * @param controlExpectation 控制变量的期望
+     * @param startTime          开始时间(毫秒)
+     */
+    private boolean isAdaptiveStop(RunningStatistics statistics, double controlExpectation, long startTime) {
+        if (statistics.getCount() < 2) {
+            return false;
+        }
+        double error = statistics.getControlledStandardError();
+        double targetError = monteCarloParams.getTargetStandardError();
+        if (targetError > 0 && error <= targetError) {
+            return true;
+        }
+        double targetRelativeError = monteCarloParams.getTargetRelativeError();
+        double mean = Math.abs(statistics.getControlledMean(controlExpectation));
+        if (targetRelativeError > 0 && error <= targetRelativeError * mean) {
+            return true;
+        }
+        long timeBudget = monteCarloParams.getTimeBudget();
+        return timeBudget > 0 && System.currentTimeMillis() - startTime >= timeBudget;
+    }
+
+    private boolean isValidSurface() {
+        return option.getVolatilitySurface() != null && option.getVolatilitySurface().isValidSurface();
+    }
+
+    /**
+     * 标准误差与路径条数的平方根成反比, 按目标误差估计还需要的路径条数,
+     * 下一批的任务数不超过估计值, 也不超过上一批的两倍和MAX_ADAPTIVE_BATCH_TASKS;
+     */
+    private int nextBatchTasks(RunningStatistics statistics, double controlExpectation, int batchTasks) {
+        int maxTasks = Math.min(batchTasks * 2, MAX_ADAPTIVE_BATCH_TASKS);
+        double error = statistics.getControlledStandardError();
+        double targetError = monteCarloParams.getTargetStandardError();
+        double relativeError = monteCarloParams.getTargetRelativeError() *
+                Math.abs(statistics.getControlledMean(controlExpectation));
+        if (relativeError > targetError) {
+            targetError = relativeError;
+        }
+        if (targetError <= 0 || error <= 0) {
+            return maxTasks;
+        }
+        double remainPaths = statistics.getCount() * ((error / targetError) * (error / targetError) - 1);
+        int remainTasks = (int) Math.ceil(remainPaths / chunkSize);
+        return Math.max(1, Math.min(maxTasks, remainTasks));
+    }
+
+    /**
+     * 控制变量的期望用常数波动率的解析解计算, 使用波动率曲面或随机波动率模型时不能用
+     */
+    private boolean canUseControlVariate() {
+        return monteCarloParams.isUseControlVariate() && option.hasControlVariate() && !isValidSurface() &&
+                monteCarloParams.isGbmModel();
+    }
+
+    /**
+     * 模拟并计算每个统计量的均值和标准误差, 使用控制变量时返回调整后的结果;
+     * 第i个统计量的控制变量期望为 sum(weights[i][j] * E[control[j]]);
+     * 自适应模式下按批提交任务, 每批的任务数依次为1, 2, 4...(不超过MAX_ADAPTIVE_BATCH_TASKS),
+     * 每批结束后检查第resultIndex个统计量是否达到目标, 批次划分与线程数无关;
+     *
+     * @param resultIndex 作为计算结果的统计量序号, 自适应模式用它判断是否停止
+     * @return {均值, 标准误差}, 计算失败时设置错误并返回null
+     */
+    private double[][] simulate(BaseSingleOption[] options, double[][] weights, String greekMethod,
+                                int resultIndex) {
+        boolean useControlVariate = canUseControlVariate();
+        int size = MonteCarlo.GREEK_METHOD_BUMP.equals(greekMethod) ? weights.length :
+                weights.length + MonteCarloGreekEstimator.GREEK_NUMS;
+        PathKernel[] kernels = new PathKernel[options.length];
+        int steps = 0;
+        for (int j = 0; j < options.length; j++) {
+            kernels[j] = monteCarloParams.createPathKernel(options[j]);
+            steps = Math.max(steps, kernels[j].getTimeGrid().getNodes());
+        }
+        //控制变量的期望按各自路径的时间网格计算
+        double[] controlExpectations = new double[size];
+        if (useControlVariate) {
+            double[] controlPrices = new double[options.length];
+            for (int j = 0; j < options.length; j++) {
+                controlPrices[j] = options[j].controlVariatePrice(kernels[j].getTimeGrid().getTimePoints());
+            }
+            for (int i = 0; i < weights.length; i++) {
+                for (int j = 0; j < options.length; j++) {
+                    controlExpectations[i] = controlExpectations[i] + weights[i][j] * controlPrices[j];
+                }
+            }
+        }
+        RunningStatistics[] statistics = new RunningStatistics[size];
+        for (int i = 0; i < size; i++) {
+            statistics[i] = new RunningStatistics();
+        }
+        int factors = monteCarloParams.getFactors();
+        LongFunction<RandomNumberGenerator> generators =
+                monteCarloParams.createRandomNumberGeneratorFactory(steps, factors);
+        LeastSquaresPolicy[] policies = null;
+        if (option.isEarlyExercise()) {
+            policies = trainPolicies(options, kernels, steps * factors, generators);
+            if (policies == null) {
+                return null;
+            }
+        }
+        int taskNums = getTaskNums();
+        boolean isAdaptive = monteCarloParams.isAdaptive();
+        long startTime = System.currentTimeMillis();
+        int batchTasks = isAdaptive ? 1 : taskNums;
+        int submittedTasks = 0;
+        while (submittedTasks < taskNums) {
+            int toTask = Math.min(taskNums, submittedTasks + batchTasks);
+            List<Future<RunningStatistics[]>> futureList = createTask(options, kernels, policies, steps * factors,
+                    weights, greekMethod, useControlVariate, generators, submittedTasks, toTask);
+            if (futureList == null || !mergeStatistics(futureList, statistics)) {
+                return null;
+            }
+            submittedTasks = toTask;
+            if (isAdaptive && isAdaptiveStop(statistics[resultIndex], controlExpectations[resultIndex], startTime)) {
+                break;
+            }
+            batchTasks = nextBatchTasks(statistics[resultIndex], controlExpectations[resultIndex], batchTasks);
         }
-        return Stat.mean(result);
+        simulatedPathSize = (int) statistics[0].getCount();
+        double[][] result = new double[2][size];
+        for (int i = 0; i < size; i++) {
+            result[0][i] = statistics[i].getControlledMean(controlExpectations[i]);
+            result[1][i] = statistics[i].getControlledStandardError();
+            if (Double.isNaN(result[0][i])) {
+                setError(CalculatorError.CALCULATE_NAN);
+                return null;
+            }
+        }
+        return result;
     }
 
-    private void calculateAverage(List<Future<Double>> futureList) {
+    /**
+     * 最小二乘蒙特卡洛: 用regressionPathSize条训练路径估计options[0]的行权规则,
+     * 其他期权(平移后的期权)行权日个数相同时共用这个规则, 否则用同一组训练随机数单独估计;
+     * 训练路径的序号从pathSize开始, 与定价路径独立; 训练路径按chunkSize分块并行模拟,
+     * 每个行权日(从后向前)各块分别累加回归方程, 按块的顺序汇总求解后, 各块再并行更新现金流, 结果与线程数无关;
+     * 期权逐个训练, 同时只保存一个期权的训练数据;
+     *
+     * @param dimension 每条路径的随机数个数
+     * @return 每个期权的行权规则, 计算失败时设置错误并返回null
+     */
+    private LeastSquaresPolicy[] trainPolicies(BaseSingleOption[] options, PathKernel[] kernels, int dimension,
+                                               LongFunction<RandomNumberGenerator> generators) {
+        int pathSize = monteCarloParams.getPathSize();
+        int regressionPathSize = monteCarloParams.getRegressionPathSize();
+        int blockNums = (regressionPathSize + chunkSize - 1) / chunkSize;
+        LeastSquaresPolicy[] policies = new LeastSquaresPolicy[options.length];
         try {
-            setResult(getAverage(futureList));
-            setError(CalculatorError.NORMAL);
-        } catch (InterruptedException | ExecutionException e) {
+            for (int j = 0; j < options.length; j++) {
+                PathKernel kernel = kernels[j];
+                LeastSquaresPolicy policy = new LeastSquaresPolicy(options[j], kernel.getTimeGrid());
+                if (j > 0 && policy.isCompatible(policies[0])) {
+                    policies[j] = new LeastSquaresPolicy(options[j], kernel.getTimeGrid(), policies[0]);
+                    continue;
+                }
+                List<LeastSquaresBlock> blocks = new ArrayList<>(blockNums);
+                List<Callable<Object>> simulateTasks = new ArrayList<>(blockNums);
+                for (int b = 0; b < blockNums; b++) {
+                    LeastSquaresBlock block = new LeastSquaresBlock(policy,
+                            Math.min(chunkSize, regressionPathSize - b * chunkSize));
+                    RandomNumberGenerator generator = generators.apply(pathSize + (long) b * chunkSize);
+                    blocks.add(block);
+                    simulateTasks.add(Executors.callable(() -> block.simulate(kernel, generator, dimension)));
+                }
+                for (Future<Object> future : CalculatorThreadPool.invokeAll(simulateTasks)) {
+                    future.get();
+                }
+                for (int d = policy.getExerciseNums() - 2; d >= 0; d--) {
+                    int exerciseDate = d;
+                    List<Callable<double[]>> accumulateTasks = new ArrayList<>(blockNums);
+                    List<Callable<Object>> exerciseTasks = new ArrayList<>(blockNums);
+                    for (LeastSquaresBlock block : blocks) {
+                        accumulateTasks.add(() -> block.accumulate(exerciseDate));
+                        exerciseTasks.add(Executors.callable(() -> block.exercise(exerciseDate)));
+                    }
+                    double[] sums = null;
+                    for (Future<double[]> future : CalculatorThreadPool.invokeAll(accumulateTasks)) {
+                        double[] blockSums = future.get();
+                        if (sums == null) {
+                            sums = blockSums;
+                        } else {
+                            for (int i = 0; i < sums.length; i++) {
+                                sums[i] = sums[i] + blockSums[i];
+                            }
+                        }
+                    }
+                    policy.fit(d, sums);
+                    for (Future<Object> future : CalculatorThreadPool.invokeAll(exerciseTasks)) {
+                        future.get();
+                    }
+                }
+                policies[j] = policy;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            setError(CalculatorError.CALCULATE_FAILED);
+            return null;
+        } catch (ExecutionException | RejectedExecutionException e) {
             setError(CalculatorError.CALCULATE_FAILED);
+            return null;
         }
+        return policies;
     }
 
-    @Override
-    public void calculatePrice() {
-        resetCalculator();
-        if (!option.hasMonteCarloMethod()) {
-            setError(UNSUPPORTED_METHOD);
+    private void calculateAverage(BaseSingleOption[] options, double[] weights) {
+        double[][] result = simulate(options, new double[][]{weights}, MonteCarlo.GREEK_METHOD_BUMP, 0);
+        if (result == null) {
             return;
         }
-        calculateAverage(createTask(callSubPrice()));
+        setStatisticsResult(result[0][0], result[1][0]);
     }
 
-    private Callable<Double> callSubPrice() {
-        return () -> calculatePrice(subMonteCarloParams().generateStandardNormalRandomNumberList());
+    private void setStatisticsResult(double mean, double error) {
+        setResult(mean);
+        standardError = error;
+        double z = CalculateUtil.inverseNormalCDF(0.5 + monteCarloParams.getConfidenceLevel() / 2);
+        confidenceInterval = new double[]{mean - z * error, mean + z * error};
+        setError(CalculatorError.NORMAL);
     }
 
-    private double calculatePrice(List<double[]> randomNumbersList) {
-        List<double[]> pricePathList = monteCarloParams.generateMonteCarloPathList(option, randomNumbersList);
-        int n = pricePathList.size();
-        double[] resultList = new double[n];
-        for (int i = 0; i < n; i++) {
-            resultList[i] = option.monteCarloPrice(pricePathList.get(i));
+    /**
+     * 使用波动率曲面, 随机波动率模型或提前行权时路径导数法和似然比法无效, 用差分法;
+     * 期权不支持路径导数法时用似然比法;
+     *
+     * @return 实际使用的希腊值计算方法
+     */
+    private String getGreekMethod() {
+        String greekMethod = monteCarloParams.getGreekMethod();
+        if (isValidSurface() || !monteCarloParams.isGbmModel() || option.isEarlyExercise() ||
+                !(MonteCarlo.GREEK_METHOD_PATHWISE.equals(greekMethod) ||
+                MonteCarlo.GREEK_METHOD_LIKELIHOOD_RATIO.equals(greekMethod))) {
+            return MonteCarlo.GREEK_METHOD_BUMP;
+        }
+        if (MonteCarlo.GREEK_METHOD_PATHWISE.equals(greekMethod) && !option.hasMonteCarloPathwiseMethod()) {
+            return MonteCarlo.GREEK_METHOD_LIKELIHOOD_RATIO;
         }
-        return Stat.mean(resultList);
+        return greekMethod;
+    }
+
+    private boolean isBumpGreekMethod() {
+        return MonteCarlo.GREEK_METHOD_BUMP.equals(getGreekMethod());
+    }
+
+    /**
+     * 用路径导数法或似然比法计算一个希腊值
+     *
+     * @param greekIndex MonteCarloGreekEstimator中的希腊值序号
+     */
+    private void calculateEstimatedGreek(int greekIndex) {
+        double[][] result = simulate(new BaseSingleOption[]{option}, new double[][]{{1}}, getGreekMethod(),
+                1 + greekIndex);
+        if (result == null) {
+            return;
+        }
+        setStatisticsResult(result[0][1 + greekIndex], result[1][1 + greekIndex]);
+    }
+
+    /**
+     * 差分: (upper - lower) * multiplier
+     */
+    private void calculateDiff(ShiftSingleOption shiftSingleOption, double multiplier) {
+        double weight = multiplier / shiftSingleOption.getDenominator();
+        calculateAverage(shiftSingleOption.getOptions(), new double[]{-weight, weight});
+    }
+
+    @Override
+    public void calculatePrice() {
+        resetCalculator();
+        if (!option.hasMonteCarloMethod()) {
+            setError(UNSUPPORTED_METHOD);
+            return;
+        }
+        calculateAverage(new BaseSingleOption[]{option}, new double[]{1});
     }
 
     @Override
@@ -114,18 +746,13 @@ public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        calculateAverage(createTask(callSubDelta()));
-    }
-
-    private Callable<Double> callSubDelta() {
-        return () -> calculateDelta(subMonteCarloParams().generateStandardNormalRandomNumberList());
-    }
-
-    private double calculateDelta(List<double[]> randomNumbersList) {
+        if (!isBumpGreekMethod()) {
+            calculateEstimatedGreek(MonteCarloGreekEstimator.DELTA);
+            return;
+        }
         ShiftSingleOption shiftSingleOption = shiftOption();
         shiftSingleOption.shiftUnderlyingPrice(canUseVolatilitySurface());
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions(), randomNumbersList);
-        return diffPrice / shiftSingleOption.getDenominator();
+        calculateDiff(shiftSingleOption, 1);
     }
 
     @Override
@@ -135,18 +762,13 @@ public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        calculateAverage(createTask(callSubVega()));
-    }
-
-    private Callable<Double> callSubVega() {
-        return () -> calculateVega(subMonteCarloParams().generateStandardNormalRandomNumberList());
-    }
-
-    private double calculateVega(List<double[]> randomNumbersList) {
+        if (!isBumpGreekMethod()) {
+            calculateEstimatedGreek(MonteCarloGreekEstimator.VEGA);
+            return;
+        }
         ShiftSingleOption shiftSingleOption = shiftOption();
         shiftSingleOption.shiftVolatility();
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions(), randomNumbersList);
-        return diffPrice / shiftSingleOption.getDenominator() / 100;
+        calculateDiff(shiftSingleOption, 1.0 / 100);
     }
 
     @Override
@@ -156,20 +778,15 @@ public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        calculateAverage(createTask(callSubTheta()));
-    }
-
-    private Callable<Double> callSubTheta() {
-        return () -> calculateTheta(subMonteCarloParams().generateStandardNormalRandomNumberList());
-    }
-
-    private double calculateTheta(List<double[]> randomNumbersList) {
         ShiftSingleOption shiftSingleOption = shiftOption();
         shiftSingleOption.shiftTimeRemaining(canUseVolatilitySurface());
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions(), randomNumbersList);
-        return -diffPrice / shiftSingleOption.getDenominator() / 365;
+        calculateDiff(shiftSingleOption, -1.0 / 365);
     }
 
+    /**
+     * gamma需要在上下两个标的价格处分别计算delta, 所有平移后的期权都在提交任务前生成;
+     * gamma = ((uu - ul) / upperDenominator - (lu - ll) / lowerDenominator) / denominator
+     */
     @Override
     public void calculateGamma() {
         resetCalculator();
@@ -177,18 +794,25 @@ public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        calculateAverage(createTask(callSubGamma()));
-    }
-
-    private Callable<Double> callSubGamma() {
-        return () -> calculateGamma(subMonteCarloParams().generateStandardNormalRandomNumberList());
-    }
-
-    private double calculateGamma(List<double[]> randomNumbersList) {
+        if (!isBumpGreekMethod()) {
+            calculateEstimatedGreek(MonteCarloGreekEstimator.GAMMA);
+            return;
+        }
         ShiftSingleOption shiftSingleOption = shiftOption();
         shiftSingleOption.shiftUnderlyingPrice(canUseVolatilitySurface());
-        double diffDelta = getDiffDelta(shiftSingleOption.getOptions(), randomNumbersList);
-        return diffDelta / shiftSingleOption.getDenominator();
+        BaseSingleOption[] options = shiftSingleOption.getOptions();
+        ShiftSingleOption lowerShiftOption = new ShiftSingleOption(options[0]);
+        lowerShiftOption.shiftUnderlyingPrice(canUseVolatilitySurface());
+        ShiftSingleOption upperShiftOption = new ShiftSingleOption(options[1]);
+        upperShiftOption.shiftUnderlyingPrice(canUseVolatilitySurface());
+        double denominator = shiftSingleOption.getDenominator();
+        double lowerWeight = 1 / lowerShiftOption.getDenominator() / denominator;
+        double upperWeight = 1 / upperShiftOption.getDenominator() / denominator;
+        BaseSingleOption[] gammaOptions = {
+                lowerShiftOption.getOptions()[0], lowerShiftOption.getOptions()[1],
+                upperShiftOption.getOptions()[0], upperShiftOption.getOptions()[1]};
+        double[] weights = {lowerWeight, -lowerWeight, -upperWeight, upperWeight};
+        calculateAverage(gammaOptions, weights);
     }
 
     @Override
@@ -198,18 +822,9 @@ public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        calculateAverage(createTask(callSubRho()));
-    }
-
-    private Callable<Double> callSubRho() {
-        return () -> calculateRho(subMonteCarloParams().generateStandardNormalRandomNumberList());
-    }
-
-    private double calculateRho(List<double[]> randomNumbersList) {
         ShiftSingleOption shiftSingleOption = shiftOption();
         shiftSingleOption.shiftInterestRate();
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions(), randomNumbersList);
-        return diffPrice / shiftSingleOption.getDenominator() / 10000;
+        calculateDiff(shiftSingleOption, 1.0 / 10000);
     }
 
     @Override
@@ -219,39 +834,150 @@ public class SingleOptionMonteCarloCalculator extends BaseSingleOptionCalculator
             setError(UNSUPPORTED_METHOD);
             return;
         }
-        calculateAverage(createTask(callSubRho2()));
+        if (option.isUnderlyingFuture()) {
+            setResult(0);
+            setError(NORMAL);
+            return;
+        }
+        ShiftSingleOption shiftSingleOption = shiftOption();
+        shiftSingleOption.shiftDividendRate();
+        calculateDiff(shiftSingleOption, 1.0 / 10000);
     }
 
-    private Callable<Double> callSubRho2() {
-        return () -> calculateRho2(subMonteCarloParams().generateStandardNormalRandomNumberList());
+    /**
+     * 共同随机数: 每条路径只生成一次随机数, 在同一组随机数上计算基准期权和所有平移期权的收益,
+     * 一次模拟得到价格和全部希腊值, 以及各自的标准误差;
+     * 差分法时gamma用基准价格和标的价格上下平移的价格做二阶中心差分;
+     * 路径导数法或似然比法时delta, gamma, vega由基准路径估计, 不再生成标的价格和波动率平移的路径;
+     * 结果通过getGreeks()和getGreeksStandardError()获取, getResult()返回价格;
+     */
+    public void calculateAllGreeks() {
+        resetCalculator();
+        GreekSet greeks = new GreekSet();
+        setGreeks(greeks);
+        greeksStandardError = new GreekSet();
+        if (!option.hasMonteCarloMethod()) {
+            setError(UNSUPPORTED_METHOD);
+            greeks.setError(UNSUPPORTED_METHOD);
+            return;
+        }
+        boolean useVolatilitySurface = canUseVolatilitySurface();
+        String greekMethod = getGreekMethod();
+        boolean isBump = MonteCarlo.GREEK_METHOD_BUMP.equals(greekMethod);
+        boolean hasRho2 = !option.isUnderlyingFuture();
+        //0:price, 1:delta, 2:gamma, 3:vega, 4:theta, 5:rho, 6:rho2
+        int greekNums = 7;
+        //第0个期权是基准期权
+        List<BaseSingleOption> optionList = new ArrayList<>();
+        optionList.add(option);
+        List<double[]> weightList = new ArrayList<>();
+        weightList.add(new double[]{1});
+
+        if (isBump) {
+            ShiftSingleOption spotShift = shiftOption();
+            spotShift.shiftUnderlyingPrice(useVolatilitySurface);
+            int spotIndex = addShiftOptions(optionList, spotShift, 2);
+            weightList.add(diffWeights(spotIndex, spotIndex + 1, 1 / spotShift.getDenominator()));
+            double s = option.getUnderlying().getSpotPrice();
+            double lowerStep = s - spotShift.getOptions()[0].getUnderlying().getSpotPrice();
+            double upperStep = spotShift.getOptions()[1].getUnderlying().getSpotPrice() - s;
+            double halfDenominator = spotShift.getDenominator() / 2;
+            double[] gammaWeights = new double[spotIndex + 2];
+            gammaWeights[spotIndex] = 1 / lowerStep / halfDenominator;
+            gammaWeights[0] = -(1 / lowerStep + 1 / upperStep) / halfDenominator;
+            gammaWeights[spotIndex + 1] = 1 / upperStep / halfDenominator;
+            weightList.add(gammaWeights);
+
+            ShiftSingleOption volShift = shiftOption();
+            volShift.shiftVolatility();
+            int volIndex = addShiftOptions(optionList, volShift, 2);
+            weightList.add(diffWeights(volIndex, volIndex + 1, 1 / volShift.getDenominator() / 100));
+        } else {
+            //delta, gamma, vega由估计器计算
+            weightList.add(new double[0]);
+            weightList.add(new double[0]);
+            weightList.add(new double[0]);
+        }
+
+        ShiftSingleOption timeShift = shiftOption();
+        timeShift.shiftTimeRemaining(useVolatilitySurface);
+        //只需要剩余期限缩短后的期权, 与calculateTheta相同: -(基准价格 - 剩余期限缩短后的价格)
+        int timeIndex = addShiftOptions(optionList, timeShift, 1);
+        weightList.add(diffWeights(timeIndex, 0, -1 / timeShift.getDenominator() / 365));
+
+        ShiftSingleOption rateShift = shiftOption();
+        rateShift.shiftInterestRate();
+        int rateIndex = addShiftOptions(optionList, rateShift, 2);
+        weightList.add(diffWeights(rateIndex, rateIndex + 1, 1 / rateShift.getDenominator() / 10000));
+
+        if (hasRho2) {
+            ShiftSingleOption dividendShift = shiftOption();
+            dividendShift.shiftDividendRate();
+            int dividendIndex = addShiftOptions(optionList, dividendShift, 2);
+            weightList.add(diffWeights(dividendIndex, dividendIndex + 1,
+                    1 / dividendShift.getDenominator() / 10000));
+        } else {
+            weightList.add(new double[0]);
+        }
+
+        BaseSingleOption[] options = optionList.toArray(new BaseSingleOption[0]);
+        double[][] weights = new double[greekNums][options.length];
+        for (int i = 0; i < greekNums; i++) {
+            double[] row = weightList.get(i);
+            System.arraycopy(row, 0, weights[i], 0, Math.min(row.length, options.length));
+        }
+
+        double[][] result = simulate(options, weights, greekMethod, 0);
+        if (result == null) {
+            greeks.setError(getError());
+            return;
+        }
+        double[] mean = result[0];
+        double[] error = result[1];
+        if (!isBump) {
+            for (int i = 0; i < MonteCarloGreekEstimator.GREEK_NUMS; i++) {
+                //估计器的顺序是delta, gamma, vega, 与GreekSet的1, 2, 3相同
+                mean[1 + i] = mean[greekNums + i];
+                error[1 + i] = error[greekNums + i];
+            }
+        }
+        fillGreekSet(greeks, mean);
+        fillGreekSet(greeksStandardError, error);
+        setStatisticsResult(mean[0], error[0]);
     }
 
-    private double calculateRho2(List<double[]> randomNumbersList) {
-        if(option.isUnderlyingFuture()) {
-            return 0;
+    /**
+     * @param count 加入平移后的前count个期权
+     * @return 第一个加入的期权在列表中的位置
+     */
+    private static int addShiftOptions(List<BaseSingleOption> optionList, ShiftSingleOption shiftSingleOption,
+                                       int count) {
+        int index = optionList.size();
+        for (int i = 0; i < count; i++) {
+            optionList.add(shiftSingleOption.getOptions()[i]);
         }
-        ShiftSingleOption shiftSingleOption = shiftOption();
-        shiftSingleOption.shiftDividendRate();
-        double diffPrice = getDiffPrice(shiftSingleOption.getOptions(), randomNumbersList);
-        return diffPrice / shiftSingleOption.getDenominator() / 10000;
-    }
-
-    private double getDiffPrice(BaseSingleOption[] options, List<double[]> randomNumbersList) {
-        setOption(options[0]);
-        double lowerPrice = calculatePrice(randomNumbersList);
-        setOption(options[1]);
-        double upperPrice = calculatePrice(randomNumbersList);
-        setOption(option);
-        return upperPrice - lowerPrice;
-    }
-
-    private double getDiffDelta(BaseSingleOption[] options, List<double[]> randomNumbersList) {
-        setOption(options[0]);
-        double lowerDelta = calculateDelta(randomNumbersList);
-        setOption(options[1]);
-        double upperDelta = calculateDelta(randomNumbersList);
-        setOption(option);
-        return upperDelta - lowerDelta;
+        return index;
+    }
+
+    /**
+     * @return 差分权重: (options[upperIndex] - options[lowerIndex]) * weight
+     */
+    private static double[] diffWeights(int lowerIndex, int upperIndex, double weight) {
+        double[] weights = new double[Math.max(lowerIndex, upperIndex) + 1];
+        weights[lowerIndex] = -weight;
+        weights[upperIndex] = weight;
+        return weights;
+    }
+
+    private static void fillGreekSet(GreekSet greekSet, double[] values) {
+        greekSet.setPrice(values[0]);
+        greekSet.setDelta(values[1]);
+        greekSet.setGamma(values[2]);
+        greekSet.setVega(values[3]);
+        greekSet.setTheta(values[4]);
+        greekSet.setRho(values[5]);
+        greekSet.setRho2(values[6]);
+        greekSet.setError(NORMAL);
     }
 
 }
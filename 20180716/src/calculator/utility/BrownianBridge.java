@@ -0,0 +1,98 @@
+package calculator.utility;
+
+import java.io.Serializable;
+
+/**
+ * @author liangcy
+ * 等距时间网格上的布朗桥: 第一个随机数决定终点, 之后依次填充区间中点;
+ * 与低差异序列一起使用时, 前几个(均匀性最好的)维度决定路径的大致形状, 有效维数大大降低;
+ * 输出仍然是按时间顺序的标准正态增量, 分布与直接生成的增量相同;
+ * 构造后不可变, 可以在线程之间共用;
+ * @reference Glasserman, P. Monte Carlo Methods in Financial Engineering, 3.1;
+ */
+public class BrownianBridge implements Serializable {
+    private final int steps;
+    private final int[] bridgeIndex;
+    private final int[] leftIndex;
+    private final int[] rightIndex;
+    private final double[] leftWeight;
+    private final double[] rightWeight;
+    private final double[] stdDev;
+
+    /**
+     * @param steps 时间步数, 时间点为 1, 2, ..., steps (以单位时间步长计)
+     */
+    public BrownianBridge(int steps) {
+        this.steps = steps;
+        bridgeIndex = new int[steps];
+        leftIndex = new int[steps];
+        rightIndex = new int[steps];
+        leftWeight = new double[steps];
+        rightWeight = new double[steps];
+        stdDev = new double[steps];
+        double[] t = new double[steps];
+        for (int i = 0; i < steps; i++) {
+            t[i] = i + 1;
+        }
+        //map[i] != 0 表示第i个时间点已经确定
+        int[] map = new int[steps];
+        map[steps - 1] = 1;
+        bridgeIndex[0] = steps - 1;
+        stdDev[0] = Math.sqrt(t[steps - 1]);
+        int j = 0;
+        for (int i = 1; i < steps; i++) {
+            while (map[j] != 0) {
+                j++;
+            }
+            int k = j;
+            while (map[k] == 0) {
+                k++;
+            }
+            int l = j + ((k - 1 - j) >> 1);
+            map[l] = i;
+            bridgeIndex[i] = l;
+            leftIndex[i] = j;
+            rightIndex[i] = k;
+            if (j != 0) {
+                leftWeight[i] = (t[k] - t[l]) / (t[k] - t[j - 1]);
+                rightWeight[i] = (t[l] - t[j - 1]) / (t[k] - t[j - 1]);
+                stdDev[i] = Math.sqrt((t[l] - t[j - 1]) * (t[k] - t[l]) / (t[k] - t[j - 1]));
+            } else {
+                leftWeight[i] = (t[k] - t[l]) / t[k];
+                rightWeight[i] = t[l] / t[k];
+                stdDev[i] = Math.sqrt(t[l] * (t[k] - t[l]) / t[k]);
+            }
+            j = k + 1;
+            if (j >= steps) {
+                j = 0;
+            }
+        }
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * @param normals    按布朗桥顺序使用的标准正态随机数
+     * @param increments 按时间顺序的标准正态增量, 不能与normals是同一个数组
+     */
+    public void transform(double[] normals, double[] increments) {
+        increments[steps - 1] = stdDev[0] * normals[0];
+        for (int i = 1; i < steps; i++) {
+            int j = leftIndex[i];
+            int k = rightIndex[i];
+            int l = bridgeIndex[i];
+            if (j != 0) {
+                increments[l] = leftWeight[i] * increments[j - 1] + rightWeight[i] * increments[k] +
+                        stdDev[i] * normals[i];
+            } else {
+                increments[l] = rightWeight[i] * increments[k] + stdDev[i] * normals[i];
+            }
+        }
+        //布朗运动的值转成增量, 单位时间步长的标准差为1
+        for (int i = steps - 1; i > 0; i--) {
+            increments[i] = increments[i] - increments[i - 1];
+        }
+    }
+}
@@ -125,6 +125,55 @@ public class CalculateUtil {
         return (x >= 0.0) ? Math.floor(x) : -Math.floor(-x);
     }
 
+    /**
+     * inverseNormalCDF的有理函数系数, 蒙特卡洛每个随机数调用一次, 不在方法内重复创建
+     */
+    private static final double[] INVERSE_NORMAL_A = {
+            -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+            1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+    private static final double[] INVERSE_NORMAL_B = {
+            -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+            6.680131188771972e+01, -1.328068155288572e+01};
+    private static final double[] INVERSE_NORMAL_C = {
+            -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+            -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+    private static final double[] INVERSE_NORMAL_D = {
+            7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+            3.754408661907416e+00};
+
+    /**
+     * @param p 概率, 0 < p < 1
+     * @return 标准正态分布累计密度函数的反函数, 相对误差小于1.15e-9
+     * @reference Acklam, P. J. An algorithm for computing the inverse normal cumulative distribution function.
+     */
+    public static double inverseNormalCDF(double p) {
+        if (Double.isNaN(p) || p < 0 || p > 1) {
+            return Double.NaN;
+        }
+        if (p == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (p == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double[] a = INVERSE_NORMAL_A;
+        double[] b = INVERSE_NORMAL_B;
+        double[] c = INVERSE_NORMAL_C;
+        double[] d = INVERSE_NORMAL_D;
+        double pLow = 0.02425;
+        double q;
+        if (p < pLow || p > 1 - pLow) {
+            q = Math.sqrt(-2 * Math.log(p < pLow ? p : 1 - p));
+            double x = (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5]) /
+                    ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+            return p < pLow ? x : -x;
+        }
+        q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q /
+                (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
     public static double normalPDF(double x) {
         return 1.0 / ConstantNumber.SQRT_TWO_PI * Math.exp(-x * x / 2);
     }
@@ -251,6 +300,29 @@ public class CalculateUtil {
         return y.transpose().getArrayCopy();
     }
 
+    /**
+     * @param x 对称正定矩阵, 例如相关系数矩阵
+     * @return 下三角矩阵L, 满足 L * L' = x; x不是正定矩阵时结果含有NaN
+     */
+    public static double[][] cholesky(double[][] x) {
+        int n = x.length;
+        double[][] lower = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = x[i][j];
+                for (int k = 0; k < j; k++) {
+                    sum = sum - lower[i][k] * lower[j][k];
+                }
+                if (i == j) {
+                    lower[i][i] = sum > 0 ? Math.sqrt(sum) : Double.NaN;
+                } else {
+                    lower[i][j] = sum / lower[j][j];
+                }
+            }
+        }
+        return lower;
+    }
+
     /**
      * @param value 被差分的值
      * @param diff  宽度,正数
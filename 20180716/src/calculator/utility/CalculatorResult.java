@@ -0,0 +1,56 @@
+package calculator.utility;
+
+import java.io.Serializable;
+
+/**
+ * @author liangcy
+ * 一次计算的结果, 创建后不能修改, 可以在多个线程之间传递;
+ * 计算失败时value为NaN(达到迭代上限时为最后一次迭代的值), 错误类型见error;
+ */
+public final class CalculatorResult implements Serializable {
+    private final double value;
+    private final CalculatorError error;
+    /**
+     * 迭代次数, 隐含波动率等迭代计算时使用, 其他计算为0
+     */
+    private final int iterations;
+
+    public CalculatorResult(double value, CalculatorError error, int iterations) {
+        this.value = value;
+        this.error = error;
+        this.iterations = iterations;
+    }
+
+    public static CalculatorResult of(double value) {
+        return new CalculatorResult(value, CalculatorError.NORMAL, 0);
+    }
+
+    public static CalculatorResult error(CalculatorError error) {
+        return new CalculatorResult(Double.NaN, error, 0);
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public CalculatorError getError() {
+        return error;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public boolean isNormal() {
+        return 0 == error.getIndex();
+    }
+
+    @Override
+    public String toString() {
+        return "CalculatorResult{" +
+                "value=" + value +
+                ", error=" + error +
+                ", iterations=" + iterations +
+                '}';
+    }
+}
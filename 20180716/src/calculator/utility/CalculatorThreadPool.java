@@ -0,0 +1,143 @@
+package calculator.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author liangcy
+ * 计算器共用的线程池
+ * 线程数默认等于CPU核数, 所有计算器共用同一个线程池, 不再每次计算都新建线程;
+ * 线程均为守护线程, 不会阻止JVM退出; 调用shutdown()后, 下次使用时重新创建;
+ * 计算器通过submit和invokeAll提交任务: 在线程池自己的线程中提交时直接在当前线程执行,
+ * 避免外层任务占满所有线程后等待内层任务造成死锁;
+ */
+public class CalculatorThreadPool {
+
+    private static ExecutorService pool;
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private CalculatorThreadPool() {}
+
+    /**
+     * @return 共享线程池, 第一次调用(或shutdown之后)时创建
+     */
+    public static synchronized ExecutorService getPool() {
+        if (pool == null || pool.isShutdown()) {
+            pool = Executors.newFixedThreadPool(parallelism, new CalculatorThreadFactory());
+        }
+        return pool;
+    }
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 修改并行线程数, 旧线程池在已提交任务完成后关闭
+     * @param parallelism 线程数, 至少为1
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        parallelism = Math.max(1, parallelism);
+        if (parallelism == CalculatorThreadPool.parallelism) {
+            return;
+        }
+        CalculatorThreadPool.parallelism = parallelism;
+        shutdown();
+    }
+
+    /**
+     * 关闭线程池, 已提交的任务会继续执行完
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * @return 当前线程是否是线程池(包括已关闭的旧线程池)的线程
+     */
+    public static boolean isPoolThread() {
+        return Thread.currentThread() instanceof CalculatorThread;
+    }
+
+    /**
+     * 提交一个任务; 在线程池的线程中调用时直接在当前线程执行;
+     * 每次提交都取当前的线程池, 与setParallelism和shutdown互斥, 不会提交到已关闭的线程池;
+     *
+     * @throws java.util.concurrent.RejectedExecutionException 线程池拒绝任务时
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        if (isPoolThread()) {
+            FutureTask<T> future = new FutureTask<>(task);
+            future.run();
+            return future;
+        }
+        synchronized (CalculatorThreadPool.class) {
+            return getPool().submit(task);
+        }
+    }
+
+    /**
+     * 提交一组任务并等待全部完成, 与ExecutorService.invokeAll相同, 在线程池的线程中调用时依次在当前线程执行;
+     * 等待时被中断则取消所有未完成的任务
+     *
+     * @throws java.util.concurrent.RejectedExecutionException 线程池拒绝任务时
+     */
+    public static <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks) throws InterruptedException {
+        List<Future<T>> futureList = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futureList.add(submit(task));
+            }
+            for (Future<T> future : futureList) {
+                try {
+                    future.get();
+                } catch (ExecutionException | CancellationException e) {
+                    //与invokeAll相同, 异常由调用者从Future中取得
+                }
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            cancelAll(futureList);
+            throw e;
+        }
+        return futureList;
+    }
+
+    /**
+     * 取消所有未完成的任务, 正在执行的任务会被中断
+     */
+    public static void cancelAll(List<? extends Future<?>> futureList) {
+        for (Future<?> future : futureList) {
+            future.cancel(true);
+        }
+    }
+
+    private static class CalculatorThread extends Thread {
+        CalculatorThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+
+    private static class CalculatorThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new CalculatorThread(r, "calculator-pool-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
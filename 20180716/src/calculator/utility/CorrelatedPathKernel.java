@@ -0,0 +1,73 @@
+package calculator.utility;
+
+import option.BaseSingleOption;
+
+import java.util.List;
+
+/**
+ * @author liangcy
+ * 多标的相关路径生成核, 每次计算创建一次, 之后在所有路径和线程之间共用;
+ * 相关系数矩阵的Cholesky分解只在创建时计算一次;
+ * 随机数按标的分块排列, 第a个标的第i步的独立随机数为randomNums[a * nodes + i],
+ * 相关随机数为 sum(L[a][b] * randomNums[b * nodes + i]), 再由各标的的GbmPathKernel生成价格路径;
+ */
+public class CorrelatedPathKernel {
+    private final int nodes;
+    private final double[][] choleskyLower;
+    private final GbmPathKernel[] kernels;
+
+    /**
+     * @param options           每个标的对应的期权, 期限必须相同
+     * @param correlationMatrix 相关系数矩阵
+     * @param params            模拟参数
+     */
+    public CorrelatedPathKernel(List<BaseSingleOption> options, double[][] correlationMatrix, MonteCarlo params) {
+        this.nodes = params.getNodes();
+        this.choleskyLower = CalculateUtil.cholesky(correlationMatrix);
+        this.kernels = new GbmPathKernel[options.size()];
+        for (int a = 0; a < kernels.length; a++) {
+            kernels[a] = new GbmPathKernel(options.get(a), nodes, params.createVolatilitySlices(options.get(a)));
+        }
+    }
+
+    public int getAssetNums() {
+        return kernels.length;
+    }
+
+    /**
+     * @return 相关系数矩阵正定时为true
+     */
+    public boolean isValidCorrelation() {
+        for (double[] row : choleskyLower) {
+            for (double value : row) {
+                if (Double.isNaN(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param randomNums     长度为nodes * 标的个数的独立标准正态随机数
+     * @param correlatedNums [标的个数][nodes]的缓存数组, 用于保存相关随机数
+     * @param pricePaths     [标的个数][nodes+1]的数组, 用于保存价格路径
+     */
+    public void generate(double[] randomNums, double[][] correlatedNums, double[][] pricePaths) {
+        for (int a = 0; a < kernels.length; a++) {
+            double[] lower = choleskyLower[a];
+            double[] correlated = correlatedNums[a];
+            for (int i = 0; i < nodes; i++) {
+                correlated[i] = lower[0] * randomNums[i];
+            }
+            for (int b = 1; b <= a; b++) {
+                double weight = lower[b];
+                int offset = b * nodes;
+                for (int i = 0; i < nodes; i++) {
+                    correlated[i] = correlated[i] + weight * randomNums[offset + i];
+                }
+            }
+            kernels[a].generate(correlated, pricePaths[a]);
+        }
+    }
+}
@@ -7,14 +7,84 @@ import java.io.Serializable;
 
 /**
  * @author liangcy
+ * 有限差分的网格和差分格式;
+ * 空间网格可以用标的价格或对数价格做坐标, 可以等间距或用sinh变换集中在行权价附近, 标的当前价格总是网格点;
+ * 时间方向用theta格式: 隐式(theta = 1)或Crank-Nicolson(theta = 1/2),
+ * Crank-Nicolson的前rannacherSteps步各用两个隐式半步代替(Rannacher), 消除收益函数不光滑引起的振荡;
+ * 提前行权时每个可以行权的时间步是一个线性互补问题, 见exerciseMethod;
+ * 期权给出价格区域的边界(例如障碍)时网格截断在边界上, 边界是网格点, 边界上的期权价格由期权给出(Dirichlet边界条件);
+ * 默认(标的价格, 等间距, 隐式)与原来的网格和格式相同;
  */
 public class FiniteDifference implements Serializable {
+    /**
+     * 时间方向的差分格式
+     */
+    public static final String SCHEME_IMPLICIT = "implicit";
+    public static final String SCHEME_CRANK_NICOLSON = "crankNicolson";
+    /**
+     * 空间网格: 等间距, sinh变换(行权价附近密, 两端疏)
+     */
+    public static final String GRID_UNIFORM = "uniform";
+    public static final String GRID_SINH = "sinh";
+    /**
+     * 空间坐标: 标的价格, 对数价格
+     */
+    public static final String COORDINATE_SPOT = "spot";
+    public static final String COORDINATE_LOG = "log";
+    /**
+     * 提前行权的处理方法: 每步求解后与行权价值取最大值(一阶精度), Brennan-Schwartz直接法, 投影SOR迭代法;
+     * Brennan-Schwartz要求行权区域在价格的一端(美式看涨, 看跌), 投影SOR没有这个要求;
+     */
+    public static final String EXERCISE_PROJECTION = "projection";
+    public static final String EXERCISE_BRENNAN_SCHWARTZ = "brennanSchwartz";
+    public static final String EXERCISE_PSOR = "psor";
+    /**
+     * 对数坐标的网格范围: 在当前价格和行权价之外各延伸LOG_RANGE个标准差
+     */
+    private static final double LOG_RANGE = 5;
+    private static final double MIN_STANDARD_DEVIATION = 0.1;
+
     private int numOfTimePoints = 501;
+    /**
+     * 求解时只保存前numOfSavedTimeLayers个时间点(从0时刻开始)的期权价格, 至少2个(theta需要第1个时间点);
+     */
+    private int numOfSavedTimeLayers = 2;
     private int numOfLowerPricePoints = 100;
+    /**
+     * 价格网格共有numOfLowerPricePoints * priceRange + 1个点, 标的价格坐标时网格范围是[0, priceRange * s]
+     */
+    private int priceRange = 5;
+    private String scheme = SCHEME_IMPLICIT;
+    private String exerciseMethod = EXERCISE_PROJECTION;
+    /**
+     * 投影SOR的松弛因子, 收敛误差和最大迭代次数
+     */
+    private double sorOmega = 1.5;
+    private double sorTolerance = 1e-8;
+    private int sorMaxIterations = 10000;
+    private int rannacherSteps = 2;
+    private String grid = GRID_UNIFORM;
+    private String coordinate = COORDINATE_SPOT;
+    /**
+     * sinh网格的集中程度, 为网格范围的比例, 越小越集中
+     */
+    private double gridConcentration = 0.1;
     private double[] pricePoints;
     private double[] timePoints;
     private double diffPrice;
     private double diffTime;
+    private int indexOfInitialSpot;
+    /**
+     * 价格区域是否截断在期权给出的下边界, 上边界上
+     */
+    private boolean hasLowerBoundary;
+    private boolean hasUpperBoundary;
+    /**
+     * 空间差分算子 L 的三条对角线, 期权价格满足 dV/dt + L * V = 0
+     */
+    private double[] lowerOperator;
+    private double[] diagonalOperator;
+    private double[] upperOperator;
     private boolean hasGeneratedPoints = false;
 
 
@@ -27,6 +97,14 @@ public class FiniteDifference implements Serializable {
         return numOfTimePoints;
     }
 
+    public int getNumOfSavedTimeLayers() {
+        return numOfSavedTimeLayers;
+    }
+
+    public void setNumOfSavedTimeLayers(int numOfSavedTimeLayers) {
+        this.numOfSavedTimeLayers = Math.max(2, numOfSavedTimeLayers);
+    }
+
     public int getNumOfLowerPricePoints() {
         return numOfLowerPricePoints;
     }
@@ -36,6 +114,113 @@ public class FiniteDifference implements Serializable {
         this.hasGeneratedPoints = false;
     }
 
+    public int getPriceRange() {
+        return priceRange;
+    }
+
+    public void setPriceRange(int priceRange) {
+        this.priceRange = priceRange;
+        this.hasGeneratedPoints = false;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public void setScheme(String scheme) {
+        this.scheme = scheme;
+    }
+
+    public String getExerciseMethod() {
+        return exerciseMethod;
+    }
+
+    public void setExerciseMethod(String exerciseMethod) {
+        this.exerciseMethod = exerciseMethod;
+    }
+
+    public double getSorOmega() {
+        return sorOmega;
+    }
+
+    public void setSorOmega(double sorOmega) {
+        this.sorOmega = sorOmega;
+    }
+
+    public double getSorTolerance() {
+        return sorTolerance;
+    }
+
+    public void setSorTolerance(double sorTolerance) {
+        this.sorTolerance = sorTolerance;
+    }
+
+    public int getSorMaxIterations() {
+        return sorMaxIterations;
+    }
+
+    public void setSorMaxIterations(int sorMaxIterations) {
+        this.sorMaxIterations = sorMaxIterations;
+    }
+
+    public boolean isCrankNicolson() {
+        return SCHEME_CRANK_NICOLSON.equals(scheme);
+    }
+
+    /**
+     * @return 隐式格式为1, Crank-Nicolson为0.5
+     */
+    public double getTheta() {
+        return isCrankNicolson() ? 0.5 : 1;
+    }
+
+    public int getRannacherSteps() {
+        return rannacherSteps;
+    }
+
+    public void setRannacherSteps(int rannacherSteps) {
+        this.rannacherSteps = Math.max(0, rannacherSteps);
+    }
+
+    /**
+     * @param step 从到期日开始的第step步(从1开始)
+     * @return 是否用两个隐式半步代替
+     */
+    public boolean isRannacherStep(int step) {
+        return isCrankNicolson() && step <= rannacherSteps;
+    }
+
+    public String getGrid() {
+        return grid;
+    }
+
+    public void setGrid(String grid) {
+        this.grid = grid;
+        this.hasGeneratedPoints = false;
+    }
+
+    public String getCoordinate() {
+        return coordinate;
+    }
+
+    public void setCoordinate(String coordinate) {
+        this.coordinate = coordinate;
+        this.hasGeneratedPoints = false;
+    }
+
+    public boolean isLogCoordinate() {
+        return COORDINATE_LOG.equals(coordinate);
+    }
+
+    public double getGridConcentration() {
+        return gridConcentration;
+    }
+
+    public void setGridConcentration(double gridConcentration) {
+        this.gridConcentration = gridConcentration;
+        this.hasGeneratedPoints = false;
+    }
+
     public double[] getPricePoints() {
         return pricePoints;
     }
@@ -44,6 +229,9 @@ public class FiniteDifference implements Serializable {
         return timePoints;
     }
 
+    /**
+     * @return 当前价格处的价格步长
+     */
     public double getDiffPrice() {
         return diffPrice;
     }
@@ -52,18 +240,174 @@ public class FiniteDifference implements Serializable {
         return diffTime;
     }
 
+    public boolean hasLowerBoundary() {
+        return hasLowerBoundary;
+    }
+
+    public boolean hasUpperBoundary() {
+        return hasUpperBoundary;
+    }
+
+    private void generateBoundaries(BaseSingleOption option) {
+        this.hasLowerBoundary = !Double.isNaN(option.getFiniteDifferenceLowerBoundary());
+        this.hasUpperBoundary = !Double.isNaN(option.getFiniteDifferenceUpperBoundary());
+    }
+
+    private double toCoordinate(double price) {
+        return isLogCoordinate() ? Math.log(price) : price;
+    }
+
+    private double toPrice(double x) {
+        return isLogCoordinate() ? Math.exp(x) : x;
+    }
+
+    /**
+     * 网格点为 x = center + scale * sinh(u), u等间距; 等间距网格时 x = u;
+     */
+    private double fromUniform(double u, double center, double scale) {
+        return GRID_SINH.equals(grid) ? center + scale * Math.sinh(u) : u;
+    }
+
+    private double toUniform(double x, double center, double scale) {
+        if (!GRID_SINH.equals(grid)) {
+            return x;
+        }
+        double y = (x - center) / scale;
+        return Math.log(y + Math.sqrt(y * y + 1));
+    }
 
     /**
+     * 标的价格坐标时网格范围是[0, priceRange * s]; 对数坐标时覆盖当前价格和行权价, 两边各延伸LOG_RANGE个标准差;
+     * 网格按u等间距划分, 步长取整使当前价格正好是第indexOfInitialSpot个点, 两端的网格点可能略微超出范围;
+     * 期权给出边界时范围截断在边界上, 边界正好是两端的网格点, 两个边界都有时当前价格两侧的u步长可以不同;
+     *
      * @param option
      */
     private void generatePricePoints(BaseSingleOption option) {
+        generateBoundaries(option);
         double s = option.getUnderlying().getSpotPrice();
-        int priceRange = 5;
-        //[0, s] ∪ [s, 5s]; 之所以不对称是为了计算看涨期权, 因为标的资产价格越高, 看涨期权越贵, 越影响期权价格;
-        this.diffPrice = s / numOfLowerPricePoints;
-        this.pricePoints = new double[numOfLowerPricePoints * priceRange + 1];
-        for (int i = 0; i < pricePoints.length; i++) {
-            pricePoints[i] = s - diffPrice * (numOfLowerPricePoints - i);
+        double k = option.getVanillaOptionParams().getStrikePrice();
+        int n = numOfLowerPricePoints * priceRange;
+        double lower;
+        double upper;
+        if (isLogCoordinate()) {
+            double sd = Math.max(MIN_STANDARD_DEVIATION, option.getVanillaOptionParams().getVolatility() *
+                    Math.sqrt(option.getVanillaOptionParams().getTimeRemaining()));
+            lower = Math.min(Math.log(s), Math.log(k)) - LOG_RANGE * sd;
+            upper = Math.max(Math.log(s), Math.log(k)) + LOG_RANGE * sd;
+        } else {
+            //[0, s] ∪ [s, 5s]; 之所以不对称是为了计算看涨期权, 因为标的资产价格越高, 看涨期权越贵, 越影响期权价格;
+            lower = 0;
+            upper = s * priceRange;
+        }
+        if (hasLowerBoundary) {
+            lower = toCoordinate(option.getFiniteDifferenceLowerBoundary());
+        }
+        if (hasUpperBoundary) {
+            upper = toCoordinate(option.getFiniteDifferenceUpperBoundary());
+        }
+        double center = Math.min(upper, Math.max(lower, toCoordinate(k)));
+        double scale = gridConcentration * (upper - lower);
+        double spotU = toUniform(toCoordinate(s), center, scale);
+        double lowerU = toUniform(lower, center, scale);
+        double upperU = toUniform(upper, center, scale);
+        this.indexOfInitialSpot = (int) Math.round(n * (spotU - lowerU) / (upperU - lowerU));
+        this.indexOfInitialSpot = Math.min(n - 2, Math.max(2, indexOfInitialSpot));
+        double upperDiffU = (upperU - spotU) / (n - indexOfInitialSpot);
+        double diffU = hasUpperBoundary && !hasLowerBoundary ? upperDiffU : (spotU - lowerU) / indexOfInitialSpot;
+        if (!hasUpperBoundary) {
+            upperDiffU = diffU;
+        }
+        double[] coordinates = new double[n + 1];
+        for (int i = 0; i <= n; i++) {
+            double u = i <= indexOfInitialSpot ? spotU - diffU * (indexOfInitialSpot - i) :
+                    spotU + upperDiffU * (i - indexOfInitialSpot);
+            coordinates[i] = fromUniform(u, center, scale);
+        }
+        coordinates[indexOfInitialSpot] = toCoordinate(s);
+        if (!isLogCoordinate()) {
+            coordinates[0] = Math.max(0, coordinates[0]);
+        }
+        if (hasLowerBoundary) {
+            coordinates[0] = lower;
+        }
+        if (hasUpperBoundary) {
+            coordinates[n] = upper;
+        }
+        this.pricePoints = new double[n + 1];
+        for (int i = 0; i <= n; i++) {
+            pricePoints[i] = toPrice(coordinates[i]);
+        }
+        pricePoints[indexOfInitialSpot] = s;
+        if (hasLowerBoundary) {
+            pricePoints[0] = option.getFiniteDifferenceLowerBoundary();
+        }
+        if (hasUpperBoundary) {
+            pricePoints[n] = option.getFiniteDifferenceUpperBoundary();
+        }
+        this.diffPrice = pricePoints[indexOfInitialSpot + 1] - pricePoints[indexOfInitialSpot];
+        generateOperator(option, coordinates);
+    }
+
+    /**
+     * 使用给定的价格点, 用于参数(波动率, 利率等)平移后在同一个网格上求解, 差分不受网格变化的影响;
+     *
+     * @param pricePoints        价格点, 从小到大排列
+     * @param indexOfInitialSpot 标的当前价格在价格点中的位置
+     */
+    public void generateFiniteDifferencePoints(BaseSingleOption option, double[] pricePoints,
+                                               int indexOfInitialSpot) {
+        generateTimePoints(option);
+        generateBoundaries(option);
+        this.pricePoints = pricePoints.clone();
+        this.indexOfInitialSpot = indexOfInitialSpot;
+        this.diffPrice = pricePoints[indexOfInitialSpot + 1] - pricePoints[indexOfInitialSpot];
+        double[] coordinates = new double[pricePoints.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = toCoordinate(pricePoints[i]);
+        }
+        generateOperator(option, coordinates);
+        this.hasGeneratedPoints = true;
+    }
+
+    /**
+     * 非等间距网格上的中心差分; 边界上假设期权价格关于标的价格线性(二阶导数为0), 一阶导数用单侧差分;
+     * 截断的边界上期权价格由期权给出, 该行算子为0, 系数矩阵的这一行是单位行;
+     * 标的价格坐标时 L = 0.5 * vol^2 * S^2 * d2/dS2 + b * S * d/dS - r,
+     * 对数坐标时 L = 0.5 * vol^2 * d2/dx2 + (b - 0.5 * vol^2) * d/dx - r;
+     */
+    private void generateOperator(BaseSingleOption option, double[] x) {
+        double vol = option.getVanillaOptionParams().getVolatility();
+        double mu = option.getUnderlying().getCostOfCarry();
+        double r = option.getUnderlying().getRiskFreeRate();
+        int n = x.length;
+        this.lowerOperator = new double[n];
+        this.diagonalOperator = new double[n];
+        this.upperOperator = new double[n];
+        for (int j = 1; j < n - 1; j++) {
+            double s = pricePoints[j];
+            double diffusion = isLogCoordinate() ? vol * vol / 2 : vol * vol * s * s / 2;
+            double drift = isLogCoordinate() ? mu - vol * vol / 2 : mu * s;
+            double lowerStep = x[j] - x[j - 1];
+            double upperStep = x[j + 1] - x[j];
+            double step = lowerStep + upperStep;
+            lowerOperator[j] = (2 * diffusion - drift * upperStep) / (lowerStep * step);
+            upperOperator[j] = (2 * diffusion + drift * lowerStep) / (upperStep * step);
+            diagonalOperator[j] = (-2 * diffusion + drift * (upperStep - lowerStep)) / (lowerStep * upperStep) - r;
+        }
+        double lowerDrift = isLogCoordinate() ? mu : mu * pricePoints[0];
+        double upperDrift = isLogCoordinate() ? mu : mu * pricePoints[n - 1];
+        upperOperator[0] = lowerDrift / (x[1] - x[0]);
+        diagonalOperator[0] = -upperOperator[0] - r;
+        lowerOperator[n - 1] = -upperDrift / (x[n - 1] - x[n - 2]);
+        diagonalOperator[n - 1] = -lowerOperator[n - 1] - r;
+        if (hasLowerBoundary) {
+            upperOperator[0] = 0;
+            diagonalOperator[0] = 0;
+        }
+        if (hasUpperBoundary) {
+            lowerOperator[n - 1] = 0;
+            diagonalOperator[n - 1] = 0;
         }
     }
 
@@ -91,12 +435,56 @@ public class FiniteDifference implements Serializable {
      * @return spot的下标
      */
     public int getIndexOfInitialSpot() {
-        return numOfLowerPricePoints;
+        return indexOfInitialSpot;
+    }
+
+    /**
+     * @param theta  theta格式的参数
+     * @param deltaT 时间步长
+     * @return 一步theta格式左边的系数矩阵 I - theta * deltaT * L, 已做LU分解
+     */
+    public TridiagonalMatrix thetaMatrix(double theta, double deltaT) {
+        int n = diagonalOperator.length;
+        double[] a = new double[n];
+        double[] b = new double[n];
+        double[] c = new double[n];
+        for (int j = 0; j < n; j++) {
+            a[j] = -theta * deltaT * lowerOperator[j];
+            b[j] = 1 - theta * deltaT * diagonalOperator[j];
+            c[j] = -theta * deltaT * upperOperator[j];
+        }
+        return new TridiagonalMatrix(a, b, c);
+    }
+
+    /**
+     * theta格式右边的显式部分: result = v + weight * L * v, weight = (1 - theta) * deltaT
+     */
+    public void explicitStep(double[] v, double weight, double[] result) {
+        int n = v.length;
+        if (n == 1) {
+            result[0] = v[0] * (1 + weight * diagonalOperator[0]);
+            return;
+        }
+        result[0] = v[0] + weight * (diagonalOperator[0] * v[0] + upperOperator[0] * v[1]);
+        for (int j = 1; j < n - 1; j++) {
+            result[j] = v[j] + weight * (lowerOperator[j] * v[j - 1] + diagonalOperator[j] * v[j] +
+                    upperOperator[j] * v[j + 1]);
+        }
+        result[n - 1] = v[n - 1] + weight * (lowerOperator[n - 1] * v[n - 2] + diagonalOperator[n - 1] * v[n - 1]);
+    }
+
+    /**
+     * @param option BaseSingleOption
+     * @return 隐式格式的差分系数矩阵(三对角), 已做LU分解, 每个时间步用solve递推, 计算量与价格点个数成正比;
+     */
+    public TridiagonalMatrix tridiagonalMatrix(BaseSingleOption option) {
+        double[][] params = paramsArray(option);
+        return new TridiagonalMatrix(params[0], params[1], params[2]);
     }
 
     /**
      * @param option BaseSingleOption
-     * @return 差分系数矩阵, 该矩阵求逆计算速度较慢;
+     * @return 稠密形式的隐式格式差分系数矩阵, 该矩阵求逆计算速度较慢, 计算时用tridiagonalMatrix;
      * 是一个三对角矩阵,形如[[b0,c0,0,...,0],[a1,b1,c1,...,0],...,[0,...,0,an,bn]];
      */
     public Matrix paramsMatrix(BaseSingleOption option) {
@@ -125,23 +513,35 @@ public class FiniteDifference implements Serializable {
         if (!hasGeneratedPoints) {
             generateFiniteDifferencePoints(option);
         }
-        double vol = option.getVanillaOptionParams().getVolatility();
-        double mu = option.getUnderlying().getCostOfCarry();
-        double r = option.getUnderlying().getRiskFreeRate();
         int n = pricePoints.length;
-        double[] b = new double[n];
-        for (int j = 0; j < n; j++) {
-            b[j] = 1 + Math.pow(vol * j, 2) * diffTime + r * diffTime;
-        }
         double[] a = new double[n];
-        for (int j = 0; j < n; j++) {
-            a[j] = mu * j * diffTime / 2 - Math.pow(vol * j, 2) * diffTime / 2;
-        }
+        double[] b = new double[n];
         double[] c = new double[n];
         for (int j = 0; j < n; j++) {
-            c[j] = -mu * j * diffTime / 2 - Math.pow(vol * j, 2) * diffTime / 2;
+            a[j] = -diffTime * lowerOperator[j];
+            b[j] = 1 - diffTime * diagonalOperator[j];
+            c[j] = -diffTime * upperOperator[j];
         }
         return new double[][]{a, b, c};
     }
 
+    @Override
+    public String toString() {
+        return "FiniteDifference{" +
+                "numOfTimePoints=" + numOfTimePoints +
+                ", numOfSavedTimeLayers=" + numOfSavedTimeLayers +
+                ", numOfLowerPricePoints=" + numOfLowerPricePoints +
+                ", priceRange=" + priceRange +
+                ", scheme='" + scheme + '\'' +
+                ", exerciseMethod='" + exerciseMethod + '\'' +
+                ", sorOmega=" + sorOmega +
+                ", sorTolerance=" + sorTolerance +
+                ", sorMaxIterations=" + sorMaxIterations +
+                ", rannacherSteps=" + rannacherSteps +
+                ", grid='" + grid + '\'' +
+                ", coordinate='" + coordinate + '\'' +
+                ", gridConcentration=" + gridConcentration +
+                '}';
+    }
+
 }
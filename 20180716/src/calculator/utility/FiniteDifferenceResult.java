@@ -0,0 +1,104 @@
+package calculator.utility;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * @author liangcy
+ * 一次有限差分求解的结果: 期权价格网格(只保存前面几个时间点), 价格点和时间点;
+ * 价格, delta, gamma, theta都从同一个网格得到; 同时记录求解时的参数, 参数不变时可以直接复用;
+ */
+public class FiniteDifferenceResult implements Serializable {
+    /**
+     * 网格和差分格式的设置, 见FiniteDifference.toString()
+     */
+    private final String settings;
+    /**
+     * 求解时期权和标的的参数
+     */
+    private final double[] parameters;
+    /**
+     * 到期日的期权价格, 由期权的finiteDifferencePrice给出
+     */
+    private final double[] payoff;
+    private final double[] pricePoints;
+    private final double[] timePoints;
+    /**
+     * values[i][j]是第i个时间点, 第j个价格点的期权价格, 只保存前FiniteDifference.getNumOfSavedTimeLayers()个时间点
+     */
+    private final double[][] values;
+    private final int indexOfInitialSpot;
+
+    public FiniteDifferenceResult(String settings, double[] parameters, double[] payoff, double[] pricePoints,
+                                  double[] timePoints, double[][] values, int indexOfInitialSpot) {
+        this.settings = settings;
+        this.parameters = parameters;
+        this.payoff = payoff;
+        this.pricePoints = pricePoints;
+        this.timePoints = timePoints;
+        this.values = values;
+        this.indexOfInitialSpot = indexOfInitialSpot;
+    }
+
+    /**
+     * @return 设置, 参数, 价格点和到期收益都相同时结果可以复用
+     */
+    public boolean isSameState(String settings, double[] parameters, double[] payoff, double[] pricePoints) {
+        return this.settings.equals(settings) && Arrays.equals(this.parameters, parameters) &&
+                Arrays.equals(this.payoff, payoff) && Arrays.equals(this.pricePoints, pricePoints);
+    }
+
+    public double[] getPricePoints() {
+        return pricePoints;
+    }
+
+    public double[] getTimePoints() {
+        return timePoints;
+    }
+
+    public double[][] getValues() {
+        return values;
+    }
+
+    public int getIndexOfInitialSpot() {
+        return indexOfInitialSpot;
+    }
+
+    public double getPrice() {
+        return values[0][indexOfInitialSpot];
+    }
+
+    public double getDelta() {
+        int upperIndex = indexOfInitialSpot + 1;
+        int lowerIndex = indexOfInitialSpot - 1;
+        double[] optionPriceList = values[0];
+        return (optionPriceList[upperIndex] - optionPriceList[lowerIndex]) /
+                (pricePoints[upperIndex] - pricePoints[lowerIndex]);
+    }
+
+    public double getGamma() {
+        int upperIndex1 = indexOfInitialSpot + 1;
+        int upperIndex2 = indexOfInitialSpot + 2;
+        int lowerIndex1 = indexOfInitialSpot - 1;
+        int lowerIndex2 = indexOfInitialSpot - 2;
+        int index = indexOfInitialSpot;
+        double[] optionPriceList = values[0];
+
+        double upperDelta = (optionPriceList[upperIndex2] - optionPriceList[index]) /
+                (pricePoints[upperIndex2] - pricePoints[index]);
+
+        double lowerDelta = (optionPriceList[index] - optionPriceList[lowerIndex2]) /
+                (pricePoints[index] - pricePoints[lowerIndex2]);
+
+        return (upperDelta - lowerDelta) / (pricePoints[upperIndex1] - pricePoints[lowerIndex1]);
+    }
+
+    /**
+     * @return 1天的theta(按365天计算), 用第0个和第1个时间点的价格差分
+     */
+    public double getTheta() {
+        double priceT0 = values[0][indexOfInitialSpot];
+        double priceT1 = values[1][indexOfInitialSpot];
+        return (priceT1 - priceT0) / (timePoints[1] - timePoints[0]) / 365;
+    }
+}
@@ -0,0 +1,102 @@
+package calculator.utility;
+
+import option.BaseSingleOption;
+import volatility.VolatilitySlices;
+import volatility.VolatilitySurface;
+
+/**
+ * @author liangcy
+ * 几何布朗运动的路径生成核, 每次计算对每个期权创建一次;
+ * 与期权有关的参数和每步的漂移项、扩散项在创建时算好, 生成路径时只做乘加和exp;
+ * 常数波动率时分两遍: 先把每步的对数收益写入路径数组(简单的乘加循环, JIT可以自动向量化),
+ * 再逐步累乘exp得到价格; 使用波动率曲面时每步的波动率依赖当前价格, 只能逐步计算;
+ * 时间网格可以不等间距, 常数波动率时每一步都是精确抽样, 步长不影响结果的分布;
+ */
+public class GbmPathKernel implements PathKernel {
+    private final TimeGrid timeGrid;
+    private final int nodes;
+    private final double spotPrice;
+    private final double strikePrice;
+    private final double timeRemaining;
+    /**
+     * 持有成本 r - q
+     */
+    private final double carry;
+    /**
+     * 常数波动率下每步的漂移项 (r - q - vol^2 / 2) * dt 和扩散项 vol * sqrt(dt)
+     */
+    private final double[] drift;
+    private final double[] diffusion;
+    /**
+     * 每步的 sqrt(dt), 使用波动率曲面时用
+     */
+    private final double[] sqrtSteps;
+    /**
+     * 不使用波动率曲面时为null
+     */
+    private final VolatilitySurface surface;
+    private final VolatilitySlices slices;
+
+    /**
+     * 等间距网格, 见GbmPathKernel(option, timeGrid, slices)
+     *
+     * @param nodes 时间步数
+     */
+    public GbmPathKernel(BaseSingleOption option, int nodes, VolatilitySlices slices) {
+        this(option, TimeGrid.uniform(option.getVanillaOptionParams().getTimeRemaining(), nodes), slices);
+    }
+
+    /**
+     * @param option   期权
+     * @param timeGrid 时间网格, 到期日与期权的剩余期限相同
+     * @param slices   波动率曲面在时间网格上的切片, 为null时逐步在曲面上插值
+     */
+    public GbmPathKernel(BaseSingleOption option, TimeGrid timeGrid, VolatilitySlices slices) {
+        this.timeGrid = timeGrid;
+        this.nodes = timeGrid.getNodes();
+        this.spotPrice = option.getUnderlying().getSpotPrice();
+        this.strikePrice = option.getVanillaOptionParams().getStrikePrice();
+        this.timeRemaining = option.getVanillaOptionParams().getTimeRemaining();
+        this.carry = option.getUnderlying().getRiskFreeRate() - option.getUnderlying().getDividendRate();
+        double vol = option.getVanillaOptionParams().getVolatility();
+        this.drift = new double[nodes];
+        this.diffusion = new double[nodes];
+        this.sqrtSteps = new double[nodes];
+        for (int i = 0; i < nodes; i++) {
+            double deltaT = timeGrid.getStep(i);
+            sqrtSteps[i] = Math.sqrt(deltaT);
+            drift[i] = (carry - vol * vol / 2) * deltaT;
+            diffusion[i] = vol * sqrtSteps[i];
+        }
+        VolatilitySurface volatilitySurface = option.getVolatilitySurface();
+        this.surface = volatilitySurface != null && volatilitySurface.isValidSurface() ? volatilitySurface : null;
+        this.slices = surface == null ? null : slices;
+    }
+
+    @Override
+    public TimeGrid getTimeGrid() {
+        return timeGrid;
+    }
+
+    @Override
+    public void generate(double[] randomNums, double[] pricePath) {
+        pricePath[0] = spotPrice;
+        if (surface == null) {
+            for (int i = 0; i < nodes; i++) {
+                pricePath[i + 1] = drift[i] + diffusion[i] * randomNums[i];
+            }
+            for (int i = 0; i < nodes; i++) {
+                pricePath[i + 1] = pricePath[i] * Math.exp(pricePath[i + 1]);
+            }
+            return;
+        }
+        for (int i = 0; i < nodes; i++) {
+            double moneyness = pricePath[i] / strikePrice;
+            double deltaT = timeGrid.getStep(i);
+            double vol = slices == null ? surface.getVolatility(moneyness, timeRemaining - timeGrid.getTime(i)) :
+                    slices.getVolatility(i, moneyness);
+            double rtn = randomNums[i] * vol * sqrtSteps[i] + (carry - vol * vol / 2) * deltaT;
+            pricePath[i + 1] = pricePath[i] * Math.exp(rtn);
+        }
+    }
+}
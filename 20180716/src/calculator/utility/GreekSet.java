@@ -0,0 +1,101 @@
+package calculator.utility;
+
+import java.io.Serializable;
+
+/**
+ * @author liangcy
+ * 一次计算得到的价格和全部希腊值;
+ * 单位与单独计算时相同: vega为1%, theta为1天, rho和rho2为1个基点;
+ */
+public class GreekSet implements Serializable {
+    private double price = 0.0;
+    private double delta = 0.0;
+    private double gamma = 0.0;
+    private double vega = 0.0;
+    private double theta = 0.0;
+    private double rho = 0.0;
+    private double rho2 = 0.0;
+    private CalculatorError error = CalculatorError.NOT_CALCULATE;
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    public void setDelta(double delta) {
+        this.delta = delta;
+    }
+
+    public double getGamma() {
+        return gamma;
+    }
+
+    public void setGamma(double gamma) {
+        this.gamma = gamma;
+    }
+
+    public double getVega() {
+        return vega;
+    }
+
+    public void setVega(double vega) {
+        this.vega = vega;
+    }
+
+    public double getTheta() {
+        return theta;
+    }
+
+    public void setTheta(double theta) {
+        this.theta = theta;
+    }
+
+    public double getRho() {
+        return rho;
+    }
+
+    public void setRho(double rho) {
+        this.rho = rho;
+    }
+
+    public double getRho2() {
+        return rho2;
+    }
+
+    public void setRho2(double rho2) {
+        this.rho2 = rho2;
+    }
+
+    public CalculatorError getError() {
+        return error;
+    }
+
+    public void setError(CalculatorError error) {
+        this.error = error;
+    }
+
+    public boolean isNormal() {
+        return 0 == error.getIndex();
+    }
+
+    @Override
+    public String toString() {
+        return "GreekSet{" +
+                "price=" + price +
+                ", delta=" + delta +
+                ", gamma=" + gamma +
+                ", vega=" + vega +
+                ", theta=" + theta +
+                ", rho=" + rho +
+                ", rho2=" + rho2 +
+                ", error=" + error +
+                '}';
+    }
+}
@@ -0,0 +1,129 @@
+package calculator.utility;
+
+import adjusted.european.option.Heston;
+import option.BaseSingleOption;
+
+/**
+ * @author liangcy
+ * Heston模型的路径生成核, 方差用QE(Quadratic Exponential)格式, 对数价格用对应的离散格式(gamma1 = gamma2 = 0.5);
+ * 初始方差为期权波动率的平方, 参数含义见{@link Heston}: beta为均值回归速度, longVolatility^2为长期方差;
+ * 两个因子: 第0个因子驱动价格, 第1个因子驱动方差, 两者的相关性由rho在格式中体现;
+ * 与QE格式的原文相同, 不做鞅修正, 时间步较大时折现价格有很小的偏差;
+ * @reference Andersen, L. Efficient Simulation of the Heston Stochastic Volatility Model, 2008;
+ */
+public class HestonPathKernel implements PathKernel {
+    /**
+     * psi小于该值时用二次格式, 否则用指数格式
+     */
+    private static final double PSI_CRITICAL = 1.5;
+
+    private final TimeGrid timeGrid;
+    private final int nodes;
+    private final double spotPrice;
+    private final double initialVariance;
+    private final double longVariance;
+    private final double volVolatility;
+    /**
+     * 每步的漂移项 (r - q) * dt
+     */
+    private final double drift;
+    /**
+     * exp(-beta * dt), 条件均值和条件方差的系数
+     */
+    private final double expDecay;
+    private final double varianceCoefficient1;
+    private final double varianceCoefficient2;
+    /**
+     * 对数价格格式的系数K0 ... K4
+     */
+    private final double k0;
+    private final double k1;
+    private final double k2;
+    private final double k3;
+    private final double k4;
+
+    public HestonPathKernel(BaseSingleOption option, int nodes, Heston heston) {
+        this.nodes = nodes;
+        this.spotPrice = option.getUnderlying().getSpotPrice();
+        double vol = option.getVanillaOptionParams().getVolatility();
+        this.initialVariance = vol * vol;
+        this.longVariance = heston.getLongVolatility() * heston.getLongVolatility();
+        this.volVolatility = heston.getVolVolatility();
+        double deltaT = option.getVanillaOptionParams().getTimeRemaining() / nodes;
+        this.timeGrid = TimeGrid.uniform(option.getVanillaOptionParams().getTimeRemaining(), nodes);
+        double r = option.getUnderlying().getRiskFreeRate();
+        double q = option.getUnderlying().getDividendRate();
+        this.drift = (r - q) * deltaT;
+        double kappa = heston.getBeta();
+        double rho = heston.getRho();
+        this.expDecay = Math.exp(-kappa * deltaT);
+        //(1 - exp(-kappa * dt)) / kappa, kappa = 0时为dt
+        double decayIntegral = kappa > 0 ? (1 - expDecay) / kappa : deltaT;
+        double sigma2 = volVolatility * volVolatility;
+        this.varianceCoefficient1 = sigma2 * expDecay * decayIntegral;
+        this.varianceCoefficient2 = sigma2 * decayIntegral * (1 - expDecay) / 2;
+        double gamma1 = 0.5;
+        double gamma2 = 0.5;
+        if (volVolatility > 0) {
+            this.k0 = -rho * kappa * longVariance * deltaT / volVolatility;
+            this.k1 = gamma1 * deltaT * (kappa * rho / volVolatility - 0.5) - rho / volVolatility;
+            this.k2 = gamma2 * deltaT * (kappa * rho / volVolatility - 0.5) + rho / volVolatility;
+            this.k3 = gamma1 * deltaT * (1 - rho * rho);
+            this.k4 = gamma2 * deltaT * (1 - rho * rho);
+        } else {
+            //方差是确定的, 价格用梯形积分后的方差
+            this.k0 = 0;
+            this.k1 = -gamma1 * deltaT / 2;
+            this.k2 = -gamma2 * deltaT / 2;
+            this.k3 = gamma1 * deltaT;
+            this.k4 = gamma2 * deltaT;
+        }
+    }
+
+    @Override
+    public TimeGrid getTimeGrid() {
+        return timeGrid;
+    }
+
+    @Override
+    public void generate(double[] randomNums, double[] pricePath) {
+        pricePath[0] = spotPrice;
+        double variance = initialVariance;
+        double logPrice = Math.log(spotPrice);
+        for (int i = 0; i < nodes; i++) {
+            double nextVariance = nextVariance(variance, randomNums[nodes + i]);
+            logPrice = logPrice + drift + k0 + k1 * variance + k2 * nextVariance +
+                    Math.sqrt(Math.max(k3 * variance + k4 * nextVariance, 0)) * randomNums[i];
+            pricePath[i + 1] = Math.exp(logPrice);
+            variance = nextVariance;
+        }
+    }
+
+    /**
+     * @param variance 当前方差
+     * @param normal   标准正态随机数
+     * @return 下一步的方差
+     */
+    private double nextVariance(double variance, double normal) {
+        double m = longVariance + (variance - longVariance) * expDecay;
+        if (volVolatility == 0 || m <= 0) {
+            return Math.max(m, 0);
+        }
+        double s2 = variance * varianceCoefficient1 + longVariance * varianceCoefficient2;
+        double psi = s2 / (m * m);
+        if (psi <= PSI_CRITICAL) {
+            double inversePsi = 2 / psi;
+            double b2 = inversePsi - 1 + Math.sqrt(inversePsi * (inversePsi - 1));
+            double a = m / (1 + b2);
+            double b = Math.sqrt(b2) + normal;
+            return a * b * b;
+        }
+        double p = (psi - 1) / (psi + 1);
+        double u = CalculateUtil.normalCDF(normal);
+        if (u <= p) {
+            return 0;
+        }
+        double beta = (1 - p) / m;
+        return Math.log((1 - p) / (1 - u)) / beta;
+    }
+}
@@ -130,7 +130,7 @@ public class Interpolation {
      * @return cubic spline parameter a, b, c, d, x, y;
      * a denotes cubic coefficient and d denotes utility coefficient;
      */
-    private static HashMap<String, double[]> cubicSplineParameter(double[] x, double[] y, String method) {
+    public static HashMap<String, double[]> cubicSplineParameter(double[] x, double[] y, String method) {
         int n = x.length;
         double[] a = new double[n];
         double[] b = new double[n];
@@ -205,46 +205,47 @@ public class Interpolation {
     }
 
     public static double getSplinePoint(HashMap<String, double[]> cs, double x0, String method) {
-        double[] x = cs.get("x");
-        double[] a = cs.get("a");
-        double[] b = cs.get("b");
-        double[] c = cs.get("c");
-        double[] d = cs.get("d");
+        return getSplinePoint(cs.get("x"), cs.get("a"), cs.get("b"), cs.get("c"), cs.get("d"), x0, method);
+    }
+
+    /**
+     * 与getSplinePoint(HashMap, x0, method)相同, 直接使用系数数组, 不分配内存;
+     * 内插时用二分查找定位区间, 适合在蒙特卡洛路径上反复调用;
+     */
+    public static double getSplinePoint(double[] x, double[] a, double[] b, double[] c, double[] d,
+                                        double x0, String method) {
         int n = x.length;
-        double y0 = Double.NaN;
         if (x0 < x[0]) {
+            double h = x0 - x[0];
             if (EXTRAPOLATION_METHOD_NATURE.equals(method)) {
-                double h = x0 - x[0];
-                y0 = a[0] * (Math.pow(h, 3)) + b[0] * (Math.pow(h, 2)) + c[0] * h + d[0];
+                return ((a[0] * h + b[0]) * h + c[0]) * h + d[0];
             } else if (EXTRAPOLATION_METHOD_TANGENT.equals(method)) {
-                double h = x0 - x[0];
-                y0 = d[0] + c[0] * h;
+                return d[0] + c[0] * h;
             } else {
-                y0 = d[0];
+                return d[0];
             }
-            return y0;
         } else if (x0 > x[n - 1]) {
             if (EXTRAPOLATION_METHOD_NATURE.equals(method)) {
                 double h = x0 - x[n - 2];
-                y0 = a[n - 2] * (Math.pow(h, 3)) + b[n - 2] * (Math.pow(h, 2)) + c[n - 2] * h + d[n - 2];
+                return ((a[n - 2] * h + b[n - 2]) * h + c[n - 2]) * h + d[n - 2];
             } else if (EXTRAPOLATION_METHOD_TANGENT.equals(method)) {
                 double h = x0 - x[n - 1];
                 double h1 = x[n - 1] - x[n - 2];
-                y0 = ((3 * a[n - 2] * h1 + 2 * b[n - 2]) * h1 + c[n - 2]) * h + d[n - 1];
+                return ((3 * a[n - 2] * h1 + 2 * b[n - 2]) * h1 + c[n - 2]) * h + d[n - 1];
             } else {
-                y0 = d[n - 1];
+                return d[n - 1];
             }
-            return y0;
-        } else {
-            for (int i = 0; i < n - 1; ++i) {
-                if (x0 >= x[i] && x0 <= x[i + 1]) {
-                    double h = x0 - x[i];
-                    y0 = a[i] * (Math.pow(h, 3)) + b[i] * (Math.pow(h, 2)) + c[i] * h + d[i];
-                    return y0;
-                }
-            }
-            return y0;
+        } else if (Double.isNaN(x0)) {
+            return Double.NaN;
+        }
+        int i = Arrays.binarySearch(x, x0);
+        if (i < 0) {
+            //插入点的前一个节点
+            i = -i - 2;
         }
+        i = Math.min(i, n - 2);
+        double h = x0 - x[i];
+        return ((a[i] * h + b[i]) * h + c[i]) * h + d[i];
     }
 
     public static double getSplineSlope(HashMap<String, double[]> cs, double x0, String method) {
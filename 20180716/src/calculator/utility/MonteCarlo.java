@@ -1,9 +1,15 @@
 package calculator.utility;
 
+import adjusted.european.option.Heston;
+import adjusted.european.option.Sabr;
 import option.BaseSingleOption;
+import volatility.VolatilitySlices;
+import volatility.VolatilitySurface;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongFunction;
 
 /**
  * @author liangcy
@@ -17,6 +23,89 @@ public class MonteCarlo {
      * 蒙特卡洛模拟路径条数
      */
     private int pathSize = 100000;
+    /**
+     * 提前行权期权(最小二乘蒙特卡洛)估计行权规则的训练路径条数, 不超过pathSize;
+     * 训练路径只保存每个行权日的行权收益和回归状态, 内存与该值和行权日个数成正比;
+     */
+    private int regressionPathSize = 20000;
+
+    /**
+     * 标的价格模型: 几何布朗运动(可使用波动率曲面), Heston随机波动率, SABR随机波动率;
+     * 随机波动率模型的初始波动率为期权的波动率, 模型参数见hestonParams和sabrParams, 不使用波动率曲面;
+     */
+    public static final String MODEL_GBM = "gbm";
+    public static final String MODEL_HESTON = "heston";
+    public static final String MODEL_SABR = "sabr";
+
+    private String model = MODEL_GBM;
+    private Heston hestonParams = new Heston();
+    private Sabr sabrParams = new Sabr();
+
+    /**
+     * 希腊值计算方法: 差分法, 路径导数法, 似然比法;
+     * 路径导数法和似然比法只在常数波动率的几何布朗运动下有效, 其他情况仍用差分法;
+     * 期权不支持路径导数法时改用似然比法;
+     */
+    public static final String GREEK_METHOD_BUMP = "bump";
+    public static final String GREEK_METHOD_PATHWISE = "pathwise";
+    public static final String GREEK_METHOD_LIKELIHOOD_RATIO = "likelihoodRatio";
+
+    private String greekMethod = GREEK_METHOD_BUMP;
+
+    /**
+     * 随机数类型: 伪随机数, Sobol低差异序列(拟蒙特卡洛)
+     */
+    public static final String RANDOM_NUMBER_PSEUDO = "pseudo";
+    public static final String RANDOM_NUMBER_SOBOL = "sobol";
+
+    private String randomNumberType = RANDOM_NUMBER_PSEUDO;
+    /**
+     * Sobol序列是否用布朗桥构造路径
+     */
+    private boolean useBrownianBridge = true;
+
+    /**
+     * 使用波动率曲面时, 是否预先把曲面切片到模拟的时间网格上(见VolatilitySlices),
+     * 结果与逐步插值相同, 但每一步不再重新计算样条;
+     */
+    private boolean useVolatilitySlices = true;
+
+    /**
+     * 期权声明了观察时间(BaseSingleOption.getMonteCarloObserveTimes)时, 是否只在观察时间上模拟;
+     * 只对几何布朗运动有效: 常数波动率时只模拟观察时间和到期日, 两点之间精确抽样;
+     * 使用波动率曲面时在nodes的等间距网格上加入观察时间; 随机波动率模型仍用等间距网格;
+     */
+    private boolean useObservationSchedule = true;
+
+    /**
+     * 自适应模式: 分批模拟, 标准误差达到targetStandardError(绝对)或targetRelativeError(相对于价格),
+     * 或者用时超过timeBudget(毫秒)时提前停止, 此时pathSize是最多模拟的路径条数;
+     * 三个条件均为0(默认)时不使用自适应模式, 模拟全部pathSize条路径;
+     */
+    private double targetStandardError = 0;
+    private double targetRelativeError = 0;
+    private long timeBudget = 0;
+
+    /**
+     * 随机数种子: 设置种子后, 同一个种子得到完全相同的结果, 与线程数无关;
+     * 不设置种子时每次计算随机生成一个种子;
+     */
+    private boolean useSeed = false;
+    private long seed = 0;
+
+    /**
+     * 方差缩减: 对偶变量, 控制变量, 矩匹配;
+     * 对偶变量: 每组随机数Z同时生成Z和-Z两条路径, 样本取两条路径的平均, pathSize为随机数的组数;
+     * 控制变量: 期权需要提供控制变量(hasControlVariate), 使用波动率曲面时不使用;
+     * 矩匹配: 每块路径的随机数在每个时间步上调整为均值0方差1, 样本不再独立, 标准误差是近似值;
+     */
+    private boolean useAntithetic = false;
+    private boolean useControlVariate = false;
+    private boolean useMomentMatching = false;
+    /**
+     * 置信区间的置信水平
+     */
+    private double confidenceLevel = 0.95;
 
     public MonteCarlo() {
 
@@ -45,12 +134,229 @@ public class MonteCarlo {
         this.pathSize = pathSize;
     }
 
+    public int getRegressionPathSize() {
+        return Math.min(regressionPathSize, pathSize);
+    }
+
+    public void setRegressionPathSize(int regressionPathSize) {
+        this.regressionPathSize = Math.max(1, regressionPathSize);
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public boolean isGbmModel() {
+        return !(MODEL_HESTON.equals(model) || MODEL_SABR.equals(model));
+    }
+
+    public Heston getHestonParams() {
+        return hestonParams;
+    }
+
+    public void setHestonParams(Heston hestonParams) {
+        this.hestonParams = hestonParams;
+    }
+
+    public Sabr getSabrParams() {
+        return sabrParams;
+    }
+
+    public void setSabrParams(Sabr sabrParams) {
+        this.sabrParams = sabrParams;
+    }
+
+    /**
+     * @return 每个时间步需要的随机数个数, 几何布朗运动为1, 随机波动率模型为2
+     */
+    public int getFactors() {
+        return isGbmModel() ? 1 : 2;
+    }
+
+    /**
+     * @return 每条路径需要的随机数个数 nodes * factors
+     */
+    public int getDimension() {
+        return nodes * getFactors();
+    }
+
+    public String getGreekMethod() {
+        return greekMethod;
+    }
+
+    public void setGreekMethod(String greekMethod) {
+        this.greekMethod = greekMethod;
+    }
+
+    public String getRandomNumberType() {
+        return randomNumberType;
+    }
+
+    public void setRandomNumberType(String randomNumberType) {
+        this.randomNumberType = randomNumberType;
+    }
+
+    public boolean isUseBrownianBridge() {
+        return useBrownianBridge;
+    }
+
+    public void setUseBrownianBridge(boolean useBrownianBridge) {
+        this.useBrownianBridge = useBrownianBridge;
+    }
+
+    public boolean isUseVolatilitySlices() {
+        return useVolatilitySlices;
+    }
+
+    public void setUseVolatilitySlices(boolean useVolatilitySlices) {
+        this.useVolatilitySlices = useVolatilitySlices;
+    }
+
+    public boolean isUseObservationSchedule() {
+        return useObservationSchedule;
+    }
+
+    public void setUseObservationSchedule(boolean useObservationSchedule) {
+        this.useObservationSchedule = useObservationSchedule;
+    }
+
+    public double getTargetStandardError() {
+        return targetStandardError;
+    }
+
+    public void setTargetStandardError(double targetStandardError) {
+        this.targetStandardError = targetStandardError;
+    }
+
+    public double getTargetRelativeError() {
+        return targetRelativeError;
+    }
+
+    public void setTargetRelativeError(double targetRelativeError) {
+        this.targetRelativeError = targetRelativeError;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public boolean isAdaptive() {
+        return targetStandardError > 0 || targetRelativeError > 0 || timeBudget > 0;
+    }
+
+    public boolean isUseSeed() {
+        return useSeed;
+    }
+
+    public void setUseSeed(boolean useSeed) {
+        this.useSeed = useSeed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * 设置种子, 同时打开useSeed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.useSeed = true;
+    }
+
+    public boolean isUseAntithetic() {
+        return useAntithetic;
+    }
+
+    public void setUseAntithetic(boolean useAntithetic) {
+        this.useAntithetic = useAntithetic;
+    }
+
+    public boolean isUseControlVariate() {
+        return useControlVariate;
+    }
+
+    public void setUseControlVariate(boolean useControlVariate) {
+        this.useControlVariate = useControlVariate;
+    }
+
+    public boolean isUseMomentMatching() {
+        return useMomentMatching;
+    }
+
+    public void setUseMomentMatching(boolean useMomentMatching) {
+        this.useMomentMatching = useMomentMatching;
+    }
+
+    public double getConfidenceLevel() {
+        return confidenceLevel;
+    }
+
+    public void setConfidenceLevel(double confidenceLevel) {
+        this.confidenceLevel = confidenceLevel;
+    }
+
+    /**
+     * 每次计算调用一次, 返回的函数根据任务第一条路径的序号生成该任务自己的随机数生成器;
+     * 种子、Sobol序列的随机平移和布朗桥在这里生成, 所有任务共用, 各任务取同一个序列的不同片段;
+     * 每条路径的随机数只由种子和路径序号决定, 因此结果与任务划分和线程数无关;
+     *
+     * @return 任务第一条路径的序号 -> 随机数生成器
+     */
+    public LongFunction<RandomNumberGenerator> createRandomNumberGeneratorFactory() {
+        return createRandomNumberGeneratorFactory(getFactors());
+    }
+
+    /**
+     * 同createRandomNumberGeneratorFactory(), 每条路径的随机数个数为nodes * factors, 用于多标的模拟
+     *
+     * @param factors 每个时间步需要的随机数个数
+     */
+    public LongFunction<RandomNumberGenerator> createRandomNumberGeneratorFactory(int factors) {
+        return createRandomNumberGeneratorFactory(nodes, factors);
+    }
+
+    /**
+     * 同createRandomNumberGeneratorFactory(), 每条路径的随机数个数为steps * factors,
+     * 用于时间网格的步数与nodes不同的情况(见createTimeGrid)
+     *
+     * @param steps   时间步数
+     * @param factors 每个时间步需要的随机数个数
+     */
+    public LongFunction<RandomNumberGenerator> createRandomNumberGeneratorFactory(int steps, int factors) {
+        long calculateSeed = useSeed ? seed : ThreadLocalRandom.current().nextLong();
+        if (RANDOM_NUMBER_SOBOL.equals(randomNumberType)) {
+            int dimension = steps * factors;
+            int[] shift = SobolGenerator.randomShift(dimension, calculateSeed);
+            BrownianBridge bridge = useBrownianBridge && steps > 1 ? new BrownianBridge(steps) : null;
+            return firstPathIndex -> new SobolGenerator(dimension, firstPathIndex, shift, bridge, factors);
+        }
+        return firstPathIndex -> new SplitMixGenerator(calculateSeed, firstPathIndex);
+    }
+
     private double[] generateStandardNormalRandomNumber() {
         double[] result = new double[nodes];
+        generateStandardNormalRandomNumber(result);
+        return result;
+    }
+
+    /**
+     * 把标准正态随机数写入已有数组, 数组可以在每条路径之间复用;
+     *
+     * @param randomNums 长度为nodes的数组
+     */
+    public void generateStandardNormalRandomNumber(double[] randomNums) {
         for (int i = 0; i < nodes; i++) {
-            result[i] = CalculateUtil.normalRandom();
+            randomNums[i] = CalculateUtil.normalRandom();
         }
-        return result;
     }
 
     public List<double[]> generateStandardNormalRandomNumberList() {
@@ -64,39 +370,107 @@ public class MonteCarlo {
     public List<double[]> generateMonteCarloPathList(BaseSingleOption option, List<double[]> randomNumsList) {
         List<double[]> list = new ArrayList<>(randomNumsList.size());
         for (double[] randomNums : randomNumsList) {
-            list.add(generateMonteCarloPath(option, randomNums));
+            double[] pricePath = new double[nodes + 1];
+            generateMonteCarloPath(option, randomNums, pricePath);
+            list.add(pricePath);
         }
         return list;
     }
 
-    private double[] generateMonteCarloPath(BaseSingleOption option, double[] randomNums) {
-        double s = option.getUnderlying().getSpotPrice();
-        double k = option.getVanillaOptionParams().getStrikePrice();
-        double r = option.getUnderlying().getRiskFreeRate();
-        double q = option.getUnderlying().getDividendRate();
+    /**
+     * 根据随机数生成一条价格路径, 结果写入pricePath, 不分配新的数组;
+     *
+     * @param option     期权
+     * @param randomNums 长度为nodes的标准正态随机数
+     * @param pricePath  长度为nodes+1的数组, 用于保存价格路径
+     */
+    public void generateMonteCarloPath(BaseSingleOption option, double[] randomNums, double[] pricePath) {
+        new GbmPathKernel(option, nodes, null).generate(randomNums, pricePath);
+    }
+
+    /**
+     * 每次计算对每个期权调用一次, 期权没有声明观察时间时, 几何布朗运动生成的路径与generateMonteCarloPath相同;
+     * 使用波动率曲面时在路径的每个时间步上切片曲面;
+     *
+     * @return 该期权在当前模型下的路径生成核
+     */
+    public PathKernel createPathKernel(BaseSingleOption option) {
+        if (MODEL_HESTON.equals(model)) {
+            return new HestonPathKernel(option, nodes, hestonParams);
+        }
+        if (MODEL_SABR.equals(model)) {
+            return new SabrPathKernel(option, nodes, sabrParams);
+        }
+        TimeGrid timeGrid = createTimeGrid(option);
+        return new GbmPathKernel(option, timeGrid, createVolatilitySlices(option, timeGrid));
+    }
+
+    /**
+     * @return 几何布朗运动下该期权的模拟时间网格, 见useObservationSchedule
+     */
+    public TimeGrid createTimeGrid(BaseSingleOption option) {
         double t = option.getVanillaOptionParams().getTimeRemaining();
-        double vol = option.getVanillaOptionParams().getVolatility();
-        double deltaT = t / nodes;
-        double[] pricePath = new double[nodes + 1];
-        pricePath[0] = s;
-        //create log normal return using random numbers;
-        double rtn;
-        boolean isValidSurface = option.getVolatilitySurface().isValidSurface();
-        double moneyness;
-        double volFromSurface;
-        for (int i = 0; i < nodes; i++) {
-            if(isValidSurface) {
-                moneyness = pricePath[i] / k;
-                volFromSurface = option.getVolatilitySurface().getVolatility(moneyness, t - deltaT * i);
-                rtn = randomNums[i] * volFromSurface * Math.sqrt(deltaT) +
-                        ((r - q) - volFromSurface * volFromSurface / 2) * deltaT;
-                pricePath[i + 1] = pricePath[i] * Math.exp(rtn);
-            } else {
-                rtn = randomNums[i] * vol * Math.sqrt(deltaT) + ((r - q) - vol * vol / 2) * deltaT;
-                pricePath[i + 1] = pricePath[i] * Math.exp(rtn);
-            }
+        TimeGrid uniformGrid = TimeGrid.uniform(t, nodes);
+        double[] observeTimes = option.getMonteCarloObserveTimes();
+        if (!useObservationSchedule || !isGbmModel() || observeTimes == null) {
+            return uniformGrid;
         }
-        return pricePath;
+        TimeGrid scheduleGrid = TimeGrid.of(t, observeTimes);
+        VolatilitySurface surface = option.getVolatilitySurface();
+        return surface != null && surface.isValidSurface() ? scheduleGrid.merge(uniformGrid) : scheduleGrid;
+    }
+
+    /**
+     * 在nodes的等间距网格上切片
+     */
+    public VolatilitySlices createVolatilitySlices(BaseSingleOption option) {
+        return createVolatilitySlices(option, TimeGrid.uniform(option.getVanillaOptionParams().getTimeRemaining(),
+                nodes));
+    }
+
+    /**
+     * @return 不使用波动率曲面, 不切片或曲面含有NaN时返回null
+     */
+    public VolatilitySlices createVolatilitySlices(BaseSingleOption option, TimeGrid timeGrid) {
+        VolatilitySurface surface = option.getVolatilitySurface();
+        if (!useVolatilitySlices || surface == null || !surface.isValidSurface()) {
+            return null;
+        }
+        double t = option.getVanillaOptionParams().getTimeRemaining();
+        double[] timeRemaining = new double[timeGrid.getNodes()];
+        for (int i = 0; i < timeRemaining.length; i++) {
+            timeRemaining[i] = t - timeGrid.getTime(i);
+        }
+        return surface.sliceOnTimeGrid(timeRemaining);
+    }
+
+    /**
+     * 布朗桥修正: 已知一步的起点和终点, 对数价格的路径在这一步中穿过障碍的概率;
+     * 起点或终点已触碰障碍时为1; 障碍在对数空间中是直线(例如exp(curve * t)形式的障碍)时也是精确的;
+     *
+     * @param distance0 起点到障碍的对数距离 ln(H0 / S0)
+     * @param distance1 终点到障碍的对数距离 ln(H1 / S1)
+     * @param variance  这一步对数价格的方差 vol^2 * dt
+     * @return 穿过障碍的概率
+     */
+    public static double barrierCrossingProbability(double distance0, double distance1, double variance) {
+        if (distance0 * distance1 <= 0) {
+            return 1;
+        }
+        if (variance <= 0) {
+            return 0;
+        }
+        return Math.exp(-2 * distance0 * distance1 / variance);
+    }
+
+    /**
+     * @param t          剩余期限
+     * @param index      路径上的位置
+     * @param pathLength 路径长度(nodes+1)
+     * @return 路径上第index个点对应的时间, 与getTimePoints(t, pricePath)[index]相同
+     */
+    public static double getTimePoint(double t, int index, int pathLength) {
+        return t * index / (pathLength - 1);
     }
 
     public static double[] getTimePoints(double t, double[] pricePath) {
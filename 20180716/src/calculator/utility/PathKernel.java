@@ -0,0 +1,19 @@
+package calculator.utility;
+
+/**
+ * @author liangcy
+ * 蒙特卡洛路径生成核: 每次计算对每个期权创建一次, 之后在所有路径和线程之间共用, 实现类必须是无状态的;
+ * 随机数按因子分块排列, 第f个因子第i步的随机数为randomNums[f * nodes + i], nodes为时间网格的步数;
+ */
+public interface PathKernel {
+    /**
+     * @param randomNums 长度不小于nodes * 因子数的标准正态随机数
+     * @param pricePath  长度为nodes+1的数组, 用于保存标的价格路径
+     */
+    void generate(double[] randomNums, double[] pricePath);
+
+    /**
+     * @return 路径对应的时间网格
+     */
+    TimeGrid getTimeGrid();
+}
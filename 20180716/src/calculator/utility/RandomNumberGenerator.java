@@ -0,0 +1,16 @@
+package calculator.utility;
+
+/**
+ * @author liangcy
+ * 蒙特卡洛模拟的随机数来源, 每次调用生成一条路径所需的标准正态随机数;
+ * 生成器有内部状态, 不能在线程之间共用, 每个任务使用自己的生成器;
+ */
+@FunctionalInterface
+public interface RandomNumberGenerator {
+    /**
+     * 生成一条路径的标准正态随机数(按时间顺序的增量), 写入randomNums
+     *
+     * @param randomNums 长度为nodes的数组
+     */
+    void nextStandardNormal(double[] randomNums);
+}
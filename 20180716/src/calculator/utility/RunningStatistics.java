@@ -0,0 +1,120 @@
+package calculator.utility;
+
+import java.io.Serializable;
+
+/**
+ * @author liangcy
+ * 流式统计量: 逐个加入样本, 不保存样本本身, 只记录个数、均值和离差平方和(Welford算法);
+ * 两个统计量可以合并(Chan et al.), 用于合并多线程的计算结果;
+ * 可以同时加入控制变量的样本, 记录控制变量的方差和协方差, 用于控制变量法:
+ * beta = cov(x, c) / var(c), 估计值 = mean(x) - beta * (mean(c) - E[c]);
+ */
+public class RunningStatistics implements Serializable {
+    private long count = 0;
+    private double mean = 0.0;
+    /**
+     * 离差平方和 sum((x - mean)^2)
+     */
+    private double sumOfSquares = 0.0;
+    private double controlMean = 0.0;
+    private double controlSumOfSquares = 0.0;
+    /**
+     * sum((x - mean) * (c - controlMean))
+     */
+    private double coMoment = 0.0;
+
+    public void add(double x) {
+        add(x, 0.0);
+    }
+
+    /**
+     * @param x       样本
+     * @param control 同一条路径上控制变量的样本
+     */
+    public void add(double x, double control) {
+        count++;
+        double diff = x - mean;
+        double controlDiff = control - controlMean;
+        mean = mean + diff / count;
+        controlMean = controlMean + controlDiff / count;
+        sumOfSquares = sumOfSquares + diff * (x - mean);
+        controlSumOfSquares = controlSumOfSquares + controlDiff * (control - controlMean);
+        coMoment = coMoment + diff * (control - controlMean);
+    }
+
+    public void merge(RunningStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count = other.count;
+            mean = other.mean;
+            sumOfSquares = other.sumOfSquares;
+            controlMean = other.controlMean;
+            controlSumOfSquares = other.controlSumOfSquares;
+            coMoment = other.coMoment;
+            return;
+        }
+        long n = count + other.count;
+        double diff = other.mean - mean;
+        double controlDiff = other.controlMean - controlMean;
+        double weight = (double) count * other.count / n;
+        mean = mean + diff * other.count / n;
+        controlMean = controlMean + controlDiff * other.count / n;
+        sumOfSquares = sumOfSquares + other.sumOfSquares + diff * diff * weight;
+        controlSumOfSquares = controlSumOfSquares + other.controlSumOfSquares + controlDiff * controlDiff * weight;
+        coMoment = coMoment + other.coMoment + diff * controlDiff * weight;
+        count = n;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return 样本方差(无偏)
+     */
+    public double getVariance() {
+        return count > 1 ? sumOfSquares / (count - 1) : 0.0;
+    }
+
+    /**
+     * @return 均值的标准误差 sqrt(variance / n)
+     */
+    public double getStandardError() {
+        return count > 0 ? Math.sqrt(getVariance() / count) : 0.0;
+    }
+
+    /**
+     * @return 最优控制变量系数 cov(x, c) / var(c), 没有控制变量时为0
+     */
+    public double getControlVariateBeta() {
+        return controlSumOfSquares > 0 ? coMoment / controlSumOfSquares : 0.0;
+    }
+
+    /**
+     * @param controlExpectation 控制变量的期望(解析解)
+     * @return 控制变量法调整后的均值
+     */
+    public double getControlledMean(double controlExpectation) {
+        return mean - getControlVariateBeta() * (controlMean - controlExpectation);
+    }
+
+    /**
+     * @return 控制变量法调整后均值的标准误差, 方差为 var(x) - cov(x, c)^2 / var(c)
+     */
+    public double getControlledStandardError() {
+        if (count < 2) {
+            return 0.0;
+        }
+        double variance = sumOfSquares;
+        if (controlSumOfSquares > 0) {
+            variance = variance - coMoment * coMoment / controlSumOfSquares;
+        }
+        return Math.sqrt(Math.max(variance, 0.0) / (count - 1) / count);
+    }
+}
@@ -0,0 +1,86 @@
+package calculator.utility;
+
+import adjusted.european.option.Sabr;
+import option.BaseSingleOption;
+
+/**
+ * @author liangcy
+ * SABR模型的路径生成核, 模拟到期日的远期价格 F(t) = S(t) * exp((r - q) * (T - t)):
+ * dF = alpha * F^beta * dz, d(alpha) = volVol * alpha * dw, E[dz, dw] = rho * dt;
+ * alpha用对数格式(精确), beta = 1时F也用对数格式, 否则用Euler格式, F到0后吸收;
+ * 初始alpha与{@link Sabr}的解析解相同, 由平值波动率反解, 在参数的副本上求解, 不修改传入的sabr;
+ * 两个因子: 第0个因子为dz, 第1个因子与dz正交, dw = rho * dz + sqrt(1 - rho^2) * 第1个因子;
+ */
+public class SabrPathKernel implements PathKernel {
+    private final TimeGrid timeGrid;
+    private final int nodes;
+    private final double beta;
+    private final double rho;
+    private final double sqrtDeltaT;
+    private final double deltaT;
+    private final double initialForward;
+    private final double initialAlpha;
+    /**
+     * alpha每步的对数漂移项和扩散项
+     */
+    private final double alphaDrift;
+    private final double alphaDiffusion;
+    /**
+     * 远期价格转成标的价格的折现因子 exp(-(r - q) * (T - t_i))
+     */
+    private final double[] forwardDiscount;
+
+    public SabrPathKernel(BaseSingleOption option, int nodes, Sabr sabr) {
+        this.nodes = nodes;
+        this.beta = sabr.getBeta();
+        this.rho = sabr.getRho();
+        double t = option.getVanillaOptionParams().getTimeRemaining();
+        this.deltaT = t / nodes;
+        this.timeGrid = TimeGrid.uniform(t, nodes);
+        this.sqrtDeltaT = Math.sqrt(deltaT);
+        double carry = option.getUnderlying().getRiskFreeRate() - option.getUnderlying().getDividendRate();
+        double s = option.getUnderlying().getSpotPrice();
+        this.initialForward = s * Math.exp(carry * t);
+        Sabr sabrCopy = sabr.copy();
+        sabrCopy.setOption(option);
+        double alpha = sabrCopy.solveAlpha();
+        if (alpha <= 0) {
+            alpha = option.getVanillaOptionParams().getVolatility() * Math.pow(s, 1 - beta);
+        }
+        this.initialAlpha = alpha;
+        double volVolatility = sabr.getVolVolatility();
+        this.alphaDrift = -volVolatility * volVolatility * deltaT / 2;
+        this.alphaDiffusion = volVolatility * sqrtDeltaT;
+        this.forwardDiscount = new double[nodes + 1];
+        for (int i = 0; i <= nodes; i++) {
+            forwardDiscount[i] = Math.exp(-carry * (t - deltaT * i));
+        }
+    }
+
+    @Override
+    public TimeGrid getTimeGrid() {
+        return timeGrid;
+    }
+
+    @Override
+    public void generate(double[] randomNums, double[] pricePath) {
+        double forward = initialForward;
+        double alpha = initialAlpha;
+        double rhoComplement = Math.sqrt(1 - rho * rho);
+        pricePath[0] = forward * forwardDiscount[0];
+        for (int i = 0; i < nodes; i++) {
+            double dz = randomNums[i];
+            if (forward > 0) {
+                if (beta == 1) {
+                    forward = forward * Math.exp(alpha * sqrtDeltaT * dz - alpha * alpha * deltaT / 2);
+                } else {
+                    forward = forward + alpha * Math.pow(forward, beta) * sqrtDeltaT * dz;
+                    forward = Math.max(forward, 0);
+                }
+            }
+            double dw = rho * dz + rhoComplement * randomNums[nodes + i];
+            alpha = alpha * Math.exp(alphaDrift + alphaDiffusion * dw);
+            pricePath[i + 1] = forward * forwardDiscount[i + 1];
+        }
+    }
+}
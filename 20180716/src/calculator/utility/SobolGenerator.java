@@ -0,0 +1,270 @@
+package calculator.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author liangcy
+ * Sobol低差异序列, 维数等于路径的时间步数, 每条路径使用序列中的一个点;
+ * 本原多项式按次数从低到高依次生成, 初始方向数用固定种子随机生成(Jäckel), 因此序列是确定的;
+ * 每次计算使用一个随机数字平移(digital shift)扰动序列, 既保持低差异性又能估计标准误差;
+ * 均匀分布经逆正态分布函数转换成标准正态随机数, 可选布朗桥构造路径;
+ * 有多个因子时各因子交错使用序列的维度(第d维属于第d % factors个因子), 每个因子单独用布朗桥,
+ * 输出按因子分块排列, 第f个因子第i步为randomNums[f * steps + i];
+ * 每个任务从自己第一条路径的序号开始(Gray码直接跳到该点), 所有任务合起来就是同一个序列;
+ * 方向数为32位, 序列最多有2^32 - 1个点(不含第0个点), 路径序号超出时抛出异常, 不会重复使用序列;
+ * @reference Jäckel, P. Monte Carlo Methods in Finance, 8.3;
+ */
+public class SobolGenerator implements RandomNumberGenerator {
+    private static final int BITS = 32;
+    private static final double NORMALIZE = 1.0 / (1L << BITS);
+    /**
+     * 序列的点数上限, index必须小于该值
+     */
+    private static final long MAX_POINTS = 1L << BITS;
+    /**
+     * 生成初始方向数的种子, 固定后序列可以复现
+     */
+    private static final long DIRECTION_SEED = 20180716L;
+
+    private static int[][] directionCache = new int[0][];
+
+    private final int dimension;
+    private final int[][] directions;
+    private final int[] shift;
+    private final BrownianBridge bridge;
+    private final int factors;
+    private final int steps;
+    private final int[] point;
+    private final double[] normals;
+    private final double[] factorNormals;
+    private final double[] factorIncrements;
+    /**
+     * 当前点在序列中的序号, 跳过全0的第0个点
+     */
+    private long index;
+
+    /**
+     * @param dimension      维数(时间步数)
+     * @param firstPathIndex 第一条路径的序号, 从0开始
+     * @param shift          随机数字平移, 由randomShift生成, 同一次计算的所有任务必须相同
+     * @param bridge         布朗桥, 为null时按时间顺序直接使用随机数
+     * @throws IllegalArgumentException firstPathIndex不在[0, 2^32 - 1)内
+     */
+    public SobolGenerator(int dimension, long firstPathIndex, int[] shift, BrownianBridge bridge) {
+        this(dimension, firstPathIndex, shift, bridge, 1);
+    }
+
+    /**
+     * @param factors 因子数, dimension必须是factors的整数倍, 布朗桥的步数为dimension / factors
+     */
+    public SobolGenerator(int dimension, long firstPathIndex, int[] shift, BrownianBridge bridge, int factors) {
+        if (firstPathIndex < 0 || firstPathIndex >= MAX_POINTS - 1) {
+            throw new IllegalArgumentException("Sobol path index out of range: " + firstPathIndex);
+        }
+        this.dimension = dimension;
+        this.directions = getDirectionNumbers(dimension);
+        this.shift = shift;
+        this.bridge = bridge;
+        this.factors = factors;
+        this.steps = dimension / factors;
+        this.point = new int[dimension];
+        this.normals = new double[dimension];
+        this.factorNormals = new double[steps];
+        this.factorIncrements = new double[steps];
+        this.index = firstPathIndex + 1;
+        long gray = index ^ (index >>> 1);
+        for (int bit = 0; bit < BITS && (gray >>> bit) != 0; bit++) {
+            if (((gray >>> bit) & 1) != 0) {
+                for (int d = 0; d < dimension; d++) {
+                    point[d] = point[d] ^ directions[d][bit];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param dimension 维数
+     * @param seed      种子
+     * @return 由种子确定的随机数字平移, 同一个种子得到相同的序列
+     */
+    public static int[] randomShift(int dimension, long seed) {
+        int[] shift = new int[dimension];
+        for (int i = 0; i < dimension; i++) {
+            shift[i] = (int) (SplitMixGenerator.nextLong(seed, i) >>> 32);
+        }
+        return shift;
+    }
+
+    /**
+     * @param dimension 维数
+     * @return 随机数字平移, 每次计算生成一次
+     */
+    public static int[] randomShift(int dimension) {
+        return randomShift(dimension, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * @throws IllegalStateException 序列的2^32 - 1个点已经用完
+     */
+    @Override
+    public void nextStandardNormal(double[] randomNums) {
+        if (index >= MAX_POINTS) {
+            throw new IllegalStateException("Sobol sequence exhausted after " + (MAX_POINTS - 1) + " points");
+        }
+        boolean direct = bridge == null && factors == 1;
+        double[] target = direct ? randomNums : normals;
+        for (int d = 0; d < dimension; d++) {
+            double u = (((point[d] ^ shift[d]) & 0xFFFFFFFFL) + 0.5) * NORMALIZE;
+            target[d] = CalculateUtil.inverseNormalCDF(u);
+        }
+        if (!direct) {
+            for (int f = 0; f < factors; f++) {
+                for (int i = 0; i < steps; i++) {
+                    factorNormals[i] = normals[i * factors + f];
+                }
+                if (bridge != null) {
+                    bridge.transform(factorNormals, factorIncrements);
+                    System.arraycopy(factorIncrements, 0, randomNums, f * steps, steps);
+                } else {
+                    System.arraycopy(factorNormals, 0, randomNums, f * steps, steps);
+                }
+            }
+        }
+        //Gray码: 下一个点只改变index最右边的0位对应的方向数, 最后一个点之后不再更新
+        int bit = Long.numberOfTrailingZeros(~index);
+        index++;
+        if (index < MAX_POINTS) {
+            for (int d = 0; d < dimension; d++) {
+                point[d] = point[d] ^ directions[d][bit];
+            }
+        }
+    }
+
+    /**
+     * 方向数只与维数有关, 所有生成器共用; 维数增加时重新生成, 前面维度的方向数不变
+     */
+    private static synchronized int[][] getDirectionNumbers(int dimension) {
+        if (directionCache.length >= dimension) {
+            return directionCache;
+        }
+        int[][] directions = new int[dimension][];
+        //第一维是van der Corput序列
+        directions[0] = new int[BITS];
+        for (int k = 0; k < BITS; k++) {
+            directions[0][k] = 1 << (BITS - 1 - k);
+        }
+        Random random = new Random(DIRECTION_SEED);
+        List<int[]> polynomials = primitivePolynomials(dimension - 1);
+        for (int d = 1; d < dimension; d++) {
+            int[] polynomial = polynomials.get(d - 1);
+            directions[d] = directionNumbers(polynomial[0], polynomial[1], random);
+        }
+        directionCache = directions;
+        return directions;
+    }
+
+    /**
+     * m_k = 2^s * m_{k-s} xor m_{k-s} xor sum(2^j * a_j * m_{k-j}), v_k = m_k / 2^k;
+     * 前s个m_k是小于2^k的随机奇数;
+     *
+     * @param polynomial 本原多项式, 第i位是x^i的系数
+     * @param degree     多项式次数s
+     */
+    private static int[] directionNumbers(int polynomial, int degree, Random random) {
+        long[] m = new long[BITS + 1];
+        for (int k = 1; k <= Math.min(degree, BITS); k++) {
+            m[k] = ((long) random.nextInt(1 << (k - 1)) << 1) | 1;
+        }
+        for (int k = degree + 1; k <= BITS; k++) {
+            long value = m[k - degree] ^ (m[k - degree] << degree);
+            for (int j = 1; j < degree; j++) {
+                if (((polynomial >>> (degree - j)) & 1) != 0) {
+                    value = value ^ (m[k - j] << j);
+                }
+            }
+            m[k] = value;
+        }
+        int[] v = new int[BITS];
+        for (int k = 1; k <= BITS; k++) {
+            v[k - 1] = (int) (m[k] << (BITS - k));
+        }
+        return v;
+    }
+
+    /**
+     * @param count 需要的个数
+     * @return 按次数从低到高排列的本原多项式, 每个元素为{多项式, 次数}
+     */
+    private static List<int[]> primitivePolynomials(int count) {
+        List<int[]> polynomials = new ArrayList<>(count);
+        for (int degree = 1; polynomials.size() < count; degree++) {
+            //常数项必须为1
+            for (int polynomial = (1 << degree) + 1; polynomial < (1 << (degree + 1)) &&
+                    polynomials.size() < count; polynomial += 2) {
+                if (isPrimitive(polynomial, degree)) {
+                    polynomials.add(new int[]{polynomial, degree});
+                }
+            }
+        }
+        return polynomials;
+    }
+
+    /**
+     * x在GF(2)[x]/p中的阶等于2^s-1时, p是本原多项式
+     */
+    private static boolean isPrimitive(int polynomial, int degree) {
+        long order = (1L << degree) - 1;
+        if (powerOfX(order, polynomial, degree) != 1) {
+            return false;
+        }
+        long n = order;
+        for (long factor = 2; factor * factor <= n; factor++) {
+            if (n % factor == 0) {
+                if (powerOfX(order / factor, polynomial, degree) == 1) {
+                    return false;
+                }
+                while (n % factor == 0) {
+                    n = n / factor;
+                }
+            }
+        }
+        return n == 1 || order == n || powerOfX(order / n, polynomial, degree) != 1;
+    }
+
+    /**
+     * @return x^exponent mod polynomial
+     */
+    private static long powerOfX(long exponent, int polynomial, int degree) {
+        long result = 1;
+        long base = degree == 1 ? 2 ^ polynomial : 2;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result = multiplyMod(result, base, polynomial, degree);
+            }
+            base = multiplyMod(base, base, polynomial, degree);
+            exponent = exponent >>> 1;
+        }
+        return result;
+    }
+
+    /**
+     * GF(2)上的多项式乘法, 结果对polynomial取模
+     */
+    private static long multiplyMod(long a, long b, int polynomial, int degree) {
+        long result = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) {
+                result = result ^ a;
+            }
+            b = b >>> 1;
+            a = a << 1;
+            if (((a >>> degree) & 1) != 0) {
+                a = a ^ polynomial;
+            }
+        }
+        return result;
+    }
+}
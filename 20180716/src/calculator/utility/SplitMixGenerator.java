@@ -0,0 +1,58 @@
+package calculator.utility;
+
+/**
+ * @author liangcy
+ * 基于计数器的伪随机数生成器(SplitMix64混合函数);
+ * 第p条路径第d个时间步的随机数只由(seed, p, d)决定, 不依赖生成顺序,
+ * 因此无论任务怎样划分、由几个线程执行, 同一个种子得到的每条路径都完全相同;
+ * 不同路径的流由路径序号经混合函数得到, 彼此统计独立;
+ * @reference Steele, Lea, Flood. Fast Splittable Pseudorandom Number Generators, 2014;
+ */
+public class SplitMixGenerator implements RandomNumberGenerator {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final double NORMALIZE = 1.0 / (1L << 53);
+
+    private final long seed;
+    /**
+     * 下一条路径的序号
+     */
+    private long pathIndex;
+
+    /**
+     * @param seed           种子, 同一次计算的所有任务必须相同
+     * @param firstPathIndex 第一条路径的序号, 从0开始
+     */
+    public SplitMixGenerator(long seed, long firstPathIndex) {
+        this.seed = seed;
+        this.pathIndex = firstPathIndex;
+    }
+
+    @Override
+    public void nextStandardNormal(double[] randomNums) {
+        long stream = mix64(seed + GOLDEN_GAMMA * (pathIndex + 1));
+        for (int d = 0; d < randomNums.length; d++) {
+            randomNums[d] = CalculateUtil.inverseNormalCDF(toUniform(mix64(stream + GOLDEN_GAMMA * (d + 1))));
+        }
+        pathIndex++;
+    }
+
+    /**
+     * @return 种子对应的第index个64位随机整数
+     */
+    static long nextLong(long seed, long index) {
+        return mix64(seed + GOLDEN_GAMMA * (index + 1));
+    }
+
+    /**
+     * 高53位映射到(0, 1)的开区间, 避免逆正态分布函数取到无穷
+     */
+    private static double toUniform(long x) {
+        return ((x >>> 11) + 0.5) * NORMALIZE;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,109 @@
+package calculator.utility;
+
+import java.util.Arrays;
+
+/**
+ * @author liangcy
+ * 蒙特卡洛模拟的时间网格: 路径第i个点对应的时间为getTime(i), 第0个点为当前时刻, 最后一个点为到期日;
+ * 等间距网格与MonteCarlo.getTimePoints相同; 期权声明观察时间时, 网格只包含观察时间和到期日,
+ * 两个时间点之间按几何布朗运动精确抽样;
+ */
+public class TimeGrid {
+    /**
+     * 相差小于该值的时间点视为同一个点
+     */
+    private static final double TIME_TOLERANCE = 1e-10;
+
+    private final double[] timePoints;
+    private final double[] steps;
+
+    private TimeGrid(double[] timePoints, double[] steps) {
+        this.timePoints = timePoints;
+        this.steps = steps;
+    }
+
+    /**
+     * @param t     剩余期限
+     * @param nodes 时间步数
+     * @return 等间距网格, 每步的长度都是t / nodes
+     */
+    public static TimeGrid uniform(double t, int nodes) {
+        double[] timePoints = new double[nodes + 1];
+        double[] steps = new double[nodes];
+        double deltaT = t / nodes;
+        for (int i = 0; i <= nodes; i++) {
+            timePoints[i] = t * i / nodes;
+        }
+        Arrays.fill(steps, deltaT);
+        return new TimeGrid(timePoints, steps);
+    }
+
+    /**
+     * @param t            剩余期限
+     * @param observeTimes 观察时间, 不要求有序, 不在(0, t)内的时间和重复的时间(相差小于TIME_TOLERANCE)会被去掉
+     * @return 由观察时间和到期日组成的网格
+     */
+    public static TimeGrid of(double t, double[] observeTimes) {
+        double[] sorted = observeTimes.clone();
+        Arrays.sort(sorted);
+        double[] timePoints = new double[sorted.length + 2];
+        int n = 0;
+        for (double time : sorted) {
+            if (time > timePoints[n] + TIME_TOLERANCE && time < t - TIME_TOLERANCE) {
+                n = n + 1;
+                timePoints[n] = time;
+            }
+        }
+        n = n + 1;
+        timePoints[n] = t;
+        return fromTimePoints(Arrays.copyOf(timePoints, n + 1));
+    }
+
+    private static TimeGrid fromTimePoints(double[] timePoints) {
+        double[] steps = new double[timePoints.length - 1];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = timePoints[i + 1] - timePoints[i];
+        }
+        return new TimeGrid(timePoints, steps);
+    }
+
+    /**
+     * @return 两个网格时间点的并集, 到期日以当前网格为准
+     */
+    public TimeGrid merge(TimeGrid other) {
+        double t = timePoints[timePoints.length - 1];
+        double[] union = new double[timePoints.length + other.timePoints.length];
+        System.arraycopy(timePoints, 0, union, 0, timePoints.length);
+        System.arraycopy(other.timePoints, 0, union, timePoints.length, other.timePoints.length);
+        return of(t, union);
+    }
+
+    /**
+     * @return 时间步数, 路径长度为getNodes() + 1
+     */
+    public int getNodes() {
+        return steps.length;
+    }
+
+    public double getTime(int index) {
+        return timePoints[index];
+    }
+
+    /**
+     * @return 第index步(从第index个点到第index+1个点)的时间长度
+     */
+    public double getStep(int index) {
+        return steps[index];
+    }
+
+    /**
+     * @return 路径上每个点对应的时间, 不要修改返回的数组
+     */
+    public double[] getTimePoints() {
+        return timePoints;
+    }
+
+    public double getTimeRemaining() {
+        return timePoints[timePoints.length - 1];
+    }
+}
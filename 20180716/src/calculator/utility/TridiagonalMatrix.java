@@ -0,0 +1,167 @@
+package calculator.utility;
+
+import java.io.Serializable;
+
+/**
+ * @author liangcy
+ * 三对角矩阵, 形如[[b0,c0,0,...,0],[a1,b1,c1,...,0],...,[0,...,0,an,bn]], a0和cn不使用;
+ * 创建时做一次LU分解(Thomas算法的消元部分), 之后每次求解只需O(n)次乘加, 不生成稠密矩阵, 也不求逆;
+ * 不选主元, 要求矩阵对角占优(差分系数矩阵在步长合理时满足);
+ * 美式期权的线性互补问题 A * x >= rhs, x >= lowerBound, (A * x - rhs) * (x - lowerBound) = 0
+ * 可以用Brennan-Schwartz(直接法, 要求行权区域在价格的一端)或投影SOR(迭代法)求解;
+ */
+public class TridiagonalMatrix implements Serializable {
+    private final int size;
+    private final double[] a;
+    private final double[] b;
+    private final double[] c;
+    private final double[] lower;
+    private final double[] upper;
+    /**
+     * U的对角元的倒数
+     */
+    private final double[] inverseDiagonal;
+    private final boolean singular;
+    /**
+     * 从最后一行向上消元的分解(UL), Brennan-Schwartz行权区域在价格低的一端时使用, 第一次使用时计算
+     */
+    private double[] reverseMultiplier;
+    private double[] reverseInverseDiagonal;
+
+    /**
+     * @param a 下对角系数, a[j]是第j行第j-1列
+     * @param b 主对角系数
+     * @param c 上对角系数, c[j]是第j行第j+1列
+     */
+    public TridiagonalMatrix(double[] a, double[] b, double[] c) {
+        this.size = b.length;
+        this.a = a.clone();
+        this.b = b.clone();
+        this.c = c.clone();
+        this.lower = new double[size];
+        this.upper = new double[size];
+        this.inverseDiagonal = new double[size];
+        boolean isSingular = false;
+        double diagonal = b[0];
+        for (int j = 0; j < size; j++) {
+            if (j > 0) {
+                lower[j] = a[j] * inverseDiagonal[j - 1];
+                diagonal = b[j] - lower[j] * upper[j - 1];
+            }
+            if (diagonal == 0 || Double.isNaN(diagonal)) {
+                isSingular = true;
+            }
+            inverseDiagonal[j] = 1 / diagonal;
+            upper[j] = j < size - 1 ? c[j] : 0;
+        }
+        this.singular = isSingular;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return 消元时出现0主元, 此时solve的结果为NaN或Infinity
+     */
+    public boolean isSingular() {
+        return singular;
+    }
+
+    /**
+     * 求解 A * x = rhs, rhs和x可以是同一个数组
+     *
+     * @param rhs 右端项
+     * @param x   保存结果
+     */
+    public void solve(double[] rhs, double[] x) {
+        //L * y = rhs
+        x[0] = rhs[0];
+        for (int j = 1; j < size; j++) {
+            x[j] = rhs[j] - lower[j] * x[j - 1];
+        }
+        //U * x = y
+        x[size - 1] = x[size - 1] * inverseDiagonal[size - 1];
+        for (int j = size - 2; j >= 0; j--) {
+            x[j] = (x[j] - upper[j] * x[j + 1]) * inverseDiagonal[j];
+        }
+    }
+
+    /**
+     * Brennan-Schwartz: 消元从不行权的一端开始, 回代从行权的一端开始, 回代时逐点与lowerBound取最大值,
+     * 行权区域的结果作为继续持有区域的边界条件代入; 要求行权区域在价格的一端;
+     * 行权区域是价格低的一端(看跌)时用UL分解从第一行向后回代,
+     * 行权区域是价格高的一端(看涨)时用LU分解从最后一行向前回代; rhs和x可以是同一个数组;
+     *
+     * @param lowerBound      行权价值
+     * @param isExerciseUpper 行权区域是否在价格高的一端
+     */
+    public void solveBrennanSchwartz(double[] rhs, double[] x, double[] lowerBound, boolean isExerciseUpper) {
+        if (isExerciseUpper) {
+            x[0] = rhs[0];
+            for (int j = 1; j < size; j++) {
+                x[j] = rhs[j] - lower[j] * x[j - 1];
+            }
+            x[size - 1] = Math.max(x[size - 1] * inverseDiagonal[size - 1], lowerBound[size - 1]);
+            for (int j = size - 2; j >= 0; j--) {
+                x[j] = Math.max((x[j] - upper[j] * x[j + 1]) * inverseDiagonal[j], lowerBound[j]);
+            }
+            return;
+        }
+        if (reverseMultiplier == null) {
+            factorReverse();
+        }
+        x[size - 1] = rhs[size - 1];
+        for (int j = size - 2; j >= 0; j--) {
+            x[j] = rhs[j] - reverseMultiplier[j] * x[j + 1];
+        }
+        x[0] = Math.max(x[0] * reverseInverseDiagonal[0], lowerBound[0]);
+        for (int j = 1; j < size; j++) {
+            x[j] = Math.max((x[j] - a[j] * x[j - 1]) * reverseInverseDiagonal[j], lowerBound[j]);
+        }
+    }
+
+    private void factorReverse() {
+        double[] multiplier = new double[size];
+        double[] inverse = new double[size];
+        inverse[size - 1] = 1 / b[size - 1];
+        for (int j = size - 2; j >= 0; j--) {
+            multiplier[j] = c[j] * inverse[j + 1];
+            inverse[j] = 1 / (b[j] - multiplier[j] * a[j + 1]);
+        }
+        this.reverseMultiplier = multiplier;
+        this.reverseInverseDiagonal = inverse;
+    }
+
+    /**
+     * 投影SOR: 按Gauss-Seidel的顺序逐点松弛, 每点与lowerBound取最大值;
+     * 迭代的初始值为x中原有的值(一般是上一个时间点的结果), rhs和x不能是同一个数组;
+     *
+     * @param omega         松弛因子, 在(0, 2)之间
+     * @param tolerance     一次迭代中x的最大变化小于该值时停止
+     * @param maxIterations 最大迭代次数
+     * @return 迭代次数, 达到最大迭代次数仍未收敛时返回-1
+     */
+    public int solveProjectedSor(double[] rhs, double[] x, double[] lowerBound, double omega, double tolerance,
+                                 int maxIterations) {
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            double maxChange = 0;
+            for (int j = 0; j < size; j++) {
+                double residual = rhs[j] - b[j] * x[j];
+                if (j > 0) {
+                    residual = residual - a[j] * x[j - 1];
+                }
+                if (j < size - 1) {
+                    residual = residual - c[j] * x[j + 1];
+                }
+                double value = Math.max(x[j] + omega * residual / b[j], lowerBound[j]);
+                maxChange = Math.max(maxChange, Math.abs(value - x[j]));
+                x[j] = value;
+            }
+            if (maxChange < tolerance) {
+                return iteration;
+            }
+        }
+        return -1;
+    }
+}
@@ -2,11 +2,11 @@ package option;
 
 import calculator.utility.CalculateUtil;
 import calculator.utility.NewtonIterationParams;
-import flanagan.math.DeepCopy;
 import flanagan.roots.RealRoot;
 import flanagan.roots.RealRootDerivFunction;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 class BsCalculator {
     private AmericanOption option;
@@ -264,12 +264,59 @@ class BawCalculator implements RealRootDerivFunction {
  * @author liangcy
  */
 public class AmericanOption extends BaseSingleOption implements Serializable {
+    /**
+     * 可以行权的时间(百慕大期权), 为null时可以在任意时间行权;
+     * 对蒙特卡洛和有限差分法有效, 解析解按美式期权计算;
+     */
+    private double[] exerciseTimePoints;
+
+    public double[] getExerciseTimePoints() {
+        return exerciseTimePoints;
+    }
+
+    public void setExerciseTimePoints(double[] exerciseTimePoints) {
+        this.exerciseTimePoints = exerciseTimePoints;
+    }
 
     @Override
     public boolean isEarlyExercise() {
         return true;
     }
 
+    /**
+     * 用最小二乘蒙特卡洛计算, 见SingleOptionMonteCarloCalculator
+     */
+    @Override
+    public boolean hasMonteCarloMethod() {
+        return true;
+    }
+
+    /**
+     * 百慕大期权只模拟行权时间和到期日, 美式期权在等间距网格上模拟, 每个点都可以行权
+     */
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        return exerciseTimePoints;
+    }
+
+    @Override
+    public double[] getMonteCarloExerciseTimes() {
+        return exerciseTimePoints;
+    }
+
+    @Override
+    public double[] getFiniteDifferenceExerciseTimes() {
+        return exerciseTimePoints;
+    }
+
+    /**
+     * 不提前行权时的收益
+     */
+    @Override
+    public double monteCarloPrice(double[] pricePath) {
+        return vanillaMonteCarloPrice(pricePath);
+    }
+
 
     /**
      * 其实这里是baw模型
@@ -296,6 +343,18 @@ public class AmericanOption extends BaseSingleOption implements Serializable {
         return optionPrice;
     }
 
+    @Override
+    public PricingModel getPricingModel(String methodName) {
+        switch (methodName) {
+            case OPTION_METHOD_BAW:
+                return option -> ((AmericanOption) option).baw();
+            case OPTION_METHOD_BS:
+                return option -> ((AmericanOption) option).bs();
+            default:
+                return super.getPricingModel(methodName);
+        }
+    }
+
     /**
      * @reference Barone-Adesi and Whaley 1987
      * @return price
@@ -335,8 +394,8 @@ public class AmericanOption extends BaseSingleOption implements Serializable {
     }
 
     private AmericanOption callPutTransform() {
-        //DeepCopy保证下面set的时候不会改变源对象的值, 一定要确保class下面每个对象都实现了Serializable接口;
-        AmericanOption option = (AmericanOption) DeepCopy.copy(this);
+        //copy复制了标的和期权参数, 下面set的时候不会改变源对象的值;
+        AmericanOption option = (AmericanOption) copy();
         option.swapSpotStrike();
         option.swapRQ();
         option.swapCallPut();
@@ -347,7 +406,8 @@ public class AmericanOption extends BaseSingleOption implements Serializable {
     @Override
     public String toString() {
         return "AmericanOption{" +
-                "underlying=" + getUnderlying() +
+                "exerciseTimePoints=" + Arrays.toString(exerciseTimePoints) +
+                ", underlying=" + getUnderlying() +
                 ", vanillaOptionParams=" + getVanillaOptionParams() +
                 ", volatilitySurface=" + getVolatilitySurface() +
                 '}';
@@ -3,8 +3,6 @@ package option;
 import calculator.utility.CalculateUtil;
 import calculator.utility.MonteCarlo;
 import flanagan.analysis.Stat;
-import flanagan.interpolation.LinearInterpolation;
-import flanagan.math.DeepCopy;
 import flanagan.math.Maximisation;
 import flanagan.math.MaximisationFunction;
 import underlying.gbm.Future;
@@ -215,7 +213,7 @@ public class AsianOption extends BaseSingleOption implements Serializable {
         double m = m2() / (m1() * m1());
         double aVol = m <= 1 ? vol / Math.sqrt(3.0) : Math.sqrt(Math.log(m) / t);
 
-        VanillaOptionParams newVanillaOptionParams = (VanillaOptionParams) DeepCopy.copy(getVanillaOptionParams());
+        VanillaOptionParams newVanillaOptionParams = getVanillaOptionParams().copy();
         newVanillaOptionParams.setStrikePrice(k);
         newVanillaOptionParams.setVolatility(aVol);
         EuropeanOption europeanOption = new EuropeanOption();
@@ -224,6 +222,14 @@ public class AsianOption extends BaseSingleOption implements Serializable {
         return europeanOption.bsm() * multi();
     }
 
+    @Override
+    public PricingModel getPricingModel(String methodName) {
+        if (OPTION_METHOD_CURRAN.equals(methodName)) {
+            return option -> ((AsianOption) option).curran();
+        }
+        return super.getPricingModel(methodName);
+    }
+
     /**
      * curran 1992;
      *
@@ -247,20 +253,41 @@ public class AsianOption extends BaseSingleOption implements Serializable {
     }
 
     /**
-     * 蒙特卡洛模拟路径的时间点可能和实际观察时间点不匹配, 利用线性插值取得观察时间点的价格;
+     * 观察时间在路径上对应的点: 取时间最近的点, 按观察时间模拟时正好是观察时间;
+     * 超出路径时间范围的观察时间取端点;
      *
-     * @param pricePath 蒙特卡洛模拟路径
-     * @return 计算蒙特卡洛模拟underlying price均值
+     * @param timePoints  路径上每个点对应的时间
+     * @param observeTime 观察时间
+     * @return 路径上的序号
+     */
+    private static int fixingIndex(double[] timePoints, double observeTime) {
+        int index = Arrays.binarySearch(timePoints, observeTime);
+        if (index >= 0) {
+            return index;
+        }
+        int upper = -index - 1;
+        if (upper == 0) {
+            return 0;
+        }
+        if (upper == timePoints.length) {
+            return timePoints.length - 1;
+        }
+        return observeTime - timePoints[upper - 1] <= timePoints[upper] - observeTime ? upper - 1 : upper;
+    }
+
+    /**
+     * @param pricePath  蒙特卡洛模拟路径
+     * @param timePoints 路径上每个点对应的时间
+     * @return 计算蒙特卡洛模拟underlying price均值, 按过去的均价和剩余期限加权
      */
-    private double calculateAvgPriceWithMonteCarloPath(double[] pricePath) {
+    private double calculateAvgPriceWithMonteCarloPath(double[] pricePath, double[] timePoints) {
         double t = getVanillaOptionParams().getTimeRemaining();
-        double[] monteCarloTimePoints = MonteCarlo.getTimePoints(t, pricePath);
-        LinearInterpolation interpolation = new LinearInterpolation(monteCarloTimePoints, pricePath);
-        double[] futurePrice = new double[observeTimePoints.length];
-        for (int i = 0; i < observeTimePoints.length; i++) {
-            futurePrice[i] = interpolation.interpolate(observeTimePoints[i]);
+        double sum = 0.0;
+        for (double observeTimePoint : observeTimePoints) {
+            sum = sum + pricePath[fixingIndex(timePoints, observeTimePoint)];
         }
-        return (pastAvgPrice * pastTime + Stat.mean(futurePrice) * t) / (pastTime + t);
+        double avgFuturePrice = sum / observeTimePoints.length;
+        return (pastAvgPrice * pastTime + avgFuturePrice * t) / (pastTime + t);
     }
 
     @Override
@@ -268,9 +295,26 @@ public class AsianOption extends BaseSingleOption implements Serializable {
         return true;
     }
 
+    /**
+     * 均价只用观察时间的价格, 几何布朗运动只模拟观察时间和到期日
+     */
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        return observeTimePoints.clone();
+    }
+
     @Override
     public double monteCarloPrice(double[] pricePath) {
-        double sAvg = calculateAvgPriceWithMonteCarloPath(pricePath);
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return monteCarloPrice(pricePath, MonteCarlo.getTimePoints(t, pricePath));
+    }
+
+    /**
+     * 观察时间的价格直接从路径上取(见fixingIndex), 不做插值
+     */
+    @Override
+    public double monteCarloPrice(double[] pricePath, double[] timePoints) {
+        double sAvg = calculateAvgPriceWithMonteCarloPath(pricePath, timePoints);
         //这里的strike不用转换
         double k = getVanillaOptionParams().getStrikePrice();
         if (getVanillaOptionParams().isOptionTypeCall()) {
@@ -280,7 +324,106 @@ public class AsianOption extends BaseSingleOption implements Serializable {
         }
     }
 
+    @Override
+    public boolean hasMonteCarloPathwiseMethod() {
+        return true;
+    }
 
+    @Override
+    public double monteCarloPathwiseGradient(double[] pricePath, double[] gradient) {
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return monteCarloPathwiseGradient(pricePath, MonteCarlo.getTimePoints(t, pricePath), gradient);
+    }
+
+    /**
+     * 实值时, 均价对每个观察点价格的偏导数都是 1 / 观察次数(再乘以剩余期限的权重);
+     */
+    @Override
+    public double monteCarloPathwiseGradient(double[] pricePath, double[] timePoints, double[] gradient) {
+        Arrays.fill(gradient, 0);
+        double payoff = monteCarloPrice(pricePath, timePoints);
+        if (payoff <= 0) {
+            return payoff;
+        }
+        double t = getVanillaOptionParams().getTimeRemaining();
+        double multiplier = getVanillaOptionParams().indexOfOptionType() * getDiscountValueByRiskFreeRate() *
+                t / (pastTime + t) / observeTimePoints.length;
+        for (double observeTimePoint : observeTimePoints) {
+            int index = fixingIndex(timePoints, observeTimePoint);
+            gradient[index] = gradient[index] + multiplier;
+        }
+        return payoff;
+    }
+
+    /**
+     * 用离散几何平均亚式期权做控制变量, 观察点与收益相同(见fixingIndex), 这样解析解是精确的;
+     * 与算术平均相同, 几何平均也按过去的均价和剩余期限加权, 所以执行价用transformStrike;
+     */
+    @Override
+    public boolean hasControlVariate() {
+        return true;
+    }
+
+    @Override
+    public double monteCarloControlVariate(double[] pricePath) {
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return monteCarloControlVariate(pricePath, MonteCarlo.getTimePoints(t, pricePath));
+    }
+
+    @Override
+    public double monteCarloControlVariate(double[] pricePath, double[] timePoints) {
+        double sumOfLog = 0.0;
+        for (double observeTimePoint : observeTimePoints) {
+            sumOfLog = sumOfLog + Math.log(pricePath[fixingIndex(timePoints, observeTimePoint)]);
+        }
+        double geometricAvg = Math.exp(sumOfLog / observeTimePoints.length);
+        int index = getVanillaOptionParams().indexOfOptionType();
+        return multi() * getDiscountValueByRiskFreeRate() * Math.max(index * (geometricAvg - transformStrike()), 0);
+    }
+
+    @Override
+    public double controlVariatePrice(int nodes) {
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return controlVariatePrice(MonteCarlo.getTimePoints(t, new double[nodes + 1]));
+    }
+
+    /**
+     * ln(G) ~ N(mu, volG^2), mu = ln(S) + (r - q - vol^2 / 2) * mean(t_i),
+     * volG^2 = vol^2 / m^2 * sum(min(t_i, t_j))
+     */
+    @Override
+    public double controlVariatePrice(double[] timePoints) {
+        double vol = getVanillaOptionParams().getVolatility();
+        double s = getUnderlying().getSpotPrice();
+        double r = getUnderlying().getRiskFreeRate();
+        double q = getUnderlying().getDividendRate();
+        int m = observeTimePoints.length;
+        double[] nodeTimePoints = new double[m];
+        for (int i = 0; i < m; i++) {
+            nodeTimePoints[i] = timePoints[fixingIndex(timePoints, observeTimePoints[i])];
+        }
+        Arrays.sort(nodeTimePoints);
+        double sumOfTime = 0.0;
+        double sumOfMinTime = 0.0;
+        for (int i = 0; i < m; i++) {
+            sumOfTime = sumOfTime + nodeTimePoints[i];
+            sumOfMinTime = sumOfMinTime + nodeTimePoints[i] * (2 * (m - i) - 1);
+        }
+        double mu = Math.log(s) + (r - q - vol * vol / 2) * sumOfTime / m;
+        double volG = vol * Math.sqrt(sumOfMinTime) / m;
+        double forward = Math.exp(mu + volG * volG / 2);
+        double k = transformStrike();
+        int index = getVanillaOptionParams().indexOfOptionType();
+        double price;
+        if (k <= 0 || volG <= 0) {
+            price = Math.max(index * (forward - k), 0);
+        } else {
+            double d1 = (mu - Math.log(k) + volG * volG) / volG;
+            double d2 = d1 - volG;
+            price = index * (forward * CalculateUtil.normalCDF(index * d1) - k * CalculateUtil.normalCDF(index * d2));
+        }
+        return multi() * getDiscountValueByRiskFreeRate() * price;
+    }
 
     @Override
     public boolean isValid() {
@@ -18,6 +18,14 @@ public class AutocallOption extends BaseSingleOption{
     private double discountRate = 0;
     private double refundRate = 0;
     private int tradingDays;
+    /**
+     * 敲入价的观察方式, 默认离散观察; 连续观察时蒙特卡洛用布朗桥修正;
+     */
+    private String knockInMonitoringType = MONITORING_TYPE_DISCRETE;
+    /**
+     * 离散观察敲入价的间隔交易日数, 观察日为 i * knockInMonitoringInterval; 为0时在蒙特卡洛路径的每个点上观察;
+     */
+    private int knockInMonitoringInterval = 0;
 
     public double getKnockInPrice() {
         return knockInPrice;
@@ -99,67 +107,146 @@ public class AutocallOption extends BaseSingleOption{
         this.tradingDays = tradingDays;
     }
 
+    public String getKnockInMonitoringType() {
+        return knockInMonitoringType;
+    }
+
+    public void setKnockInMonitoringType(String knockInMonitoringType) {
+        this.knockInMonitoringType = knockInMonitoringType;
+    }
+
+    public int getKnockInMonitoringInterval() {
+        return knockInMonitoringInterval;
+    }
+
+    public void setKnockInMonitoringInterval(int knockInMonitoringInterval) {
+        this.knockInMonitoringInterval = knockInMonitoringInterval;
+    }
+
+    private boolean isContinuousKnockIn() {
+        return MONITORING_TYPE_CONTINUOUS.equals(knockInMonitoringType);
+    }
+
+    /**
+     * @return 离散观察敲入价的频率(每年观察次数), 为0时每个点都观察
+     */
+    private double knockInMonitoringFrequency() {
+        return knockInMonitoringInterval > 0 ? tradingDays * 1.0 / knockInMonitoringInterval : 0;
+    }
+
     @Override
     public boolean hasMonteCarloMethod() {
         return true;
     }
 
-    private double[] formatToAnnualDays() {
-        double[] annualDays = new double[observeDays.length];
+    /**
+     * 敲出只在观察日判断; 敲入连续观察时用布朗桥修正, 只需要模拟观察日和到期日;
+     * 敲入离散观察时还要模拟敲入的观察日, 间隔为0时在等间距网格上模拟;
+     */
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        double[] knockInTimes = isContinuousKnockIn() ? new double[0] : BarrierOptionParams.discreteMonitoringTimes(
+                getVanillaOptionParams().getTimeRemaining(), knockInMonitoringFrequency());
+        if (knockInTimes == null) {
+            return null;
+        }
+        double[] observeTimes = new double[observeDays.length + knockInTimes.length];
         for (int i = 0; i < observeDays.length; i++) {
-            annualDays[i] = observeDays[i] * 1.0 / tradingDays;
+            observeTimes[i] = observeDays[i] * 1.0 / tradingDays;
         }
-        return annualDays;
+        System.arraycopy(knockInTimes, 0, observeTimes, observeDays.length, knockInTimes.length);
+        return observeTimes;
     }
 
     @Override
     public double monteCarloPrice(double[] pricePath) {
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return monteCarloPrice(pricePath, MonteCarlo.getTimePoints(t, pricePath));
+    }
+
+    /**
+     * 敲出在观察日判断; 敲入价离散观察时在敲入的观察点上判断是否敲入;
+     * 连续观察时敲入价视为向下障碍, 每一步用布朗桥计算穿过敲入价的概率,
+     * 未敲出时收益取该路径下的条件期望: 未敲入的概率 * 全额票息 + 敲入的概率 * 敲入后的收益;
+     * 布朗桥用期权的波动率;
+     */
+    @Override
+    public double monteCarloPrice(double[] pricePath, double[] timePoints) {
         int n = pricePath.length;
-        int knockOutFlag = 0;
-        int knockInFlag = 0;
-        double payOff = 0;
-        double couponPaidTime = 0;
+        boolean isContinuous = isContinuousKnockIn();
+        double variance = getVanillaOptionParams().getVolatility() * getVanillaOptionParams().getVolatility();
         double k = knockOutPrice;
-        double[] timePoints = MonteCarlo.getTimePoints(getVanillaOptionParams().getTimeRemaining(), pricePath);
-        for(int i = 0; i < n; i++) {
-            if(knockOutFlag == 0) {
-                if(pricePath[i] < knockInPrice) {
-                    knockInFlag = 1;
-                }
-
-                if(isKnockOutDay(timePoints[i], formatToAnnualDays())) {
-                    if(pricePath[i] > k) {
-                        couponPaidTime = timePoints[i] * tradingDays;
-                        knockOutFlag = 1;
-                    } else {
-                        k = k - refPrice * decayRate;
-                    }
+        double notKnockInProbability = pricePath[0] < knockInPrice ? 0 : 1;
+        double distance0 = Math.log(knockInPrice / pricePath[0]);
+        double couponPaidTime = 0;
+        boolean isKnockOut = false;
+        for (int i = 0; i < n; i++) {
+            if (isContinuous && i > 0 && notKnockInProbability > 0) {
+                double distance1 = Math.log(knockInPrice / pricePath[i]);
+                double p = MonteCarlo.barrierCrossingProbability(distance0, distance1,
+                        variance * (timePoints[i] - timePoints[i - 1]));
+                notKnockInProbability = notKnockInProbability * (1 - p);
+                distance0 = distance1;
+            }
+            double timePoint = timePoints[i];
+            if (isKnockOutDay(timePoint)) {
+                if (pricePath[i] > k) {
+                    couponPaidTime = timePoint * tradingDays;
+                    isKnockOut = true;
+                    break;
+                } else {
+                    k = k - refPrice * decayRate;
                 }
             }
         }
 
-        if(knockOutFlag != 0) {
-            payOff = couponRate * couponPaidTime / tradingDays;
-        } else if(knockInFlag == 0) {
-            couponPaidTime = observeDays[observeDays.length - 1];
+        double payOff;
+        if (isKnockOut) {
             payOff = couponRate * couponPaidTime / tradingDays;
         } else {
+            if (!isContinuous) {
+                int knockInIndex = BarrierOptionParams.firstDiscreteHitIndex(timePoints,
+                        knockInMonitoringFrequency(), i -> pricePath[i] < knockInPrice);
+                notKnockInProbability = knockInIndex < 0 ? 1 : 0;
+            }
             couponPaidTime = observeDays[observeDays.length - 1];
-            payOff = Math.max(floor - 1, Math.min(0, pricePath[n - 1] / refPrice - 1));
+            double fullCoupon = couponRate * couponPaidTime / tradingDays;
+            double knockInPayOff = Math.max(floor - 1, Math.min(0, pricePath[n - 1] / refPrice - 1));
+            payOff = notKnockInProbability * fullCoupon + (1 - notKnockInProbability) * knockInPayOff;
         }
 
-
         payOff = payOff - refundRate * couponPaidTime / tradingDays;
 
         payOff = payOff * Math.exp(-discountRate * couponPaidTime / tradingDays);
-        System.out.println(payOff);
         return payOff;
     }
 
-    private boolean isKnockOutDay(double day, double[] observeDays) {
+    /**
+     * 用执行价为refPrice的欧式看跌期权(除以refPrice)做控制变量, 对应敲入后的亏损部分
+     */
+    @Override
+    public boolean hasControlVariate() {
+        return true;
+    }
+
+    @Override
+    public double monteCarloControlVariate(double[] pricePath) {
+        double st = pricePath[pricePath.length - 1];
+        return getDiscountValueByRiskFreeRate() * Math.max(refPrice - st, 0) / refPrice;
+    }
+
+    @Override
+    public double controlVariatePrice(int nodes) {
+        EuropeanOption put = new EuropeanOption(this);
+        put.getVanillaOptionParams().setStrikePrice(refPrice);
+        put.getVanillaOptionParams().setOptionType(OPTION_TYPE_PUT);
+        return put.bsm() / refPrice;
+    }
+
+    private boolean isKnockOutDay(double day) {
         double eps = 1.0 / tradingDays;
-        for (double observeDay : observeDays) {
-            if(Math.abs(day - observeDay) < eps) {
+        for (int observeDay : observeDays) {
+            if(Math.abs(day - observeDay * 1.0 / tradingDays) < eps) {
                 return true;
             }
         }
@@ -4,7 +4,12 @@ import calculator.utility.CalculateUtil;
 import calculator.utility.MonteCarlo;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
+/**
+ * Reiner & Rubinstein (1991), 见Haug (2007) 4.17.1; 只计算敲入期权(没有回扣), 敲出期权用平价公式;
+ * 用期权的波动率, phi: 看涨为1, 看跌为-1; eta: 向下为1, 向上为-1;
+ */
 class BarrierCalculator {
     private BarrierOption option;
 
@@ -12,124 +17,63 @@ class BarrierCalculator {
         this.option = option;
     }
 
-    private double sigmaT(double vol) {
-        return vol * Math.sqrt(option.getVanillaOptionParams().getTimeRemaining());
-    }
-
-    private double c1() {
-        double h = option.getBarrierOptionParams().getBarrierPrice();
-        double s = option.getUnderlying().getSpotPrice();
-        double a = 2 * option.getCostOfCarry() / (option.volAtBarrier() * option.volAtBarrier()) - 1;
-        return Math.pow(h / s, a);
-    }
-
-    private double c2() {
-        double h = option.getBarrierOptionParams().getBarrierPrice();
-        double s = option.getUnderlying().getSpotPrice();
-        double a = 2 * option.getVanillaOptionParams().getVolatility() / option.volAtBarrier();
-        return c1() * Math.pow(h / s, a);
-    }
-
-    private double d1() {
-        return option.europeanD1();
-    }
-
-    private double d2() {
-        return option.europeanD2();
-    }
-
-    private double d3() {
-        double h = option.getBarrierOptionParams().getBarrierPrice();
-        double s = option.getUnderlying().getSpotPrice();
-        return d1() + 2 * Math.log(h / s) / (sigmaT(option.volAtBarrier()));
-    }
-
-    private double d4() {
-        double h = option.getBarrierOptionParams().getBarrierPrice();
-        double s = option.getUnderlying().getSpotPrice();
-        return d2() + 2 * Math.log(h / s) / (sigmaT(option.volAtBarrier()));
+    private double sigmaT() {
+        return option.getVanillaOptionParams().getVolatility() *
+                Math.sqrt(option.getVanillaOptionParams().getTimeRemaining());
     }
 
-    private double e1() {
+    private double mu() {
         double vol = option.getVanillaOptionParams().getVolatility();
-        return e2() - sigmaT(vol);
+        return option.getCostOfCarry() / (vol * vol) - 0.5;
     }
 
-    private double e2() {
-        EuropeanOption europeanOption = new EuropeanOption(option);
-        europeanOption.getVanillaOptionParams().setStrikePrice(option.getBarrierOptionParams().getBarrierPrice());
-        europeanOption.getVanillaOptionParams().setVolatility(option.volAtBarrier());
-        return -europeanOption.europeanD2();
+    private double hOverS() {
+        return option.getBarrierOptionParams().getBarrierPrice() / option.getUnderlying().getSpotPrice();
     }
 
-    private double e3() {
-        double vol = option.getVanillaOptionParams().getVolatility();
-        return e4() - sigmaT(vol);
+    private int phi() {
+        return option.getVanillaOptionParams().indexOfOptionType();
     }
 
-    private double e4() {
-        EuropeanOption europeanOption = new EuropeanOption(option);
-        europeanOption.getVanillaOptionParams().setStrikePrice(option.getBarrierOptionParams().getBarrierPrice());
-        europeanOption.getVanillaOptionParams().setVolatility(option.volAtBarrier());
-        europeanOption.swapSpotStrike();
-        return -europeanOption.europeanD2();
+    private int eta() {
+        return option.getBarrierOptionParams().isUp() ? -1 : 1;
     }
 
     /**
-     * @return (d1 + e1 < 0 && call) || (d1 + e1 > 0 && put)
+     * @param x 标准化的对数价格, 例如 ln(S / K) / sigmaT + (1 + mu) * sigmaT
+     * @param sign 正态分布函数的方向, phi或eta
+     * @param reflection 反射项的乘数, 标的部分为(H / S)^(2 * (mu + 1)), 执行价部分为(H / S)^(2 * mu)
      */
-    private boolean useShortExpression() {
-        return (d1() + e1() < 0) == (option.getVanillaOptionParams().isOptionTypeCall());
-    }
-
-    int index() {
-        return useShortExpression() ? 1 : 0;
-    }
-
-    private double getNewSpotPrice() {
-        return option.getVanillaOptionParams().indexOfOptionType() *
-                option.getDiscountValueByDividendRate() *
-                option.getUnderlying().getSpotPrice();
-    }
-
-    private double getNewStrike() {
-        return option.getVanillaOptionParams().indexOfOptionType() *
-                option.getDiscountValueByRiskFreeRate() *
-                option.getVanillaOptionParams().getStrikePrice();
-    }
-
-    private double getNormalCDFMin(double d, double e) {
-        int phi = option.getVanillaOptionParams().indexOfOptionType();
-        return CalculateUtil.normalCDF(Math.min(phi * d, phi * e));
-    }
-
-    private double getNormalCDFMinus(double d, double e) {
-        int phi = option.getVanillaOptionParams().indexOfOptionType();
-        return CalculateUtil.normalCDF(phi * d) - CalculateUtil.normalCDF(phi * e);
+    private double term(double x, int sign, boolean reflection) {
+        double s = option.getUnderlying().getSpotPrice();
+        double k = option.getVanillaOptionParams().getStrikePrice();
+        double spotMulti = reflection ? Math.pow(hOverS(), 2 * (mu() + 1)) : 1;
+        double strikeMulti = reflection ? Math.pow(hOverS(), 2 * mu()) : 1;
+        return phi() * s * option.getDiscountValueByDividendRate() * spotMulti *
+                CalculateUtil.normalCDF(sign * x) -
+                phi() * k * option.getDiscountValueByRiskFreeRate() * strikeMulti *
+                        CalculateUtil.normalCDF(sign * (x - sigmaT()));
     }
 
     double a() {
-        double part1 = getNewSpotPrice() * getNormalCDFMin(d1(), -e1());
-        double part2 = getNewStrike() * getNormalCDFMin(d2(), -e2());
-        return part1 - part2;
+        double s = option.getUnderlying().getSpotPrice();
+        double k = option.getVanillaOptionParams().getStrikePrice();
+        return term(Math.log(s / k) / sigmaT() + (1 + mu()) * sigmaT(), phi(), false);
     }
 
     double b() {
-        double part1 = getNewSpotPrice() * getNormalCDFMinus(d1(), -e1());
-        double part2 = getNewStrike() * getNormalCDFMinus(d2(), -e2());
-        return part1 - part2;
+        return term(-Math.log(hOverS()) / sigmaT() + (1 + mu()) * sigmaT(), phi(), false);
     }
 
     double c() {
-        double part1 = getNewSpotPrice() * c2() * getNormalCDFMin(d3(), -e3());
-        double part2 = getNewStrike() * c1() * getNormalCDFMin(d4(), -e4());
-        return part1 - part2;
+        double s = option.getUnderlying().getSpotPrice();
+        double k = option.getVanillaOptionParams().getStrikePrice();
+        double h = option.getBarrierOptionParams().getBarrierPrice();
+        return term(Math.log(h * h / (s * k)) / sigmaT() + (1 + mu()) * sigmaT(), eta(), true);
     }
 
     double d() {
-        double part1 = getNewSpotPrice() * c2() * getNormalCDFMinus(d3(), -e3());
-        double part2 = getNewStrike() * c1() * getNormalCDFMinus(d4(), -e4());
-        return part1 - part2;
+        return term(Math.log(hOverS()) / sigmaT() + (1 + mu()) * sigmaT(), eta(), true);
     }
 }
 
@@ -169,34 +113,123 @@ public class BarrierOption extends BaseSingleOption implements Serializable {
         return true;
     }
 
+    /**
+     * 离散观察时模拟观察时间(见BarrierOptionParams.getMonitoringTimes);
+     * 连续观察时敲入期权和没有回扣的敲出期权只需要到期价格, 障碍由布朗桥修正;
+     * 有回扣的敲出期权回扣在敲出时支付, 需要等间距网格确定敲出时间;
+     */
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        if (getBarrierOptionParams().isContinuousMonitoring() && !getBarrierOptionParams().isIn() && rebate != 0) {
+            return null;
+        }
+        return getBarrierOptionParams().getMonitoringTimes(getVanillaOptionParams().getTimeRemaining());
+    }
+
     @Override
     public double monteCarloPrice(double[] pricePath) {
-        EuropeanOption option = new EuropeanOption(this);
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return monteCarloPrice(pricePath, MonteCarlo.getTimePoints(t, pricePath));
+    }
+
+    /**
+     * 离散观察时在观察点上判断是否触碰障碍; 连续观察时用布朗桥计算路径触碰障碍的概率, 收益取该路径下的条件期望:
+     * 敲入期权 = 敲入概率 * 欧式收益 + (1 - 敲入概率) * 到期支付的回扣;
+     * 敲出期权 = (1 - 敲出概率) * 欧式收益 + 敲出时支付的回扣的折现值;
+     * 布朗桥用期权的波动率;
+     */
+    @Override
+    public double monteCarloPrice(double[] pricePath, double[] timePoints) {
+        double vol = getVanillaOptionParams().getVolatility();
+        double hitProbability = getBarrierOptionParams().singleBarrierHitValue(pricePath, timePoints, vol, 0);
+        double vanillaPrice = vanillaMonteCarloPrice(pricePath);
         if (getBarrierOptionParams().isIn()) {
-            for (double price : pricePath) {
-                if (getBarrierOptionParams().isTouchSingleBarrier(price)) {
-                    return option.monteCarloPrice(pricePath);
-                }
-            }
-            return rebate * getDiscountValueByRiskFreeRate();
-        } else {
-            double[] timePoints = MonteCarlo.getTimePoints(getVanillaOptionParams().getTimeRemaining(), pricePath);
-            for (int i = 0; i < pricePath.length; i++) {
-                if (getBarrierOptionParams().isTouchSingleBarrier(pricePath[i])) {
-                    double r = getUnderlying().getRiskFreeRate();
-                    double hitTime = timePoints[i];
-                    return rebate * Math.exp(-r * hitTime);
-                }
+            return hitProbability * vanillaPrice + (1 - hitProbability) * rebate * getDiscountValueByRiskFreeRate();
+        }
+        double rebateValue = rebate == 0 ? 0 : rebate * getBarrierOptionParams().singleBarrierHitValue(pricePath,
+                timePoints, vol, getUnderlying().getRiskFreeRate());
+        return (1 - hitProbability) * vanillaPrice + rebateValue;
+    }
+
+    /**
+     * 用同参数的欧式期权做控制变量
+     */
+    @Override
+    public boolean hasControlVariate() {
+        return true;
+    }
+
+    @Override
+    public double monteCarloControlVariate(double[] pricePath) {
+        return vanillaMonteCarloPrice(pricePath);
+    }
+
+    @Override
+    public double controlVariatePrice(int nodes) {
+        return europeanVanillaPrice();
+    }
+
+    @Override
+    public boolean hasFiniteDifferenceMethod() {
+        return true;
+    }
+
+    /**
+     * 未触碰障碍时价格区域截断在障碍上:
+     * 敲出期权到期收益为普通期权收益, 障碍上为回扣(敲出时支付);
+     * 敲入期权到期收益为回扣(未敲入时到期支付), 障碍上为普通欧式期权的价格;
+     * 已触碰障碍时不截断, 敲入期权按普通期权计算, 敲出期权已支付的回扣按无风险利率计到到期日;
+     */
+    @Override
+    public double[] finiteDifferencePrice(double[] spotPrice) {
+        double k = getVanillaOptionParams().getStrikePrice();
+        int index = getVanillaOptionParams().indexOfOptionType();
+        boolean isInside = barrierOptionParams.isInsideSingleBarrier(getUnderlying().getSpotPrice());
+        double[] optionPrice = new double[spotPrice.length];
+        for (int i = 0; i < spotPrice.length; i++) {
+            double vanillaPrice = Math.max(0, (spotPrice[i] - k) * index);
+            boolean isHit = !isInside || !barrierOptionParams.isInsideSingleBarrier(spotPrice[i]);
+            if (barrierOptionParams.isIn()) {
+                optionPrice[i] = isHit ? vanillaPrice : rebate;
+            } else if (isInside) {
+                optionPrice[i] = isHit ? rebate : vanillaPrice;
+            } else {
+                optionPrice[i] = rebate / getDiscountValueByRiskFreeRate();
             }
-            return option.monteCarloPrice(pricePath);
         }
+        return optionPrice;
+    }
+
+    @Override
+    public double getFiniteDifferenceLowerBoundary() {
+        return isFiniteDifferenceBarrier(false) ? barrierOptionParams.getBarrierPrice() : Double.NaN;
+    }
+
+    @Override
+    public double getFiniteDifferenceUpperBoundary() {
+        return isFiniteDifferenceBarrier(true) ? barrierOptionParams.getBarrierPrice() : Double.NaN;
+    }
+
+    private boolean isFiniteDifferenceBarrier(boolean isUp) {
+        return barrierOptionParams.isUp() == isUp &&
+                barrierOptionParams.isInsideSingleBarrier(getUnderlying().getSpotPrice());
+    }
+
+    @Override
+    public double[] finiteDifferenceBoundaryPrice(double spotPrice, double[] timeRemaining) {
+        if (barrierOptionParams.isIn()) {
+            return europeanVanillaPrices(spotPrice, timeRemaining);
+        }
+        double[] prices = new double[timeRemaining.length];
+        Arrays.fill(prices, rebate);
+        return prices;
     }
 
     /**
-     * @return 障碍价的波动率
+     * @return 障碍价的波动率, 没有有效的波动率曲面时为期权的波动率
      */
     double volAtBarrier() {
-        if (null == getVolatilitySurface()) {
+        if (null == getVolatilitySurface() || !getVolatilitySurface().isValidSurface()) {
             return getVanillaOptionParams().getVolatility();
         }
         double h = getBarrierOptionParams().getBarrierPrice();
@@ -233,6 +266,9 @@ public class BarrierOption extends BaseSingleOption implements Serializable {
 
     /**
      * 只计算敲入期权的bsm价格, 敲出期权用平价公式;
+     * 执行价在障碍的标的价格一侧(向下时K >= H, 向上时K <= H):
+     * 向下看涨/向上看跌 = C, 向上看涨/向下看跌 = B - C + D;
+     * 执行价在障碍另一侧: 向下看涨/向上看跌 = A - B + D, 向上看涨/向下看跌 = A;
      *
      * @return 敲入期权的bsm价格
      */
@@ -243,11 +279,14 @@ public class BarrierOption extends BaseSingleOption implements Serializable {
         }
         BarrierCalculator calculator = new BarrierCalculator();
         calculator.setOption(this);
-        //(up&&call) || (down&&put)
-        if (barrierOptionParams.isUp() == getVanillaOptionParams().isOptionTypeCall()) {
-            return calculator.a() + calculator.d() * calculator.index();
+        double k = getVanillaOptionParams().getStrikePrice();
+        double h = barrierOptionParams.getBarrierPrice();
+        boolean isStrikeInside = barrierOptionParams.isUp() ? k <= h : k >= h;
+        //(down&&call) || (up&&put)
+        if (barrierOptionParams.isUp() != getVanillaOptionParams().isOptionTypeCall()) {
+            return isStrikeInside ? calculator.c() : calculator.a() - calculator.b() + calculator.d();
         }
-        return calculator.c() + calculator.b() * calculator.index();
+        return isStrikeInside ? calculator.b() - calculator.c() + calculator.d() : calculator.a();
     }
 
     @Override
@@ -1,16 +1,27 @@
 package option;
 
+import calculator.utility.MonteCarlo;
+
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.function.IntPredicate;
 
 /**
  * @author liangcy
  */
-public class BarrierOptionParams implements Serializable {
+public class BarrierOptionParams implements Serializable, Cloneable {
     private double barrierPrice;
     private String barrierType;
     private String barrierDirection;
     private String payoffType = BaseOption.PAYOFF_TYPE_HIT;
+    /**
+     * 障碍观察方式, 默认离散观察; 连续观察时蒙特卡洛用布朗桥修正, 解析解和有限差分都是连续观察;
+     */
+    private String monitoringType = BaseOption.MONITORING_TYPE_DISCRETE;
+    /**
+     * 离散观察的频率(每年观察次数), 观察时间为 i / monitoringFrequency; 为0时在蒙特卡洛路径的每个点上观察;
+     */
+    private double monitoringFrequency = 0;
     //下面是双障碍期权参数
 
     private double upperBarrierPrice;
@@ -45,6 +56,22 @@ public class BarrierOptionParams implements Serializable {
         this.payoffType = payoffType;
     }
 
+    public String getMonitoringType() {
+        return monitoringType;
+    }
+
+    public void setMonitoringType(String monitoringType) {
+        this.monitoringType = monitoringType;
+    }
+
+    public double getMonitoringFrequency() {
+        return monitoringFrequency;
+    }
+
+    public void setMonitoringFrequency(double monitoringFrequency) {
+        this.monitoringFrequency = monitoringFrequency;
+    }
+
     public String getBarrierDirection() {
         return barrierDirection;
     }
@@ -121,6 +148,74 @@ public class BarrierOptionParams implements Serializable {
         return BaseOption.PAYOFF_TYPE_HIT.equals(payoffType);
     }
 
+    boolean isContinuousMonitoring() {
+        return BaseOption.MONITORING_TYPE_CONTINUOUS.equals(monitoringType);
+    }
+
+    /**
+     * @param timeRemaining 剩余期限
+     * @return 蒙特卡洛需要模拟的观察时间: 连续观察时为空(只需要到期日, 由布朗桥修正),
+     * 离散观察时为观察时间, 频率为0时为null(在等间距网格的每个点上观察)
+     */
+    double[] getMonitoringTimes(double timeRemaining) {
+        if (isContinuousMonitoring()) {
+            return new double[0];
+        }
+        return discreteMonitoringTimes(timeRemaining, monitoringFrequency);
+    }
+
+    /**
+     * @param timeRemaining 剩余期限
+     * @param frequency     每年观察次数
+     * @return 不超过剩余期限的观察时间 i / frequency, 频率为0时为null
+     */
+    static double[] discreteMonitoringTimes(double timeRemaining, double frequency) {
+        if (frequency <= 0) {
+            return null;
+        }
+        int n = (int) Math.floor(timeRemaining * frequency + 1e-10);
+        double[] times = new double[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = (i + 1) / frequency;
+        }
+        return times;
+    }
+
+    /**
+     * 离散观察: 第0个点(当前时刻)总是观察, 之后每个观察时间 i / frequency 取路径上最近的点;
+     * 频率为0时每个点都观察;
+     *
+     * @param timePoints 路径上每个点对应的时间
+     * @param frequency  每年观察次数
+     * @param isHit      第i个点是否触碰障碍
+     * @return 第一个观察到触碰障碍的点, 未触碰时为-1
+     */
+    static int firstDiscreteHitIndex(double[] timePoints, double frequency, IntPredicate isHit) {
+        int n = timePoints.length;
+        if (isHit.test(0)) {
+            return 0;
+        }
+        if (frequency <= 0) {
+            for (int i = 1; i < n; i++) {
+                if (isHit.test(i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int index = 1;
+        for (int i = 1; i / frequency < timePoints[n - 1] + 1e-10; i++) {
+            double time = i / frequency;
+            while (index < n - 1 && Math.abs(timePoints[index + 1] - time) <= Math.abs(timePoints[index] - time)) {
+                index = index + 1;
+            }
+            if (isHit.test(index)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
     /**
      * @param spotPrice 标的资产价格
      * @return 是否触碰了障碍值
@@ -138,6 +233,64 @@ public class BarrierOptionParams implements Serializable {
         return spotPrice > upperBarrierPrice || spotPrice < lowerBarrierPrice;
     }
 
+    /**
+     * 有限差分把价格区域截断在障碍上, 标的价格严格在障碍内侧时才截断;
+     *
+     * @param spotPrice 标的资产价格
+     * @return 是否在单障碍的未触碰一侧(不含障碍)
+     */
+    boolean isInsideSingleBarrier(double spotPrice) {
+        return isUp() ? (spotPrice < barrierPrice) : (spotPrice > barrierPrice);
+    }
+
+    /**
+     * @param spotPrice 标的资产价格
+     * @return 是否严格在双障碍之间
+     */
+    boolean isInsideDoubleBarrier(double spotPrice) {
+        return spotPrice < upperBarrierPrice && spotPrice > lowerBarrierPrice;
+    }
+
+    /**
+     * 单障碍触碰时支付1的折现值: 离散观察时在观察点上判断是否触碰障碍;
+     * 连续观察时用布朗桥修正蒙特卡洛路径: 每一步穿过障碍的概率见MonteCarlo.barrierCrossingProbability,
+     * 第一次触碰障碍的时间取为这一步的终点;
+     *
+     * @param pricePath  蒙特卡洛模拟路径
+     * @param timePoints 路径上每个点对应的时间
+     * @param volatility 布朗桥用的波动率
+     * @param rate       触碰时支付的折现利率, 为0时返回触碰障碍的概率
+     * @return 触碰障碍时支付1的折现值(在该路径下的条件期望)
+     */
+    double singleBarrierHitValue(double[] pricePath, double[] timePoints, double volatility, double rate) {
+        if (isTouchSingleBarrier(pricePath[0])) {
+            return 1;
+        }
+        if (!isContinuousMonitoring()) {
+            int hitIndex = firstDiscreteHitIndex(timePoints, monitoringFrequency,
+                    i -> isTouchSingleBarrier(pricePath[i]));
+            if (hitIndex < 0) {
+                return 0;
+            }
+            return rate == 0 ? 1 : Math.exp(-rate * timePoints[hitIndex]);
+        }
+        double variance = volatility * volatility;
+        double survival = 1;
+        double value = 0;
+        double distance0 = Math.log(barrierPrice / pricePath[0]);
+        for (int i = 1; i < pricePath.length && survival > 0; i++) {
+            double distance1 = Math.log(barrierPrice / pricePath[i]);
+            double p = MonteCarlo.barrierCrossingProbability(distance0, distance1,
+                    variance * (timePoints[i] - timePoints[i - 1]));
+            if (p > 0) {
+                value = value + survival * p * (rate == 0 ? 1 : Math.exp(-rate * timePoints[i]));
+                survival = survival * (1 - p);
+            }
+            distance0 = distance1;
+        }
+        return value;
+    }
+
 
 
     String singleBarrierToString() {
@@ -145,6 +298,8 @@ public class BarrierOptionParams implements Serializable {
                 "barrierPrice=" + barrierPrice +
                 ", barrierType='" + barrierType + '\'' +
                 ", barrierDirection='" + barrierDirection + '\'' +
+                ", monitoringType='" + monitoringType + '\'' +
+                ", monitoringFrequency=" + monitoringFrequency +
                 '}';
     }
 
@@ -155,21 +310,39 @@ public class BarrierOptionParams implements Serializable {
                 ", lowerBarrierPrice=" + lowerBarrierPrice +
                 ", upperCurve=" + upperCurve +
                 ", lowerCurve=" + lowerCurve +
+                ", monitoringType='" + monitoringType + '\'' +
+                ", monitoringFrequency=" + monitoringFrequency +
                 '}';
     }
 
+    private boolean isValidMonitoringParams() {
+        return (BaseOption.MONITORING_TYPE_DISCRETE.equals(monitoringType) ||
+                BaseOption.MONITORING_TYPE_CONTINUOUS.equals(monitoringType)) && monitoringFrequency >= 0;
+    }
+
     boolean isValidSingleBarrierParams() {
-        return barrierPrice > 0 &&
+        return barrierPrice > 0 && isValidMonitoringParams() &&
                 (BaseOption.BARRIER_TYPE_IN.equals(barrierType) || BaseOption.BARRIER_TYPE_OUT.equals(barrierType)) &&
                 (BaseOption.BARRIER_DIRECTION_UP.equals(barrierDirection) || BaseOption.BARRIER_DIRECTION_DOWN.equals(barrierDirection)) &&
                 (BaseOption.PAYOFF_TYPE_HIT.equals(payoffType) || BaseOption.PAYOFF_TYPE_EXPIRE.equals(payoffType));
     }
 
     boolean isValidDoubleBarrierParams(double timeRemaining) {
-        return lowerBarrierPrice > 0 &&
+        return lowerBarrierPrice > 0 && isValidMonitoringParams() &&
                 upperBarrierPrice > lowerBarrierPrice &&
                 upperBarrierPrice * Math.exp(upperCurve * timeRemaining) > lowerBarrierPrice * Math.exp(lowerCurve * timeRemaining) &&
                 (BaseOption.BARRIER_TYPE_IN.equals(barrierType) || BaseOption.BARRIER_TYPE_OUT.equals(barrierType)) &&
                 (BaseOption.PAYOFF_TYPE_HIT.equals(payoffType) || BaseOption.PAYOFF_TYPE_EXPIRE.equals(payoffType));
     }
+
+    /**
+     * @return 浅复制, 成员都是基本类型或不可变对象
+     */
+    public BarrierOptionParams copy() {
+        try {
+            return (BarrierOptionParams) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
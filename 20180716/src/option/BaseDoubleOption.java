@@ -3,11 +3,13 @@ package option;
 import flanagan.math.DeepCopy;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author liangcy
  */
-public abstract class BaseDoubleOption extends BaseOption implements Serializable {
+public abstract class BaseDoubleOption extends BaseOption implements MultiAssetOption, Serializable {
     private BaseSingleOption option1;
     private BaseSingleOption option2;
     /**
@@ -39,6 +41,16 @@ public abstract class BaseDoubleOption extends BaseOption implements Serializabl
         return rho;
     }
 
+    @Override
+    public List<BaseSingleOption> getUnderlyingOptions() {
+        return Arrays.asList(option1, option2);
+    }
+
+    @Override
+    public double[][] getCorrelationMatrix() {
+        return new double[][]{{1, rho}, {rho, 1}};
+    }
+
     void swapOption() {
         BaseSingleOption optionTmp = (BaseSingleOption) DeepCopy.copy(option2);
         option2 = (BaseSingleOption) DeepCopy.copy(option1);
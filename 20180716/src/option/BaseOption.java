@@ -21,6 +21,7 @@ public abstract class BaseOption implements Serializable {
     public static final String OPTION_METHOD_SABR = "sabr";
     public static final String OPTION_METHOD_BAW = "baw";
     public static final String OPTION_METHOD_CURRAN = "curran";
+    public static final String OPTION_METHOD_CORRADO_SU = "corradoSu";
 
     /**
      * 障碍类型: 敲入/敲出
@@ -40,6 +41,12 @@ public abstract class BaseOption implements Serializable {
     public static final String PAYOFF_TYPE_HIT = "hit";
     public static final String PAYOFF_TYPE_EXPIRE = "expire";
 
+    /**
+     * 障碍观察方式: 离散观察/连续观察
+     */
+    public static final String MONITORING_TYPE_DISCRETE = "discrete";
+    public static final String MONITORING_TYPE_CONTINUOUS = "continuous";
+
     /**
      * 最简单的解析解统称 bsm;
      *
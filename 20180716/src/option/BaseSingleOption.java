@@ -1,24 +1,62 @@
 package option;
 
+import calculator.utility.GreekSet;
+import flanagan.math.DeepCopy;
 import underlying.gbm.BaseUnderlying;
 import underlying.gbm.Future;
 import volatility.VolatilitySurface;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Objects;
 
 
 /**
  * @author liangcy
  */
-public abstract class BaseSingleOption extends BaseOption implements Serializable {
+public abstract class BaseSingleOption extends BaseOption implements Serializable, Cloneable {
 
     private VanillaOptionParams vanillaOptionParams = new VanillaOptionParams();
     private SingleOptionGreekParams precision = new SingleOptionGreekParams();
     private BaseUnderlying underlying;
     private VolatilitySurface volatilitySurface;
+    /**
+     * copy出来的期权与原期权共享波动率曲面, refreshVolSurface先复制曲面再修改, 不影响原期权
+     */
+    private transient boolean isVolatilitySurfaceShared = false;
 
     BaseSingleOption() {}
 
+    /**
+     * 复制期权用于情景平移(价格, 波动率, 利率, 期限): 标的和期权参数各自复制一份,
+     * 波动率曲面和其他参数与原期权共享(复制出来的期权修改曲面前再复制), 比DeepCopy(序列化整个对象)快得多;
+     * 原期权修改曲面时复制出来的期权也会看到; 子类有计算时会被修改的成员时需要覆盖;
+     *
+     * @return 期权的复制
+     */
+    public BaseSingleOption copy() {
+        BaseSingleOption option;
+        try {
+            option = (BaseSingleOption) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        option.underlying = underlying == null ? null : underlying.copy();
+        option.vanillaOptionParams = vanillaOptionParams.copy();
+        option.isVolatilitySurfaceShared = volatilitySurface != null;
+        return option;
+    }
+
+    /**
+     * 用option的标的和期权参数的复制, 与option共享波动率曲面和精度参数
+     */
+    void copyMarketState(BaseSingleOption option) {
+        this.underlying = option.underlying == null ? null : option.underlying.copy();
+        this.vanillaOptionParams = option.vanillaOptionParams.copy();
+        this.volatilitySurface = option.volatilitySurface;
+        this.precision = option.precision;
+        this.isVolatilitySurfaceShared = volatilitySurface != null;
+    }
+
     public SingleOptionGreekParams getPrecision() {
         return precision;
     }
@@ -49,6 +87,7 @@ public abstract class BaseSingleOption extends BaseOption implements Serializabl
 
     public void setVolatilitySurface(VolatilitySurface volatilitySurface) {
         this.volatilitySurface = volatilitySurface;
+        this.isVolatilitySurfaceShared = false;
     }
 
     public double getDiscountValueByRiskFreeRate() {
@@ -113,6 +152,10 @@ public abstract class BaseSingleOption extends BaseOption implements Serializabl
             double t = vanillaOptionParams.getTimeRemaining();
             double volFromSurface = volatilitySurface.getVolatility(moneyness, t);
             double diffVol = vol - volFromSurface;
+            if (isVolatilitySurfaceShared) {
+                volatilitySurface = (VolatilitySurface) DeepCopy.copy(volatilitySurface);
+                isVolatilitySurfaceShared = false;
+            }
             volatilitySurface.shiftVolatility(diffVol);
         }
     }
@@ -121,6 +164,34 @@ public abstract class BaseSingleOption extends BaseOption implements Serializabl
         return false;
     }
 
+    /**
+     * 提前行权期权的蒙特卡洛(最小二乘法)可以行权的时间, 返回null时时间网格上的每个点都可以行权;
+     * 到期日总是可以行权;
+     *
+     * @return 行权时间
+     */
+    public double[] getMonteCarloExerciseTimes() {
+        return null;
+    }
+
+    /**
+     * @param pricePath 蒙特卡洛模拟路径
+     * @param index     行权的位置, 收益可以依赖index之前的路径
+     * @return 在路径第index个点行权的收益(未折现), 默认为普通期权的内在价值
+     */
+    public double monteCarloExerciseValue(double[] pricePath, int index) {
+        double k = getVanillaOptionParams().getStrikePrice();
+        return Math.max(getVanillaOptionParams().indexOfOptionType() * (pricePath[index] - k), 0);
+    }
+
+    /**
+     * 最小二乘法回归继续持有价值用的状态变量, 默认为 S / K;
+     * 路径依赖的收益可以返回包含路径信息的状态, 例如当前的平均价格;
+     */
+    public double monteCarloRegressionState(double[] pricePath, int index) {
+        return pricePath[index] / getVanillaOptionParams().getStrikePrice();
+    }
+
     public boolean hasMonteCarloMethod() {
         return false;
     }
@@ -129,6 +200,137 @@ public abstract class BaseSingleOption extends BaseOption implements Serializabl
         return 0;
     }
 
+    /**
+     * 蒙特卡洛模拟需要观察标的价格的时间(距今的时间, 到期日可以不包含在内);
+     * 返回null(默认)时在MonteCarlo.nodes的等间距网格上模拟;
+     * 返回观察时间时, 几何布朗运动只模拟这些时间点(见MonteCarlo.createTimeGrid),
+     * 期权要用monteCarloPrice(pricePath, timePoints)计算收益, 连续观察的障碍用布朗桥修正;
+     *
+     * @return 观察时间
+     */
+    public double[] getMonteCarloObserveTimes() {
+        return null;
+    }
+
+    /**
+     * @param pricePath  蒙特卡洛模拟路径
+     * @param timePoints 路径上每个点对应的时间, 可以不等间距
+     * @return 折现收益, 默认不使用时间, 与monteCarloPrice(pricePath)相同
+     */
+    public double monteCarloPrice(double[] pricePath, double[] timePoints) {
+        return monteCarloPrice(pricePath);
+    }
+
+    /**
+     * 收益对路径连续(Lipschitz)的期权才能用路径导数法计算希腊值, 例如欧式期权、亚式期权;
+     * 二元期权、障碍期权等收益不连续的期权只能用似然比法或差分法;
+     */
+    public boolean hasMonteCarloPathwiseMethod() {
+        return false;
+    }
+
+    /**
+     * 路径导数法: 计算折现收益对路径上每个价格的偏导数;
+     *
+     * @param pricePath 蒙特卡洛模拟路径
+     * @param gradient  与pricePath等长, gradient[i] = d(折现收益) / d(pricePath[i])
+     * @return 折现收益, 与monteCarloPrice(pricePath)相同
+     */
+    public double monteCarloPathwiseGradient(double[] pricePath, double[] gradient) {
+        Arrays.fill(gradient, 0);
+        return monteCarloPrice(pricePath);
+    }
+
+    /**
+     * @param pricePath  蒙特卡洛模拟路径
+     * @param timePoints 路径上每个点对应的时间, 可以不等间距
+     * @param gradient   与pricePath等长, gradient[i] = d(折现收益) / d(pricePath[i])
+     * @return 折现收益, 默认不使用时间, 与monteCarloPathwiseGradient(pricePath, gradient)相同
+     */
+    public double monteCarloPathwiseGradient(double[] pricePath, double[] timePoints, double[] gradient) {
+        return monteCarloPathwiseGradient(pricePath, gradient);
+    }
+
+    /**
+     * @param pricePath 蒙特卡洛模拟路径
+     * @return 同参数欧式期权在该路径下的折现收益, 不需要新建EuropeanOption
+     */
+    double vanillaMonteCarloPrice(double[] pricePath) {
+        double st = pricePath[pricePath.length - 1];
+        double k = getVanillaOptionParams().getStrikePrice();
+        int index = getVanillaOptionParams().indexOfOptionType();
+        return getDiscountValueByRiskFreeRate() * Math.max(index * (st - k), 0);
+    }
+
+    /**
+     * 控制变量: 与期权收益高度相关且期望有解析解的收益, 用于降低蒙特卡洛模拟的方差;
+     * 解析解用常数波动率计算, 使用波动率曲面时不能用控制变量;
+     */
+    public boolean hasControlVariate() {
+        return false;
+    }
+
+    /**
+     * @param pricePath 蒙特卡洛模拟路径
+     * @return 控制变量在该路径下的折现收益
+     */
+    public double monteCarloControlVariate(double[] pricePath) {
+        return 0;
+    }
+
+    /**
+     * @param pricePath  蒙特卡洛模拟路径
+     * @param timePoints 路径上每个点对应的时间, 可以不等间距
+     * @return 控制变量在该路径下的折现收益, 默认不使用时间, 与monteCarloControlVariate(pricePath)相同
+     */
+    public double monteCarloControlVariate(double[] pricePath, double[] timePoints) {
+        return monteCarloControlVariate(pricePath);
+    }
+
+    /**
+     * @param nodes 路径的时间步数, 控制变量可能依赖路径的时间网格
+     * @return 控制变量的期望
+     */
+    public double controlVariatePrice(int nodes) {
+        return 0;
+    }
+
+    /**
+     * @param timePoints 路径上每个点对应的时间, 控制变量可能依赖路径的时间网格
+     * @return 控制变量的期望, 默认与controlVariatePrice(timePoints.length - 1)相同
+     */
+    public double controlVariatePrice(double[] timePoints) {
+        return controlVariatePrice(timePoints.length - 1);
+    }
+
+    /**
+     * bsm模型有解析希腊值的期权, 计算器一次计算全部希腊值时直接用公式, 不再平移参数重复定价;
+     */
+    public boolean hasBsmGreeks() {
+        return false;
+    }
+
+    /**
+     * 单位与计算器差分时相同: vega为1%, theta为剩余期限缩短1天, rho和rho2为1个基点;
+     * 标的是期货时分红率等于利率, rho包含持有成本的变化, rho2为0;
+     *
+     * @param greeks 保存价格和希腊值
+     */
+    public void bsmGreeks(GreekSet greeks) {
+    }
+
+    /**
+     * 解析解模型, 计算器按期权类型和模型名称缓存, 每次计算直接调用, 不用反射;
+     * 返回的模型只能依赖模型名称, 不能依赖期权的状态; 子类可以返回私有方法的模型;
+     * 返回null时计算器按名称查找期权的无参数方法;
+     *
+     * @param methodName 模型名称, 见VanillaOptionParams.getMethodName()
+     * @return 模型, 默认只有bsm
+     */
+    public PricingModel getPricingModel(String methodName) {
+        return OPTION_METHOD_BSM.equals(methodName) ? BaseSingleOption::bsm : null;
+    }
+
     public boolean hasFiniteDifferenceMethod() {
         return false;
     }
@@ -137,6 +339,66 @@ public abstract class BaseSingleOption extends BaseOption implements Serializabl
         return new double[spotPrice.length];
     }
 
+    /**
+     * 提前行权期权的有限差分法可以行权的时间, 返回null时每个时间点都可以行权;
+     * 行权时间取最近的时间点;
+     *
+     * @return 行权时间
+     */
+    public double[] getFiniteDifferenceExerciseTimes() {
+        return null;
+    }
+
+    /**
+     * 有限差分价格区域的下边界, 例如未触碰的向下障碍; 边界是网格点, 边界上的期权价格由finiteDifferenceBoundaryPrice给出;
+     * 返回NaN(默认)时不截断, 边界上假设期权价格关于标的价格线性;
+     *
+     * @return 下边界
+     */
+    public double getFiniteDifferenceLowerBoundary() {
+        return Double.NaN;
+    }
+
+    /**
+     * 有限差分价格区域的上边界, 见getFiniteDifferenceLowerBoundary
+     *
+     * @return 上边界
+     */
+    public double getFiniteDifferenceUpperBoundary() {
+        return Double.NaN;
+    }
+
+    /**
+     * @param spotPrice     边界上的标的价格
+     * @param timeRemaining 距到期日的时间
+     * @return 边界上的期权价格, 与timeRemaining等长
+     */
+    public double[] finiteDifferenceBoundaryPrice(double spotPrice, double[] timeRemaining) {
+        return new double[timeRemaining.length];
+    }
+
+    /**
+     * @param spotPrice     标的价格
+     * @param timeRemaining 距到期日的时间
+     * @return 同参数欧式期权在不同剩余期限下的价格, 只复制一次期权; 剩余期限为0时为内在价值
+     */
+    double[] europeanVanillaPrices(double spotPrice, double[] timeRemaining) {
+        EuropeanOption option = new EuropeanOption(this);
+        option.getUnderlying().setSpotPrice(spotPrice);
+        double k = vanillaOptionParams.getStrikePrice();
+        int index = vanillaOptionParams.indexOfOptionType();
+        double[] prices = new double[timeRemaining.length];
+        for (int i = 0; i < timeRemaining.length; i++) {
+            if (timeRemaining[i] <= 0) {
+                prices[i] = Math.max(index * (spotPrice - k), 0);
+                continue;
+            }
+            option.getVanillaOptionParams().setTimeRemaining(timeRemaining[i]);
+            prices[i] = option.bsm();
+        }
+        return prices;
+    }
+
     public boolean isValid() {
         return underlying.isValid() && vanillaOptionParams.isValid();
     }
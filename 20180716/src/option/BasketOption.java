@@ -12,7 +12,7 @@ import java.util.List;
  * @author liangcy
  * option type/strike price/time remaining 均以 optionList.get(0) 为准
  */
-public class BasketOption {
+public class BasketOption implements MultiAssetOption {
     private List<BaseSingleOption> optionList;
     private double[][] correlationMatrix;
 
@@ -24,6 +24,12 @@ public class BasketOption {
         this.optionList = optionList;
     }
 
+    @Override
+    public List<BaseSingleOption> getUnderlyingOptions() {
+        return optionList;
+    }
+
+    @Override
     public double[][] getCorrelationMatrix() {
         return correlationMatrix;
     }
@@ -79,4 +85,19 @@ public class BasketOption {
         return option;
     }
 
+    /**
+     * call: max(sum(s_i) - k, 0); put: max(k - sum(s_i), 0)
+     */
+    @Override
+    public double monteCarloPrice(double[][] pricePaths) {
+        BaseSingleOption option = optionList.get(0);
+        double sum = 0;
+        for (double[] pricePath : pricePaths) {
+            sum = sum + pricePath[pricePath.length - 1];
+        }
+        int index = option.getVanillaOptionParams().indexOfOptionType();
+        double k = option.getVanillaOptionParams().getStrikePrice();
+        return option.getDiscountValueByRiskFreeRate() * Math.max(index * (sum - k), 0);
+    }
+
 }
@@ -2,9 +2,6 @@ package option;
 
 import calculator.utility.CalculateUtil;
 import calculator.utility.MonteCarlo;
-import flanagan.math.DeepCopy;
-import underlying.gbm.BaseUnderlying;
-import volatility.VolatilitySurface;
 
 import java.io.Serializable;
 import java.util.Objects;
@@ -89,8 +86,11 @@ class BinaryBarrierCalculator {
                 CalculateUtil.normalCDF(phi * x1() - phi * sigmaT());
     }
 
+    /**
+     * 到期支付的敲入期权没有执行价, phi由障碍方向决定: 向上为1, 向下为-1, 与期权类型无关
+     */
     public double b2() {
-        int phi = option.getVanillaOptionParams().indexOfOptionType();
+        int phi = option.getBarrierOptionParams().isUp() ? 1 : -1;
         return option.getDiscountValueByRiskFreeRate() *
                 CalculateUtil.normalCDF(phi * x2() - phi * sigmaT());
     }
@@ -126,10 +126,8 @@ public class BinaryBarrierOption extends BaseSingleOption implements Serializabl
      * @param option 障碍期权
      */
     BinaryBarrierOption(BarrierOption option) {
-        this.setUnderlying((BaseUnderlying) DeepCopy.copy(option.getUnderlying()));
-        this.setVanillaOptionParams((VanillaOptionParams) DeepCopy.copy(option.getVanillaOptionParams()));
-        this.setVolatilitySurface((VolatilitySurface) DeepCopy.copy(option.getVolatilitySurface()));
-        this.setBarrierOptionParams((BarrierOptionParams) DeepCopy.copy(option.getBarrierOptionParams()));
+        copyMarketState(option);
+        this.setBarrierOptionParams(option.getBarrierOptionParams().copy());
         this.setCash(option.getRebate());
     }
 
@@ -164,38 +162,101 @@ public class BinaryBarrierOption extends BaseSingleOption implements Serializabl
         }
     }
 
+    @Override
+    public boolean hasMonteCarloMethod() {
+        return true;
+    }
+
     /**
-     * @param pricePath 蒙特卡洛模拟路径
-     * @return 触碰障碍时间, 如果未触碰, 返回0
+     * 离散观察时模拟观察时间(见BarrierOptionParams.getMonitoringTimes);
+     * 连续观察时到期支付只需要到期价格, 障碍由布朗桥修正; 触碰时支付需要等间距网格确定触碰时间;
      */
-    private double hitBarrierTime(double[] pricePath) {
-        int n = pricePath.length;
-        double[] timePoints = MonteCarlo.getTimePoints(getVanillaOptionParams().getTimeRemaining(), pricePath);
-        for (int i = 0; i < n; i++) {
-            if (barrierOptionParams.isTouchSingleBarrier(pricePath[i])) {
-                return timePoints[i];
-            }
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        if (barrierOptionParams.isContinuousMonitoring() && barrierOptionParams.isPayAtHit()) {
+            return null;
         }
-        return -1;
+        return barrierOptionParams.getMonitoringTimes(getVanillaOptionParams().getTimeRemaining());
     }
 
-    private boolean isHit(double[] pricePath) {
-        return hitBarrierTime(pricePath) != -1;
+    @Override
+    public double monteCarloPrice(double[] pricePath) {
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return monteCarloPrice(pricePath, MonteCarlo.getTimePoints(t, pricePath));
     }
 
+    /**
+     * 离散观察时在观察点上判断是否触碰障碍;
+     * 连续观察时用布朗桥计算路径触碰障碍的概率, 收益取该路径下的条件期望, 布朗桥用期权的波动率;
+     */
     @Override
-    public boolean hasMonteCarloMethod() {
+    public double monteCarloPrice(double[] pricePath, double[] timePoints) {
+        double vol = getVanillaOptionParams().getVolatility();
+        if (barrierOptionParams.isPayAtHit()) {
+            return cash * barrierOptionParams.singleBarrierHitValue(pricePath, timePoints, vol,
+                    getUnderlying().getRiskFreeRate());
+        }
+        double hitProbability = barrierOptionParams.singleBarrierHitValue(pricePath, timePoints, vol, 0);
+        //敲入期权触碰障碍或者敲出期权未触碰障碍时支付
+        double payProbability = barrierOptionParams.isIn() ? hitProbability : 1 - hitProbability;
+        return payProbability * cash * getDiscountValueByRiskFreeRate();
+    }
+
+    @Override
+    public boolean hasFiniteDifferenceMethod() {
         return true;
     }
 
+    /**
+     * 未触碰障碍时价格区域截断在障碍上: 到期支付的敲出期权到期收益为cash, 其他情况到期收益为0;
+     * 障碍上的价格见finiteDifferenceBoundaryPrice; 已触碰障碍时不截断, 收益按到期日计算;
+     */
     @Override
-    public double monteCarloPrice(double[] pricePath) {
-        if (barrierOptionParams.isPayAtHit()) {
-            double hitTime = hitBarrierTime(pricePath);
-            return isHit(pricePath) ? cash * Math.exp(-hitTime * getUnderlying().getRiskFreeRate()) : 0;
+    public double[] finiteDifferencePrice(double[] spotPrice) {
+        boolean isInside = barrierOptionParams.isInsideSingleBarrier(getUnderlying().getSpotPrice());
+        double[] optionPrice = new double[spotPrice.length];
+        for (int i = 0; i < spotPrice.length; i++) {
+            boolean isHit = !isInside || !barrierOptionParams.isInsideSingleBarrier(spotPrice[i]);
+            if (barrierOptionParams.isPayAtHit()) {
+                //已触碰时立即支付
+                optionPrice[i] = isHit ? cash / (isInside ? 1 : getDiscountValueByRiskFreeRate()) : 0;
+            } else {
+                optionPrice[i] = isHit == barrierOptionParams.isIn() ? cash : 0;
+            }
+        }
+        return optionPrice;
+    }
+
+    @Override
+    public double getFiniteDifferenceLowerBoundary() {
+        return isFiniteDifferenceBarrier(false) ? barrierOptionParams.getBarrierPrice() : Double.NaN;
+    }
+
+    @Override
+    public double getFiniteDifferenceUpperBoundary() {
+        return isFiniteDifferenceBarrier(true) ? barrierOptionParams.getBarrierPrice() : Double.NaN;
+    }
+
+    private boolean isFiniteDifferenceBarrier(boolean isUp) {
+        return barrierOptionParams.isUp() == isUp &&
+                barrierOptionParams.isInsideSingleBarrier(getUnderlying().getSpotPrice());
+    }
+
+    /**
+     * 触碰时支付为cash, 到期支付的敲入期权为cash的折现值, 到期支付的敲出期权为0
+     */
+    @Override
+    public double[] finiteDifferenceBoundaryPrice(double spotPrice, double[] timeRemaining) {
+        double r = getUnderlying().getRiskFreeRate();
+        double[] prices = new double[timeRemaining.length];
+        for (int i = 0; i < timeRemaining.length; i++) {
+            if (barrierOptionParams.isPayAtHit()) {
+                prices[i] = cash;
+            } else if (barrierOptionParams.isIn()) {
+                prices[i] = cash * Math.exp(-r * timeRemaining[i]);
+            }
         }
-        //如果敲入期权触碰障碍或者敲出期权未触碰障碍
-        return (isHit(pricePath) == barrierOptionParams.isIn()) ? cash * getDiscountValueByRiskFreeRate() : 0;
+        return prices;
     }
 
     @Override
@@ -208,7 +269,8 @@ public class BinaryBarrierOption extends BaseSingleOption implements Serializabl
         if (barrierOptionParams.isIn()) {
             return (calculator.b2() + calculator.b4()) * cash;
         }
-        return (getDiscountValueByDividendRate() - calculator.b2() - calculator.b4()) * cash;
+        //敲入 + 敲出 = 到期支付cash
+        return (getDiscountValueByRiskFreeRate() - calculator.b2() - calculator.b4()) * cash;
     }
 
     @Override
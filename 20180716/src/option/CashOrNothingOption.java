@@ -1,6 +1,7 @@
 package option;
 
 import calculator.utility.CalculateUtil;
+import calculator.utility.GreekSet;
 
 import java.util.Objects;
 
@@ -40,6 +41,14 @@ public class CashOrNothingOption extends BaseSingleOption {
         return true;
     }
 
+    /**
+     * 收益只与到期价格有关, 不需要中间的观察时间
+     */
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        return new double[0];
+    }
+
     @Override
     public double monteCarloPrice(double[] pricePath) {
         double st = pricePath[pricePath.length - 1];
@@ -53,6 +62,44 @@ public class CashOrNothingOption extends BaseSingleOption {
                 CalculateUtil.normalCDF(getVanillaOptionParams().indexOfOptionType() * d2);
     }
 
+    @Override
+    public boolean hasBsmGreeks() {
+        return true;
+    }
+
+    /**
+     * d1, d2和正态分布函数只计算一次
+     */
+    @Override
+    public void bsmGreeks(GreekSet greeks) {
+        double s = getUnderlying().getSpotPrice();
+        double t = getVanillaOptionParams().getTimeRemaining();
+        double vol = getVanillaOptionParams().getVolatility();
+        double r = getUnderlying().getRiskFreeRate();
+        double b = getUnderlying().getCostOfCarry();
+        int index = getVanillaOptionParams().indexOfOptionType();
+        double sqrtT = Math.sqrt(t);
+        double sigmaT = vol * sqrtT;
+        double d1 = europeanD1();
+        double d2 = d1 - sigmaT;
+        double discountCash = getDiscountValueByRiskFreeRate() * cash;
+        //d(价格) / d(d2)
+        double densityValue = index * discountCash * CalculateUtil.normalPDF(d2);
+        double price = discountCash * CalculateUtil.normalCDF(index * d2);
+        greeks.setPrice(price);
+        greeks.setDelta(densityValue / (s * sigmaT));
+        greeks.setGamma(-densityValue * d1 / (s * s * sigmaT * sigmaT));
+        greeks.setVega(-densityValue * d1 / vol / 100);
+        double timeDerivative = -r * price + densityValue * ((b - vol * vol / 2) / sigmaT - d2 / (2 * t));
+        greeks.setTheta(-timeDerivative / 365);
+        if (isUnderlyingFuture()) {
+            greeks.setRho(-t * price / 10000);
+        } else {
+            greeks.setRho((-t * price + densityValue * sqrtT / vol) / 10000);
+            greeks.setRho2(-densityValue * sqrtT / vol / 10000);
+        }
+    }
+
     @Override
     public boolean hasFiniteDifferenceMethod() {
         return true;
@@ -187,22 +187,134 @@ public class DoubleBarrierOption extends BaseSingleOption implements Serializabl
         return true;
     }
 
+    /**
+     * 离散观察且有观察频率时模拟观察时间, 其他情况在等间距网格上模拟;
+     */
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        if (barrierOptionParams.isContinuousMonitoring()) {
+            return null;
+        }
+        return barrierOptionParams.getMonitoringTimes(getVanillaOptionParams().getTimeRemaining());
+    }
+
     @Override
     public double monteCarloPrice(double[] pricePath) {
-        EuropeanOption option = new EuropeanOption(this);
-        double[] timePoints = MonteCarlo.getTimePoints(getVanillaOptionParams().getTimeRemaining(), pricePath);
-        double u = barrierOptionParams.getUpperBarrierPrice();
-        double l = barrierOptionParams.getLowerBarrierPrice();
+        double t = getVanillaOptionParams().getTimeRemaining();
+        return monteCarloPrice(pricePath, MonteCarlo.getTimePoints(t, pricePath));
+    }
+
+    /**
+     * 离散观察时在观察点上判断是否触碰障碍;
+     * 连续观察时障碍 u * exp(uCurve * t) 和 l * exp(lCurve * t) 在对数空间中是直线,
+     * 每一步分别用布朗桥计算穿过上下障碍的概率, 忽略一步内同时穿过两个障碍的情况,
+     * 这一步不触碰障碍的概率取 1 - pu - pl, 因此不声明观察时间, 在等间距网格上模拟;
+     * 收益取该路径下的条件期望, 布朗桥用期权的波动率;
+     */
+    @Override
+    public double monteCarloPrice(double[] pricePath, double[] timePoints) {
+        double u = Math.log(barrierOptionParams.getUpperBarrierPrice());
+        double l = Math.log(barrierOptionParams.getLowerBarrierPrice());
         double uCurve = barrierOptionParams.getUpperCurve();
         double lCurve = barrierOptionParams.getLowerCurve();
-        for (int i = 0; i < pricePath.length; i++) {
-            double price = pricePath[i];
-            double t = timePoints[i];
-            if (price < l * Math.exp(lCurve * t) || price > u * Math.exp(uCurve * t)) {
-                return barrierOptionParams.isIn() ? option.monteCarloPrice(pricePath) : 0;
-            }
+        if (!barrierOptionParams.isContinuousMonitoring()) {
+            int hitIndex = BarrierOptionParams.firstDiscreteHitIndex(timePoints,
+                    barrierOptionParams.getMonitoringFrequency(), i -> {
+                        double logPrice = Math.log(pricePath[i]);
+                        return logPrice > u + uCurve * timePoints[i] || logPrice < l + lCurve * timePoints[i];
+                    });
+            boolean isHit = hitIndex >= 0;
+            return isHit == barrierOptionParams.isIn() ? vanillaMonteCarloPrice(pricePath) : 0;
+        }
+        double vol = getVanillaOptionParams().getVolatility();
+        double variance = vol * vol;
+        double survival = 1;
+        double logPrice = Math.log(pricePath[0]);
+        double upper0 = u - logPrice;
+        double lower0 = l - logPrice;
+        if (upper0 < 0 || lower0 > 0) {
+            survival = 0;
+        }
+        for (int i = 1; i < pricePath.length && survival > 0; i++) {
+            logPrice = Math.log(pricePath[i]);
+            double upper1 = u + uCurve * timePoints[i] - logPrice;
+            double lower1 = l + lCurve * timePoints[i] - logPrice;
+            double stepVariance = variance * (timePoints[i] - timePoints[i - 1]);
+            double p = MonteCarlo.barrierCrossingProbability(upper0, upper1, stepVariance) +
+                    MonteCarlo.barrierCrossingProbability(lower0, lower1, stepVariance);
+            survival = survival * Math.max(1 - p, 0);
+            upper0 = upper1;
+            lower0 = lower1;
+        }
+        double vanillaPrice = vanillaMonteCarloPrice(pricePath);
+        return barrierOptionParams.isIn() ? (1 - survival) * vanillaPrice : survival * vanillaPrice;
+    }
+
+    /**
+     * 用同参数的欧式期权做控制变量
+     */
+    @Override
+    public boolean hasControlVariate() {
+        return true;
+    }
+
+    @Override
+    public double monteCarloControlVariate(double[] pricePath) {
+        return vanillaMonteCarloPrice(pricePath);
+    }
+
+    @Override
+    public double controlVariatePrice(int nodes) {
+        return europeanVanillaPrice();
+    }
+
+    /**
+     * 有限差分只支持水平的障碍(upperCurve和lowerCurve都为0)
+     */
+    @Override
+    public boolean hasFiniteDifferenceMethod() {
+        return barrierOptionParams.getUpperCurve() == 0 && barrierOptionParams.getLowerCurve() == 0;
+    }
+
+    /**
+     * 未触碰障碍时价格区域截断在两个障碍之间:
+     * 敲出期权到期收益为普通期权收益, 障碍上为0; 敲入期权到期收益为0, 障碍上为普通欧式期权的价格;
+     * 已触碰障碍时不截断, 敲入期权按普通期权计算, 敲出期权为0;
+     */
+    @Override
+    public double[] finiteDifferencePrice(double[] spotPrice) {
+        double k = getVanillaOptionParams().getStrikePrice();
+        int index = getVanillaOptionParams().indexOfOptionType();
+        boolean isInside = barrierOptionParams.isInsideDoubleBarrier(getUnderlying().getSpotPrice());
+        double[] optionPrice = new double[spotPrice.length];
+        for (int i = 0; i < spotPrice.length; i++) {
+            double vanillaPrice = Math.max(0, (spotPrice[i] - k) * index);
+            boolean isHit = !isInside || !barrierOptionParams.isInsideDoubleBarrier(spotPrice[i]);
+            optionPrice[i] = isHit == barrierOptionParams.isIn() ? vanillaPrice : 0;
+        }
+        return optionPrice;
+    }
+
+    @Override
+    public double getFiniteDifferenceLowerBoundary() {
+        return isFiniteDifferenceBarrier() ? barrierOptionParams.getLowerBarrierPrice() : Double.NaN;
+    }
+
+    @Override
+    public double getFiniteDifferenceUpperBoundary() {
+        return isFiniteDifferenceBarrier() ? barrierOptionParams.getUpperBarrierPrice() : Double.NaN;
+    }
+
+    private boolean isFiniteDifferenceBarrier() {
+        return barrierOptionParams.isInsideDoubleBarrier(getUnderlying().getSpotPrice());
+    }
+
+    @Override
+    public double[] finiteDifferenceBoundaryPrice(double spotPrice, double[] timeRemaining) {
+        if (barrierOptionParams.isIn()) {
+            return europeanVanillaPrices(spotPrice, timeRemaining);
         }
-        return barrierOptionParams.isIn() ? 0 : option.monteCarloPrice(pricePath);
+        return new double[timeRemaining.length];
     }
 
     @Override
@@ -4,11 +4,10 @@ import adjusted.european.option.CorradoSu;
 import adjusted.european.option.Heston;
 import adjusted.european.option.Sabr;
 import calculator.utility.CalculateUtil;
-import flanagan.math.DeepCopy;
-import underlying.gbm.BaseUnderlying;
-import volatility.VolatilitySurface;
+import calculator.utility.GreekSet;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -22,10 +21,7 @@ public class EuropeanOption extends BaseSingleOption implements Serializable {
         if (option instanceof BinaryBarrierOption) {
             ((BinaryBarrierOption) option).refreshOptionType();
         }
-        this.setUnderlying((BaseUnderlying) DeepCopy.copy(option.getUnderlying()));
-        this.setVanillaOptionParams((VanillaOptionParams) DeepCopy.copy(option.getVanillaOptionParams()));
-        this.setVolatilitySurface((VolatilitySurface) DeepCopy.copy(option.getVolatilitySurface()));
-        this.setPrecision((SingleOptionGreekParams) DeepCopy.copy(option.getPrecision()));
+        copyMarketState(option);
     }
 
     private Heston hestonParams = new Heston();
@@ -83,6 +79,46 @@ public class EuropeanOption extends BaseSingleOption implements Serializable {
         return getVanillaOptionParams().isOptionTypeCall() ? callPrice : (callPrice - callLowerLimit());
     }
 
+    @Override
+    public boolean hasBsmGreeks() {
+        return true;
+    }
+
+    /**
+     * d1, d2和正态分布函数只计算一次
+     */
+    @Override
+    public void bsmGreeks(GreekSet greeks) {
+        double s = getUnderlying().getSpotPrice();
+        double k = getVanillaOptionParams().getStrikePrice();
+        double t = getVanillaOptionParams().getTimeRemaining();
+        double vol = getVanillaOptionParams().getVolatility();
+        double r = getUnderlying().getRiskFreeRate();
+        double q = getUnderlying().getDividendRate();
+        int index = getVanillaOptionParams().indexOfOptionType();
+        double sqrtT = Math.sqrt(t);
+        double d1 = d1();
+        double d2 = d1 - vol * sqrtT;
+        double dividendDiscount = getDiscountValueByDividendRate();
+        double density = CalculateUtil.normalPDF(d1);
+        //看涨时为S * exp(-qt) * N(d1)和K * exp(-rt) * N(d2), 看跌时为相反数
+        double spotValue = index * s * dividendDiscount * CalculateUtil.normalCDF(index * d1);
+        double strikeValue = index * k * getDiscountValueByRiskFreeRate() * CalculateUtil.normalCDF(index * d2);
+        double price = spotValue - strikeValue;
+        greeks.setPrice(price);
+        greeks.setDelta(spotValue / s);
+        greeks.setGamma(dividendDiscount * density / (s * vol * sqrtT));
+        greeks.setVega(s * dividendDiscount * density * sqrtT / 100);
+        double timeDerivative = s * dividendDiscount * density * vol / (2 * sqrtT) - q * spotValue + r * strikeValue;
+        greeks.setTheta(-timeDerivative / 365);
+        if (isUnderlyingFuture()) {
+            greeks.setRho(-t * price / 10000);
+        } else {
+            greeks.setRho(t * strikeValue / 10000);
+            greeks.setRho2(-t * spotValue / 10000);
+        }
+    }
+
     @Override
     public boolean hasFiniteDifferenceMethod() {
         return true;
@@ -104,12 +140,62 @@ public class EuropeanOption extends BaseSingleOption implements Serializable {
         return true;
     }
 
+    /**
+     * 收益只与到期价格有关, 不需要中间的观察时间
+     */
+    @Override
+    public double[] getMonteCarloObserveTimes() {
+        return new double[0];
+    }
+
     @Override
     public double monteCarloPrice(double[] pricePath) {
-        double st = pricePath[pricePath.length - 1];
-        double k = getVanillaOptionParams().getStrikePrice();
-        int index = getVanillaOptionParams().indexOfOptionType();
-        return getDiscountValueByRiskFreeRate() * Math.max(index * (st - k), 0);
+        return vanillaMonteCarloPrice(pricePath);
+    }
+
+    @Override
+    public boolean hasMonteCarloPathwiseMethod() {
+        return true;
+    }
+
+    /**
+     * 只有到期价格影响收益, 实值时偏导数为 折现因子 * (看涨1, 看跌-1)
+     */
+    @Override
+    public double monteCarloPathwiseGradient(double[] pricePath, double[] gradient) {
+        Arrays.fill(gradient, 0);
+        double payoff = monteCarloPrice(pricePath);
+        if (payoff > 0) {
+            int index = getVanillaOptionParams().indexOfOptionType();
+            gradient[pricePath.length - 1] = getDiscountValueByRiskFreeRate() * index;
+        }
+        return payoff;
+    }
+
+    /**
+     * 模型参数计算时会绑定期权, 也要复制
+     */
+    @Override
+    public EuropeanOption copy() {
+        EuropeanOption option = (EuropeanOption) super.copy();
+        option.hestonParams = hestonParams.copy();
+        option.sabrParams = sabrParams.copy();
+        option.corradoSuParams = corradoSuParams.copy();
+        return option;
+    }
+
+    @Override
+    public PricingModel getPricingModel(String methodName) {
+        switch (methodName) {
+            case OPTION_METHOD_HESTON:
+                return option -> ((EuropeanOption) option).heston();
+            case OPTION_METHOD_SABR:
+                return option -> ((EuropeanOption) option).sabr();
+            case OPTION_METHOD_CORRADO_SU:
+                return option -> ((EuropeanOption) option).corradoSu();
+            default:
+                return super.getPricingModel(methodName);
+        }
     }
 
     private double sabr() {
@@ -0,0 +1,26 @@
+package option;
+
+import java.util.List;
+
+/**
+ * @author liangcy
+ * 多标的期权的蒙特卡洛接口;
+ * 每个标的用一个单标的期权描述(标的价格、利率、波动率、波动率曲面), 期限以第一个期权为准;
+ */
+public interface MultiAssetOption {
+    /**
+     * @return 每个标的对应的期权, 顺序与相关系数矩阵一致
+     */
+    List<BaseSingleOption> getUnderlyingOptions();
+
+    /**
+     * @return 标的之间的相关系数矩阵
+     */
+    double[][] getCorrelationMatrix();
+
+    /**
+     * @param pricePaths 每个标的的价格路径, pricePaths[i]为第i个标的的路径, 长度为nodes+1
+     * @return 这组路径上期权的折现收益
+     */
+    double monteCarloPrice(double[][] pricePaths);
+}
@@ -0,0 +1,14 @@
+package option;
+
+/**
+ * @author liangcy
+ * 解析解模型: 直接计算期权价格, 由期权的getPricingModel按模型名称给出;
+ */
+@FunctionalInterface
+public interface PricingModel {
+    /**
+     * @param option 期权, 类型与给出模型的期权相同
+     * @return 期权价格
+     */
+    double price(BaseSingleOption option);
+}
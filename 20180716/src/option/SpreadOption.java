@@ -95,6 +95,18 @@ public class SpreadOption extends BaseDoubleOption implements Serializable {
     }
 
 
+    /**
+     * call: max(s1 - s2 - k, 0); put: max(k - (s1 - s2), 0)
+     */
+    @Override
+    public double monteCarloPrice(double[][] pricePaths) {
+        int n = pricePaths[0].length;
+        double spread = pricePaths[0][n - 1] - pricePaths[1][n - 1];
+        int index = getOption1().getVanillaOptionParams().indexOfOptionType();
+        double k = getOption1().getVanillaOptionParams().getStrikePrice();
+        return getOption1().getDiscountValueByRiskFreeRate() * Math.max(index * (spread - k), 0);
+    }
+
     @Override
     public String toString() {
         return "SpreadOption{" +
@@ -5,7 +5,7 @@ import java.io.Serializable;
 /**
  * @author liangcy
  */
-public class VanillaOptionParams implements Serializable {
+public class VanillaOptionParams implements Serializable, Cloneable {
     private double strikePrice;
     private double timeRemaining;
     private double volatility;
@@ -103,4 +103,15 @@ public class VanillaOptionParams implements Serializable {
                 ", methodName='" + methodName + '\'' +
                 '}';
     }
+
+    /**
+     * @return 浅复制, 成员都是基本类型或不可变对象
+     */
+    public VanillaOptionParams copy() {
+        try {
+            return (VanillaOptionParams) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -47,6 +47,15 @@ public class quotientOption extends BaseDoubleOption implements Serializable {
     }
 
 
+    @Override
+    public double monteCarloPrice(double[][] pricePaths) {
+        int n = pricePaths[0].length;
+        double quotient = pricePaths[0][n - 1] / pricePaths[1][n - 1];
+        int index = getOption1().getVanillaOptionParams().indexOfOptionType();
+        double k = getOption1().getVanillaOptionParams().getStrikePrice();
+        return getOption1().getDiscountValueByRiskFreeRate() * Math.max(index * (quotient - k), 0);
+    }
+
     @Override
     public String toString() {
         return "quotientOption{" +
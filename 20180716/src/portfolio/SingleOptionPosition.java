@@ -1,6 +1,7 @@
 package portfolio;
 
 import calculator.derivatives.SingleOptionAnalysisCalculator;
+import calculator.utility.CalculatorResult;
 import option.BaseSingleOption;
 
 /**
@@ -11,7 +12,10 @@ public class SingleOptionPosition {
     private double openInterest = 0;
     private String underlyingName;
 
-    private static SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator();
+    /**
+     * 所有持仓共用, 用无状态的price计算, 不同持仓可以在多个线程中同时估值
+     */
+    private static final SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator();
 
     public BaseSingleOption getOption() {
         return option;
@@ -50,10 +54,9 @@ public class SingleOptionPosition {
     }
 
     public double getValue() {
-        calculator.setOption(option);
-        calculator.calculatePrice();
-        if(calculator.isNormal()) {
-            return -openInterest * calculator.getResult();
+        CalculatorResult price = calculator.price(option);
+        if(price.isNormal()) {
+            return -openInterest * price.getValue();
         }
         return 0;
     }
@@ -1,17 +1,35 @@
 package test;
 
+import adjusted.european.option.Heston;
+import adjusted.european.option.Sabr;
+import calculator.derivatives.BatchImpliedVolatility;
+import calculator.derivatives.MultiAssetMonteCarloCalculator;
 import calculator.derivatives.SingleOptionAnalysisCalculator;
 import calculator.derivatives.SingleOptionFiniteDifferenceCalculator;
 import calculator.derivatives.SingleOptionMonteCarloCalculator;
+import calculator.utility.CalculatorError;
+import calculator.utility.CalculatorResult;
+import calculator.utility.CalculatorThreadPool;
+import calculator.utility.FiniteDifference;
+import calculator.utility.FiniteDifferenceResult;
+import calculator.utility.GreekSet;
+import calculator.utility.Interpolation;
+import calculator.utility.MonteCarlo;
+import calculator.utility.RunningStatistics;
+import calculator.utility.SobolGenerator;
 import option.*;
 import org.junit.Assert;
 import org.junit.Test;
 import underlying.gbm.BaseUnderlying;
 import underlying.gbm.Future;
 import underlying.gbm.Spot;
+import volatility.VolatilitySlices;
 import volatility.VolatilitySurface;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static test.CalculatorCase.finiteDifferenceCalculator;
 import static test.CalculatorCase.monteCarloCalculator;
@@ -83,6 +101,462 @@ public class OptionTest {
         Assert.assertEquals(0, finiteDifferenceCalculator.getError().getIndex());
     }
 
+    @Test
+    public void testFiniteDifferenceScheme() {
+        EuropeanOption option = new EuropeanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(100);
+        params.setVolatility(0.25);
+        params.setTimeRemaining(1);
+        params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+
+        SingleOptionFiniteDifferenceCalculator calculator = new SingleOptionFiniteDifferenceCalculator();
+        calculator.setOption(option);
+        double implicitError = calculator.getEuropeanOptionError();
+        //Crank-Nicolson + 对数坐标sinh网格, 每个方向的网格点数是默认的1/5
+        FiniteDifference finiteDifference = new FiniteDifference();
+        finiteDifference.setScheme(FiniteDifference.SCHEME_CRANK_NICOLSON);
+        finiteDifference.setGrid(FiniteDifference.GRID_SINH);
+        finiteDifference.setCoordinate(FiniteDifference.COORDINATE_LOG);
+        finiteDifference.setNumOfTimePoints(101);
+        finiteDifference.setNumOfLowerPricePoints(20);
+        calculator.setFiniteDifference(finiteDifference);
+        double crankNicolsonError = calculator.getEuropeanOptionError();
+        System.out.println(implicitError + ", " + crankNicolsonError);
+        Assert.assertTrue(Math.abs(crankNicolsonError) < Math.abs(implicitError));
+    }
+
+    @Test
+    public void testFiniteDifferenceAllGreeks() {
+        AmericanOption option = new AmericanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 36, 0.06, 0));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(40);
+        params.setVolatility(0.2);
+        params.setTimeRemaining(1);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+
+        SingleOptionFiniteDifferenceCalculator calculator = new SingleOptionFiniteDifferenceCalculator();
+        calculator.setOption(option);
+        calculator.calculateAllGreeks();
+        GreekSet greeks = calculator.getGreeks();
+        System.out.println(greeks);
+        Assert.assertEquals(0, greeks.getError().getIndex());
+        calculator.calculatePrice();
+        Assert.assertEquals(calculator.getResult(), greeks.getPrice(), 1e-12);
+        calculator.calculateDelta();
+        Assert.assertEquals(calculator.getResult(), greeks.getDelta(), 1e-12);
+        calculator.calculateGamma();
+        Assert.assertEquals(calculator.getResult(), greeks.getGamma(), 1e-12);
+        calculator.calculateTheta();
+        Assert.assertEquals(calculator.getResult(), greeks.getTheta(), 1e-12);
+        //vega, rho, rho2在缓存的网格上用中心差分, 不替换缓存
+        FiniteDifferenceResult cached = calculator.getFiniteDifferenceResult();
+        calculator.calculateVega();
+        Assert.assertEquals(calculator.getResult(), greeks.getVega(), 1e-12);
+        calculator.calculateRho();
+        Assert.assertEquals(calculator.getResult(), greeks.getRho(), 1e-12);
+        calculator.calculateRho2();
+        Assert.assertEquals(calculator.getResult(), greeks.getRho2(), 1e-12);
+        Assert.assertSame(cached, calculator.getFiniteDifferenceResult());
+        calculator.calculatePrice();
+        Assert.assertSame(cached, calculator.getFiniteDifferenceResult());
+    }
+
+    @Test
+    public void testFiniteDifferenceEarlyExercise() {
+        AmericanOption option = new AmericanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 36, 0.06, 0));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(40);
+        params.setVolatility(0.2);
+        params.setTimeRemaining(1);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+
+        SingleOptionFiniteDifferenceCalculator calculator = new SingleOptionFiniteDifferenceCalculator();
+        calculator.setOption(option);
+        FiniteDifference finiteDifference = new FiniteDifference();
+        finiteDifference.setScheme(FiniteDifference.SCHEME_CRANK_NICOLSON);
+        finiteDifference.setGrid(FiniteDifference.GRID_SINH);
+        finiteDifference.setCoordinate(FiniteDifference.COORDINATE_LOG);
+        finiteDifference.setNumOfLowerPricePoints(40);
+        calculator.setFiniteDifference(finiteDifference);
+        String[] exerciseMethods = {FiniteDifference.EXERCISE_BRENNAN_SCHWARTZ, FiniteDifference.EXERCISE_PSOR,
+                FiniteDifference.EXERCISE_PROJECTION};
+        double[] prices = new double[exerciseMethods.length];
+        for (int i = 0; i < exerciseMethods.length; i++) {
+            finiteDifference.setExerciseMethod(exerciseMethods[i]);
+            finiteDifference.setNumOfTimePoints(26);
+            calculator.calculatePrice();
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            prices[i] = calculator.getResult();
+        }
+        finiteDifference.setExerciseMethod(FiniteDifference.EXERCISE_BRENNAN_SCHWARTZ);
+        finiteDifference.setNumOfTimePoints(1001);
+        calculator.calculatePrice();
+        double reference = calculator.getResult();
+        System.out.println(reference + ", " + Arrays.toString(prices));
+        //Brennan-Schwartz和投影SOR求解同一个线性互补问题
+        Assert.assertEquals(prices[0], prices[1], 1e-4);
+        Assert.assertTrue(Math.abs(prices[0] - reference) < Math.abs(prices[2] - reference) / 5);
+    }
+
+    @Test
+    public void testFiniteDifferenceBarrier() {
+        FiniteDifference finiteDifference = new FiniteDifference();
+        finiteDifference.setScheme(FiniteDifference.SCHEME_CRANK_NICOLSON);
+        finiteDifference.setCoordinate(FiniteDifference.COORDINATE_LOG);
+        finiteDifference.setNumOfTimePoints(101);
+        finiteDifference.setNumOfLowerPricePoints(20);
+        SingleOptionFiniteDifferenceCalculator calculator = new SingleOptionFiniteDifferenceCalculator();
+        calculator.setFiniteDifference(finiteDifference);
+        SingleOptionAnalysisCalculator analysisCalculator = new SingleOptionAnalysisCalculator();
+
+        DoubleBarrierOption doubleBarrier = new DoubleBarrierOption();
+        doubleBarrier.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.1, 0));
+        createVanillaOptionParams(100, 0.25, 0.25, BaseOption.OPTION_TYPE_CALL);
+        doubleBarrier.setVanillaOptionParams(vanillaOptionParams);
+        BarrierOptionParams doubleBarrierParams = new BarrierOptionParams();
+        doubleBarrierParams.setBarrierType(BaseOption.BARRIER_TYPE_OUT);
+        doubleBarrierParams.setUpperBarrierPrice(120);
+        doubleBarrierParams.setLowerBarrierPrice(80);
+        doubleBarrier.setBarrierOptionParams(doubleBarrierParams);
+        calculator.setOption(doubleBarrier);
+        calculator.calculateDelta();
+        analysisCalculator.setOption(doubleBarrier);
+        analysisCalculator.calculateDelta();
+        Assert.assertEquals(analysisCalculator.getResult(), calculator.getResult(), 1e-3);
+        //网格两端正好是障碍
+        double[] pricePoints = calculator.getFiniteDifferenceResult().getPricePoints();
+        Assert.assertEquals(80, pricePoints[0], 0);
+        Assert.assertEquals(120, pricePoints[pricePoints.length - 1], 0);
+        calculator.calculatePrice();
+        Assert.assertEquals(doubleBarrier.bsm(), calculator.getResult(), 5e-3);
+
+        BinaryBarrierOption binaryBarrier = new BinaryBarrierOption();
+        binaryBarrier.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.08, 0.04));
+        createVanillaOptionParams(100, 0.25, 0.5, BaseOption.OPTION_TYPE_CALL);
+        binaryBarrier.setVanillaOptionParams(vanillaOptionParams);
+        BarrierOptionParams singleBarrierParams = new BarrierOptionParams();
+        singleBarrierParams.setBarrierPrice(90);
+        singleBarrierParams.setBarrierType(BaseOption.BARRIER_TYPE_IN);
+        singleBarrierParams.setBarrierDirection(BaseOption.BARRIER_DIRECTION_DOWN);
+        singleBarrierParams.setPayoffType(BaseOption.PAYOFF_TYPE_HIT);
+        binaryBarrier.setBarrierOptionParams(singleBarrierParams);
+        binaryBarrier.setCash(10);
+        calculator.setOption(binaryBarrier);
+        calculator.calculatePrice();
+        Assert.assertEquals(binaryBarrier.bsm(), calculator.getResult(), 1e-3);
+
+        //到期支付的二元障碍期权, 敲入和敲出分别与解析解比较
+        singleBarrierParams.setPayoffType(BaseOption.PAYOFF_TYPE_EXPIRE);
+        for (String barrierType : new String[]{BaseOption.BARRIER_TYPE_IN, BaseOption.BARRIER_TYPE_OUT}) {
+            singleBarrierParams.setBarrierType(barrierType);
+            calculator.calculatePrice();
+            System.out.println("binary " + barrierType + ": " + calculator.getResult() + ", " + binaryBarrier.bsm());
+            Assert.assertEquals(binaryBarrier.bsm(), calculator.getResult(), 5e-3);
+        }
+
+        //单障碍期权: 向上/向下, 敲入/敲出, 看涨/看跌, 执行价在障碍两侧, 分别与解析解比较
+        BarrierOption barrier = new BarrierOption();
+        barrier.setUnderlying(binaryBarrier.getUnderlying());
+        VanillaOptionParams barrierVanillaParams = new VanillaOptionParams();
+        barrierVanillaParams.setVolatility(0.25);
+        barrierVanillaParams.setTimeRemaining(0.5);
+        barrier.setVanillaOptionParams(barrierVanillaParams);
+        BarrierOptionParams barrierParams = new BarrierOptionParams();
+        barrier.setBarrierOptionParams(barrierParams);
+        calculator.setOption(barrier);
+        for (String direction : new String[]{BaseOption.BARRIER_DIRECTION_DOWN, BaseOption.BARRIER_DIRECTION_UP}) {
+            barrierParams.setBarrierDirection(direction);
+            barrierParams.setBarrierPrice(BaseOption.BARRIER_DIRECTION_DOWN.equals(direction) ? 95 : 105);
+            for (String barrierType : new String[]{BaseOption.BARRIER_TYPE_IN, BaseOption.BARRIER_TYPE_OUT}) {
+                barrierParams.setBarrierType(barrierType);
+                for (String optionType : new String[]{BaseOption.OPTION_TYPE_CALL, BaseOption.OPTION_TYPE_PUT}) {
+                    barrierVanillaParams.setOptionType(optionType);
+                    for (double strike : new double[]{90, 110}) {
+                        barrierVanillaParams.setStrikePrice(strike);
+                        calculator.calculatePrice();
+                        Assert.assertEquals(0, calculator.getError().getIndex());
+                        System.out.println(direction + " " + barrierType + " " + optionType + " K=" + strike +
+                                ": " + calculator.getResult() + ", " + barrier.bsm());
+                        Assert.assertEquals(barrier.bsm(), calculator.getResult(), 5e-3);
+                    }
+                }
+            }
+        }
+        //有回扣的敲出期权, 回扣在敲出时支付
+        barrier.setRebate(2);
+        calculator.calculatePrice();
+        System.out.println("rebate: " + calculator.getResult() + ", " + barrier.bsm());
+        Assert.assertEquals(barrier.bsm(), calculator.getResult(), 5e-3);
+    }
+
+    @Test
+    public void testPricingModel() {
+        AmericanOption option = new AmericanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+        createVanillaOptionParams(105, 0.25, 1, BaseOption.OPTION_TYPE_PUT);
+        option.setVanillaOptionParams(vanillaOptionParams);
+        SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator(option);
+        calculator.calculatePrice();
+        double bsmPrice = calculator.getResult();
+        vanillaOptionParams.setMethodName(BaseOption.OPTION_METHOD_BAW);
+        calculator.calculatePrice();
+        Assert.assertEquals(bsmPrice, calculator.getResult(), 0);
+        //没有注册的模型按名称查找方法
+        vanillaOptionParams.setMethodName("europeanD1");
+        calculator.calculatePrice();
+        Assert.assertEquals(option.europeanD1(), calculator.getResult(), 0);
+        vanillaOptionParams.setMethodName("notExist");
+        calculator.calculatePrice();
+        Assert.assertEquals(CalculatorError.NOT_FOUND_METHOD, calculator.getError());
+        vanillaOptionParams.setMethodName(BaseOption.OPTION_METHOD_BSM);
+    }
+
+    @Test
+    public void testCopy() {
+        EuropeanOption option = new EuropeanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+        createVanillaOptionParams(105, 0.25, 1, BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(vanillaOptionParams);
+        VolatilitySurface surface = new VolatilitySurface(0.2);
+        option.setVolatilitySurface(surface);
+        double surfaceVol = surface.getVolSurface()[0][0];
+
+        //修改复制出来的期权不影响原期权, 曲面在修改前复制
+        BaseSingleOption copy = option.copy();
+        copy.getUnderlying().setSpotPrice(110);
+        copy.getVanillaOptionParams().setVolatility(0.3);
+        copy.refreshVolSurface();
+        Assert.assertEquals(100, option.getUnderlying().getSpotPrice(), 0);
+        Assert.assertEquals(0.25, option.getVanillaOptionParams().getVolatility(), 0);
+        Assert.assertSame(surface, option.getVolatilitySurface());
+        Assert.assertEquals(surfaceVol, surface.getVolSurface()[0][0], 0);
+        Assert.assertEquals(surfaceVol + 0.1, copy.getVolatilitySurface().getVolSurface()[0][0], 1e-12);
+
+        SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator(option);
+        calculator.calculateVega();
+        double h = 1e-4;
+        option.getVanillaOptionParams().setVolatility(0.25 + h);
+        double upPrice = option.bsm();
+        option.getVanillaOptionParams().setVolatility(0.25 - h);
+        double downPrice = option.bsm();
+        option.getVanillaOptionParams().setVolatility(0.25);
+        Assert.assertEquals((upPrice - downPrice) / (2 * h) / 100, calculator.getResult(), 1e-6);
+    }
+
+    @Test
+    public void testAnalysisAllGreeks() {
+        EuropeanOption europeanOption = new EuropeanOption();
+        CashOrNothingOption cashOrNothingOption = new CashOrNothingOption();
+        AmericanOption americanOption = new AmericanOption();
+        BaseSingleOption[] options = {europeanOption, cashOrNothingOption, americanOption};
+        for (BaseSingleOption option : options) {
+            option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+            VanillaOptionParams params = new VanillaOptionParams();
+            params.setStrikePrice(105);
+            params.setVolatility(0.25);
+            params.setTimeRemaining(0.7);
+            params.setOptionType(BaseOption.OPTION_TYPE_PUT);
+            option.setVanillaOptionParams(params);
+        }
+        americanOption.getVanillaOptionParams().setMethodName(BaseOption.OPTION_METHOD_BAW);
+
+        //欧式期权和现金或空手期权用解析希腊值, 美式期权(baw)一次差分; theta是单边差分, 误差较大
+        for (BaseSingleOption option : options) {
+            SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator(option);
+            GreekSet greeks = calculator.calculateAll();
+            System.out.println(greeks);
+            Assert.assertEquals(0, greeks.getError().getIndex());
+            calculator.calculatePrice();
+            Assert.assertEquals(calculator.getResult(), greeks.getPrice(), 1e-10);
+            calculator.calculateDelta();
+            Assert.assertEquals(calculator.getResult(), greeks.getDelta(), 1e-7);
+            calculator.calculateGamma();
+            Assert.assertEquals(calculator.getResult(), greeks.getGamma(), 1e-7);
+            calculator.calculateVega();
+            Assert.assertEquals(calculator.getResult(), greeks.getVega(), 1e-7);
+            calculator.calculateTheta();
+            Assert.assertEquals(calculator.getResult(), greeks.getTheta(), 1e-6);
+            calculator.calculateRho();
+            Assert.assertEquals(calculator.getResult(), greeks.getRho(), 1e-9);
+            calculator.calculateRho2();
+            Assert.assertEquals(calculator.getResult(), greeks.getRho2(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testStatelessCalculator() throws Exception {
+        SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator();
+        List<BaseSingleOption> options = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            BaseSingleOption option = i % 2 == 0 ? new EuropeanOption() : new AmericanOption();
+            option.setUnderlying(createUnderlyingCase(new Spot(), 80 + i, 0.05, 0.02));
+            VanillaOptionParams params = new VanillaOptionParams();
+            params.setStrikePrice(100);
+            params.setVolatility(0.2 + 0.005 * i);
+            params.setTimeRemaining(0.5);
+            params.setOptionType(i % 3 == 0 ? BaseOption.OPTION_TYPE_PUT : BaseOption.OPTION_TYPE_CALL);
+            params.setMethodName(i % 4 == 1 ? BaseOption.OPTION_METHOD_BAW : BaseOption.OPTION_METHOD_BSM);
+            option.setVanillaOptionParams(params);
+            options.add(option);
+        }
+
+        //同一个计算器在多个线程中同时计算不同的期权
+        List<java.util.concurrent.Future<CalculatorResult[]>> futures = new ArrayList<>();
+        for (BaseSingleOption option : options) {
+            futures.add(CalculatorThreadPool.getPool().submit(() -> new CalculatorResult[]{
+                    calculator.price(option), calculator.delta(option), calculator.gamma(option)}));
+        }
+        for (int i = 0; i < options.size(); i++) {
+            CalculatorResult[] results = futures.get(i).get();
+            SingleOptionAnalysisCalculator single = new SingleOptionAnalysisCalculator(options.get(i));
+            single.calculatePrice();
+            Assert.assertEquals(single.getResult(), results[0].getValue(), 0);
+            single.calculateDelta();
+            Assert.assertEquals(single.getResult(), results[1].getValue(), 0);
+            single.calculateGamma();
+            Assert.assertEquals(single.getResult(), results[2].getValue(), 0);
+        }
+
+        //使用波动率曲面: 多个期权共享同一个曲面同时计算, 平移只修改复制出来的曲面
+        VolatilitySurface surface = new VolatilitySurface(0.2);
+        double[][] surfaceVol = surface.getVolSurface().clone();
+        for (int i = 0; i < surfaceVol.length; i++) {
+            surfaceVol[i] = surfaceVol[i].clone();
+        }
+        for (BaseSingleOption option : options) {
+            option.setVolatilitySurface(surface);
+        }
+        SingleOptionAnalysisCalculator surfaceCalculator = new SingleOptionAnalysisCalculator();
+        surfaceCalculator.enableVolSurface();
+        futures.clear();
+        for (BaseSingleOption option : options) {
+            futures.add(CalculatorThreadPool.getPool().submit(() -> new CalculatorResult[]{
+                    surfaceCalculator.delta(option), surfaceCalculator.gamma(option), surfaceCalculator.theta(option)}));
+        }
+        List<CalculatorResult[]> surfaceResults = new ArrayList<>();
+        for (java.util.concurrent.Future<CalculatorResult[]> future : futures) {
+            surfaceResults.add(future.get());
+        }
+        Assert.assertArrayEquals(surfaceVol, surface.getVolSurface());
+        for (int i = 0; i < options.size(); i++) {
+            BaseSingleOption option = options.get(i);
+            Assert.assertSame(surface, option.getVolatilitySurface());
+            CalculatorResult[] results = surfaceResults.get(i);
+            Assert.assertEquals(surfaceCalculator.delta(option).getValue(), results[0].getValue(), 0);
+            Assert.assertEquals(surfaceCalculator.gamma(option).getValue(), results[1].getValue(), 0);
+            Assert.assertEquals(surfaceCalculator.theta(option).getValue(), results[2].getValue(), 0);
+        }
+        for (BaseSingleOption option : options) {
+            option.setVolatilitySurface(new VolatilitySurface());
+        }
+
+        //隐含波动率不修改期权的波动率
+        BaseSingleOption option = options.get(0);
+        option.getVanillaOptionParams().setTargetPrice(calculator.price(option).getValue() + 0.5);
+        CalculatorResult impliedVolatility = calculator.impliedVolatility(option);
+        System.out.println(impliedVolatility);
+        Assert.assertEquals(0, impliedVolatility.getError().getIndex());
+        Assert.assertEquals(0.2, option.getVanillaOptionParams().getVolatility(), 0);
+        option.getVanillaOptionParams().setVolatility(impliedVolatility.getValue());
+        Assert.assertEquals(option.getVanillaOptionParams().getTargetPrice(), calculator.price(option).getValue(), 1e-6);
+
+        option.getVanillaOptionParams().setMethodName("notExist");
+        Assert.assertEquals(CalculatorError.NOT_FOUND_METHOD, calculator.price(option).getError());
+        Assert.assertEquals(CalculatorError.UNSUPPORTED_METHOD, calculator.vega(option).getError());
+    }
+
+    @Test
+    public void testBatchImpliedVolatility() {
+        BaseUnderlying underlying = createUnderlyingCase(new Spot(), 100, 0.05, 0.02);
+        int n = 60;
+        double[] strikes = new double[n];
+        double[] t = new double[n];
+        double[] prices = new double[n];
+        double[] vols = new double[n];
+        String[] types = new String[n];
+        List<BaseSingleOption> options = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            strikes[i] = 80 + 1.5 * (i % 30);
+            t[i] = i < 30 ? 0.5 : 2;
+            vols[i] = 0.2 + 0.005 * i;
+            types[i] = i % 2 == 0 ? BaseOption.OPTION_TYPE_CALL : BaseOption.OPTION_TYPE_PUT;
+            EuropeanOption option = new EuropeanOption();
+            option.setUnderlying(underlying);
+            VanillaOptionParams params = new VanillaOptionParams();
+            params.setStrikePrice(strikes[i]);
+            params.setVolatility(vols[i]);
+            params.setTimeRemaining(t[i]);
+            params.setOptionType(types[i]);
+            option.setVanillaOptionParams(params);
+            prices[i] = option.bsm();
+            params.setTargetPrice(prices[i]);
+            params.setVolatility(0.3);
+            options.add(option);
+        }
+        BatchImpliedVolatility batch = new BatchImpliedVolatility();
+        batch.setChunkSize(16);
+        double[] impliedVolatility = batch.impliedVolatility(underlying, strikes, t, prices, types);
+        double[] optionImpliedVolatility = batch.impliedVolatility(options);
+        SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator();
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(vols[i], impliedVolatility[i], 1e-8);
+            Assert.assertEquals(impliedVolatility[i], optionImpliedVolatility[i], 1e-10);
+            Assert.assertEquals(0.3, options.get(i).getVanillaOptionParams().getVolatility(), 0);
+            CalculatorResult newton = calculator.impliedVolatility(options.get(i));
+            if (newton.isNormal()) {
+                Assert.assertEquals(newton.getValue(), impliedVolatility[i], 1e-6);
+            }
+        }
+
+        //深度虚值, 期限短: 价格很小时两项都在正态分布尾部
+        double[] deepStrikes = {130, 200, 300, 60, 30};
+        double[] deepTimes = {1.0 / 365, 7.0 / 365};
+        double[] deepPrices = {1e-6, 1e-20, 1e-80, 1e-200, 1e-300};
+        for (double strike : deepStrikes) {
+            String type = strike > 100 ? BaseOption.OPTION_TYPE_CALL : BaseOption.OPTION_TYPE_PUT;
+            for (double time : deepTimes) {
+                double previous = 0;
+                for (double price : deepPrices) {
+                    double vol = batch.impliedVolatility(underlying, new double[]{strike}, new double[]{time},
+                            new double[]{price}, new String[]{type})[0];
+                    Assert.assertTrue(vol > 0 && (previous == 0 || vol < previous));
+                    previous = vol;
+                    if (BaseOption.OPTION_TYPE_CALL.equals(type)) {
+                        EuropeanOption option = new EuropeanOption();
+                        option.setUnderlying(underlying);
+                        createVanillaOptionParams(strike, vol, time, type);
+                        option.setVanillaOptionParams(vanillaOptionParams);
+                        Assert.assertEquals(1, option.bsm() / price, 1e-8);
+                    }
+                }
+            }
+        }
+
+        //并行计算时被中断, 取消没有完成的块, 没有取得结果的期权为NaN, 保留中断状态
+        int parallelism = CalculatorThreadPool.getParallelism();
+        CalculatorThreadPool.setParallelism(4);
+        Thread.currentThread().interrupt();
+        double[] interrupted = batch.impliedVolatility(underlying, strikes, t, prices, types);
+        Assert.assertTrue(Thread.interrupted());
+        CalculatorThreadPool.setParallelism(parallelism);
+        for (int i = 0; i < n; i++) {
+            Assert.assertTrue(Double.isNaN(interrupted[i]) || interrupted[i] == impliedVolatility[i]);
+        }
+
+        //低于内在价值
+        double[] invalid = batch.impliedVolatility(underlying, new double[]{60}, new double[]{1},
+                new double[]{30}, new String[]{BaseOption.OPTION_TYPE_CALL});
+        Assert.assertTrue(Double.isNaN(invalid[0]));
+    }
+
     @Test
     public void test() {
         double targetPrice = 30;
@@ -120,4 +594,676 @@ public class OptionTest {
         System.out.println(monteCarloCalculator.getResult());
     }
 
+    @Test
+    public void testMonteCarloSeed() {
+        europeanOption.setUnderlying(createUnderlyingCase(spot, 100, 0.05, 0));
+        createVanillaOptionParams(100, 0.3, 1, BaseOption.OPTION_TYPE_CALL);
+        europeanOption.setVanillaOptionParams(vanillaOptionParams);
+        europeanOption.setVolatilitySurface(new VolatilitySurface());
+        MonteCarlo monteCarlo = new MonteCarlo(50, 20000);
+        monteCarlo.setSeed(20180716L);
+        monteCarloCalculator.setOption(europeanOption);
+        monteCarloCalculator.setMonteCarloParams(monteCarlo);
+
+        int parallelism = CalculatorThreadPool.getParallelism();
+        CalculatorThreadPool.setParallelism(1);
+        monteCarloCalculator.calculatePrice();
+        double singleThreadPrice = monteCarloCalculator.getResult();
+        CalculatorThreadPool.setParallelism(4);
+        monteCarloCalculator.calculatePrice();
+        double multiThreadPrice = monteCarloCalculator.getResult();
+        CalculatorThreadPool.setParallelism(parallelism);
+        monteCarloCalculator.setMonteCarloParams(new MonteCarlo());
+
+        System.out.println(singleThreadPrice);
+        Assert.assertEquals(0, monteCarloCalculator.getError().getIndex());
+        Assert.assertEquals(singleThreadPrice, multiThreadPrice, 0);
+    }
+
+    @Test
+    public void testMonteCarloAllGreeks() {
+        EuropeanOption option = new EuropeanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(100);
+        params.setVolatility(0.25);
+        params.setTimeRemaining(1);
+        params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+        MonteCarlo monteCarlo = new MonteCarlo(20, 40000);
+        monteCarlo.setSeed(20180716L);
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        calculator.setMonteCarloParams(monteCarlo);
+        calculator.calculateAllGreeks();
+        GreekSet greeks = calculator.getGreeks();
+        GreekSet errors = calculator.getGreeksStandardError();
+        System.out.println(greeks);
+        System.out.println(errors);
+        Assert.assertEquals(0, greeks.getError().getIndex());
+        Assert.assertEquals(greeks.getPrice(), calculator.getResult(), 0);
+        Assert.assertEquals(errors.getPrice(), calculator.getStandardError(), 0);
+
+        //单独计算的每个希腊值与一次模拟的结果在标准误差范围内一致
+        double[] all = {greeks.getPrice(), greeks.getDelta(), greeks.getGamma(), greeks.getVega(),
+                greeks.getTheta(), greeks.getRho(), greeks.getRho2()};
+        double[] allErrors = {errors.getPrice(), errors.getDelta(), errors.getGamma(), errors.getVega(),
+                errors.getTheta(), errors.getRho(), errors.getRho2()};
+        Runnable[] singles = {calculator::calculatePrice, calculator::calculateDelta, calculator::calculateGamma,
+                calculator::calculateVega, calculator::calculateTheta, calculator::calculateRho,
+                calculator::calculateRho2};
+        for (int i = 0; i < singles.length; i++) {
+            singles[i].run();
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            Assert.assertTrue(allErrors[i] > 0);
+            double error = Math.sqrt(allErrors[i] * allErrors[i] +
+                    calculator.getStandardError() * calculator.getStandardError());
+            Assert.assertEquals(calculator.getResult(), all[i], 4 * error);
+        }
+    }
+
+    @Test
+    public void testMonteCarloGreekMethods() {
+        EuropeanOption europeanOption = new EuropeanOption();
+        CashOrNothingOption cashOrNothingOption = new CashOrNothingOption();
+        cashOrNothingOption.setCash(10);
+        BaseSingleOption[] options = {europeanOption, cashOrNothingOption};
+        for (BaseSingleOption option : options) {
+            option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+            VanillaOptionParams params = new VanillaOptionParams();
+            params.setStrikePrice(105);
+            params.setVolatility(0.25);
+            params.setTimeRemaining(1);
+            params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+            option.setVanillaOptionParams(params);
+            option.setVolatilitySurface(new VolatilitySurface());
+        }
+        SingleOptionAnalysisCalculator analysisCalculator = new SingleOptionAnalysisCalculator();
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        String[] greekMethods = {MonteCarlo.GREEK_METHOD_PATHWISE, MonteCarlo.GREEK_METHOD_LIKELIHOOD_RATIO};
+        for (BaseSingleOption option : options) {
+            calculator.setOption(option);
+            double[] expected = {analysisCalculator.delta(option).getValue(),
+                    analysisCalculator.gamma(option).getValue(), analysisCalculator.vega(option).getValue()};
+            double[][] results = new double[greekMethods.length][];
+            for (int m = 0; m < greekMethods.length; m++) {
+                //不按观察时间模拟, 估计器在20步的路径上计算
+                MonteCarlo monteCarlo = new MonteCarlo(20, 100000);
+                monteCarlo.setSeed(20180716L);
+                monteCarlo.setUseObservationSchedule(false);
+                monteCarlo.setGreekMethod(greekMethods[m]);
+                calculator.setMonteCarloParams(monteCarlo);
+                Runnable[] greeks = {calculator::calculateDelta, calculator::calculateGamma,
+                        calculator::calculateVega};
+                results[m] = new double[greeks.length];
+                for (int i = 0; i < greeks.length; i++) {
+                    greeks[i].run();
+                    System.out.println(option.getClass().getSimpleName() + " " + greekMethods[m] + ": " +
+                            calculator.getResult() + " +- " + calculator.getStandardError() + ", " + expected[i]);
+                    Assert.assertEquals(0, calculator.getError().getIndex());
+                    Assert.assertTrue(calculator.getStandardError() > 0);
+                    Assert.assertEquals(expected[i], calculator.getResult(), 4 * calculator.getStandardError());
+                    results[m][i] = calculator.getResult();
+                }
+            }
+            //现金或空手期权的收益不连续, 不支持路径导数法, 改用似然比法, 结果与直接用似然比法相同
+            if (!option.hasMonteCarloPathwiseMethod()) {
+                Assert.assertArrayEquals(results[1], results[0], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSobolMonteCarlo() {
+        EuropeanOption option = new EuropeanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(105);
+        params.setVolatility(0.25);
+        params.setTimeRemaining(1);
+        params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        //同样的路径条数, 比较多个种子(随机平移)下价格与解析解的平均绝对误差
+        String[] randomNumberTypes = {MonteCarlo.RANDOM_NUMBER_SOBOL, MonteCarlo.RANDOM_NUMBER_PSEUDO};
+        int seeds = 8;
+        double[] meanErrors = new double[randomNumberTypes.length];
+        for (int i = 0; i < randomNumberTypes.length; i++) {
+            for (long seed = 1; seed <= seeds; seed++) {
+                MonteCarlo monteCarlo = new MonteCarlo(16, 1 << 14);
+                monteCarlo.setSeed(seed);
+                monteCarlo.setUseObservationSchedule(false);
+                monteCarlo.setRandomNumberType(randomNumberTypes[i]);
+                calculator.setMonteCarloParams(monteCarlo);
+                calculator.calculatePrice();
+                Assert.assertEquals(0, calculator.getError().getIndex());
+                meanErrors[i] = meanErrors[i] + Math.abs(calculator.getResult() - option.bsm()) / seeds;
+            }
+        }
+        System.out.println("sobol: " + meanErrors[0] + ", pseudo: " + meanErrors[1]);
+        Assert.assertEquals(0, meanErrors[0], 0.02);
+        Assert.assertTrue(meanErrors[0] < meanErrors[1] / 3);
+
+        //32位方向数最多2^32 - 1个点
+        int[] shift = SobolGenerator.randomShift(2, 1);
+        long maxPathIndex = (1L << 32) - 2;
+        SobolGenerator generator = new SobolGenerator(2, maxPathIndex - 1, shift, null);
+        double[] randomNums = new double[2];
+        generator.nextStandardNormal(randomNums);
+        generator.nextStandardNormal(randomNums);
+        try {
+            generator.nextStandardNormal(randomNums);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+        try {
+            new SobolGenerator(2, maxPathIndex + 1, shift, null);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMonteCarloVarianceReduction() {
+        //流式统计量: 分块合并与逐个加入相同, 控制变量的系数和调整后的均值
+        RunningStatistics statistics = new RunningStatistics();
+        RunningStatistics first = new RunningStatistics();
+        RunningStatistics second = new RunningStatistics();
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < 1000; i++) {
+            double control = random.nextGaussian() + 1;
+            double x = 2 * control + 0.1 * random.nextGaussian();
+            statistics.add(x, control);
+            (i < 300 ? first : second).add(x, control);
+        }
+        first.merge(second);
+        Assert.assertEquals(statistics.getMean(), first.getMean(), 1e-12);
+        Assert.assertEquals(statistics.getStandardError(), first.getStandardError(), 1e-12);
+        Assert.assertEquals(statistics.getControlVariateBeta(), first.getControlVariateBeta(), 1e-12);
+        Assert.assertEquals(statistics.getControlledStandardError(), first.getControlledStandardError(), 1e-12);
+        Assert.assertEquals(2, statistics.getControlVariateBeta(), 0.02);
+        Assert.assertEquals(2, statistics.getControlledMean(1), 4 * statistics.getControlledStandardError());
+        Assert.assertTrue(statistics.getControlledStandardError() < statistics.getStandardError() / 10);
+
+        EuropeanOption europeanOption = new EuropeanOption();
+        AsianOption asianOption = new AsianOption();
+        asianOption.setObserveTimePoints(new double[]{1.0 / 12, 2.0 / 12, 3.0 / 12, 4.0 / 12, 5.0 / 12, 6.0 / 12,
+                7.0 / 12, 8.0 / 12, 9.0 / 12, 10.0 / 12, 11.0 / 12, 1});
+        BaseSingleOption[] options = {europeanOption, asianOption};
+        for (BaseSingleOption option : options) {
+            option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+            VanillaOptionParams params = new VanillaOptionParams();
+            params.setStrikePrice(100);
+            params.setVolatility(0.25);
+            params.setTimeRemaining(1);
+            params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+            option.setVanillaOptionParams(params);
+            option.setVolatilitySurface(new VolatilitySurface());
+        }
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+
+        //欧式期权: 对偶变量和矩匹配
+        calculator.setOption(europeanOption);
+        double[] prices = new double[3];
+        double[] errors = new double[3];
+        for (int i = 0; i < prices.length; i++) {
+            MonteCarlo monteCarlo = new MonteCarlo(12, 40000);
+            monteCarlo.setSeed(20180716L);
+            monteCarlo.setUseAntithetic(i == 1);
+            monteCarlo.setUseMomentMatching(i == 2);
+            calculator.setMonteCarloParams(monteCarlo);
+            calculator.calculatePrice();
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            prices[i] = calculator.getResult();
+            errors[i] = calculator.getStandardError();
+            System.out.println(europeanOption.bsm() + ", " + prices[i] + " +- " + errors[i]);
+            Assert.assertEquals(europeanOption.bsm(), prices[i], 4 * errors[i]);
+        }
+        Assert.assertTrue(errors[1] < errors[0]);
+        //矩匹配的标准误差是近似值, 只检查误差
+        Assert.assertEquals(europeanOption.bsm(), prices[2], 4 * errors[0]);
+
+        //亚式期权: 几何平均控制变量, 控制变量的期望错误时调整后的价格会有偏差
+        calculator.setOption(asianOption);
+        for (int i = 0; i < 2; i++) {
+            MonteCarlo monteCarlo = new MonteCarlo(48, 40000);
+            monteCarlo.setSeed(20180716L);
+            monteCarlo.setUseControlVariate(i == 1);
+            calculator.setMonteCarloParams(monteCarlo);
+            calculator.calculatePrice();
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            prices[i] = calculator.getResult();
+            errors[i] = calculator.getStandardError();
+            System.out.println("asian: " + prices[i] + " +- " + errors[i]);
+        }
+        Assert.assertTrue(errors[1] < errors[0] / 5);
+        Assert.assertEquals(prices[0], prices[1], 4 * errors[0]);
+    }
+
+    @Test
+    public void testAdaptiveMonteCarlo() {
+        EuropeanOption option = new EuropeanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(100);
+        params.setVolatility(0.25);
+        params.setTimeRemaining(1);
+        params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        int pathSize = 1000000;
+        double[] targetErrors = {0.05, 0.02};
+        int[] simulatedPathSizes = new int[targetErrors.length];
+        for (int i = 0; i < targetErrors.length; i++) {
+            MonteCarlo monteCarlo = new MonteCarlo(12, pathSize);
+            monteCarlo.setSeed(20180716L);
+            monteCarlo.setTargetStandardError(targetErrors[i]);
+            calculator.setMonteCarloParams(monteCarlo);
+            calculator.calculatePrice();
+            System.out.println(calculator.getResult() + " +- " + calculator.getStandardError() + ", paths: " +
+                    calculator.getSimulatedPathSize());
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            Assert.assertTrue(calculator.getSimulatedPathSize() < pathSize);
+            Assert.assertTrue(calculator.getStandardError() <= targetErrors[i]);
+            Assert.assertEquals(option.bsm(), calculator.getResult(), 4 * calculator.getStandardError());
+            simulatedPathSizes[i] = calculator.getSimulatedPathSize();
+        }
+        Assert.assertTrue(simulatedPathSizes[0] < simulatedPathSizes[1]);
+
+        //相对误差
+        MonteCarlo monteCarlo = new MonteCarlo(12, pathSize);
+        monteCarlo.setSeed(20180716L);
+        monteCarlo.setTargetRelativeError(0.005);
+        calculator.setMonteCarloParams(monteCarlo);
+        calculator.calculatePrice();
+        Assert.assertTrue(calculator.getSimulatedPathSize() < pathSize);
+        Assert.assertTrue(calculator.getStandardError() <= 0.005 * calculator.getResult());
+    }
+
+    @Test
+    public void testVolatilitySlices() {
+        VolatilitySurface surface = new VolatilitySurface();
+        double[] timeList = surface.getTimeList();
+        double[] moneynessList = surface.getMoneynessList();
+        double[][] volSurface = new double[timeList.length][moneynessList.length];
+        for (int i = 0; i < timeList.length; i++) {
+            for (int j = 0; j < moneynessList.length; j++) {
+                double x = Math.log(moneynessList[j]);
+                volSurface[i][j] = 0.2 + 0.05 * Math.sqrt(timeList[i]) - 0.3 * x + (1 + i) * x * x;
+            }
+        }
+        surface.setVolSurface(volSurface);
+        //节点上, 节点之间, 以及时间和moneyness两端的外插区域
+        double[] timeRemaining = {0.01, 1.0 / 12, 0.2, 0.5, 0.75, 1, 1.5};
+        double[] moneyness = {0.5, 0.8, 0.85, 0.9, 1, 1.05, 1.2, 1.7};
+        String[] interpolationMethods = {Interpolation.INTERPOLATION_METHOD_NATURE,
+                Interpolation.INTERPOLATION_METHOD_NAK};
+        String[] extrapolationMethods = {Interpolation.EXTRAPOLATION_METHOD_NATURE,
+                Interpolation.EXTRAPOLATION_METHOD_TANGENT, Interpolation.EXTRAPOLATION_METHOD_HORIZONTAL};
+        for (String interpolationMethod : interpolationMethods) {
+            for (String extrapolationMethod : extrapolationMethods) {
+                surface.setInterpolationMethod(interpolationMethod);
+                surface.setExtrapolationMethod(extrapolationMethod);
+                VolatilitySlices slices = surface.sliceOnTimeGrid(timeRemaining);
+                Assert.assertEquals(timeRemaining.length, slices.size());
+                for (int i = 0; i < timeRemaining.length; i++) {
+                    for (double m : moneyness) {
+                        Assert.assertEquals(surface.getVolatility(m, timeRemaining[i]), slices.getVolatility(i, m),
+                                1e-12);
+                    }
+                }
+            }
+        }
+        volSurface[2][3] = Double.NaN;
+        Assert.assertNull(surface.sliceOnTimeGrid(timeRemaining));
+    }
+
+    @Test
+    public void testMonteCarloInsidePool() throws Exception {
+        EuropeanOption option = new EuropeanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(100);
+        params.setVolatility(0.3);
+        params.setTimeRemaining(1);
+        params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+        MonteCarlo monteCarlo = new MonteCarlo(10, 20000);
+        monteCarlo.setSeed(20180716L);
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        calculator.setMonteCarloParams(monteCarlo);
+        calculator.calculatePrice();
+        double price = calculator.getResult();
+
+        //线程池的线程全部被外层任务占用时, 内层的蒙特卡洛在当前线程计算, 不会死锁, 结果不变
+        int tasks = 2 * CalculatorThreadPool.getParallelism();
+        List<java.util.concurrent.Future<Double>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            futures.add(CalculatorThreadPool.getPool().submit(() -> {
+                SingleOptionMonteCarloCalculator inner = new SingleOptionMonteCarloCalculator();
+                inner.setOption(option);
+                inner.setMonteCarloParams(monteCarlo);
+                inner.calculatePrice();
+                return inner.getError() == CalculatorError.NORMAL ? inner.getResult() : Double.NaN;
+            }));
+        }
+        for (java.util.concurrent.Future<Double> future : futures) {
+            Assert.assertEquals(price, future.get(60, java.util.concurrent.TimeUnit.SECONDS), 0);
+        }
+
+        //关闭线程池后再计算, 重新创建线程池
+        CalculatorThreadPool.shutdown();
+        calculator.calculatePrice();
+        Assert.assertEquals(0, calculator.getError().getIndex());
+        Assert.assertEquals(price, calculator.getResult(), 0);
+    }
+
+    @Test
+    public void testStochasticVolatilityMonteCarlo() {
+        SingleOptionCase.asianOption.setUnderlying(createUnderlyingCase(spot, 100, 0.05, 0));
+        createVanillaOptionParams(100, 0.2, 1, BaseOption.OPTION_TYPE_CALL);
+        SingleOptionCase.asianOption.setVanillaOptionParams(vanillaOptionParams);
+        SingleOptionCase.asianOption.setVolatilitySurface(new VolatilitySurface());
+        SingleOptionCase.asianOption.setObserveTimePoints(new double[]{0.25, 0.5, 0.75, 1});
+
+        Heston heston = new Heston();
+        heston.setBeta(2);
+        heston.setLongVolatility(0.25);
+        heston.setRho(-0.7);
+        heston.setVolVolatility(0.6);
+        Sabr sabr = new Sabr();
+        sabr.setBeta(1);
+        sabr.setRho(0);
+        sabr.setVolVolatility(0.5);
+
+        monteCarloCalculator.setOption(SingleOptionCase.asianOption);
+        String[] models = {MonteCarlo.MODEL_GBM, MonteCarlo.MODEL_HESTON, MonteCarlo.MODEL_SABR};
+        for (String model : models) {
+            MonteCarlo monteCarlo = new MonteCarlo(252, 20000);
+            monteCarlo.setModel(model);
+            monteCarlo.setHestonParams(heston);
+            monteCarlo.setSabrParams(sabr);
+            monteCarloCalculator.setMonteCarloParams(monteCarlo);
+            long time = System.nanoTime();
+            monteCarloCalculator.calculatePrice();
+            double pathsPerSecond = monteCarlo.getPathSize() / ((System.nanoTime() - time) / 1e9);
+            System.out.println(model + ": " + monteCarloCalculator.getResult() + ", paths/s: " + (long) pathsPerSecond);
+            Assert.assertEquals(0, monteCarloCalculator.getError().getIndex());
+        }
+        monteCarloCalculator.setMonteCarloParams(new MonteCarlo());
+
+        //欧式期权和解析解比较, r = q时远期价格等于标的价格, 和Sabr解析解的输入一致
+        sabr.setRho(-0.3);
+        sabr.setVolVolatility(0.3);
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        for (double strike : new double[]{90, 100, 110}) {
+            EuropeanOption option = new EuropeanOption();
+            option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.05));
+            VanillaOptionParams params = new VanillaOptionParams();
+            params.setStrikePrice(strike);
+            params.setVolatility(0.2);
+            params.setTimeRemaining(0.5);
+            params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+            option.setVanillaOptionParams(params);
+            option.setVolatilitySurface(new VolatilitySurface());
+
+            EuropeanOption hestonOption = option.copy();
+            hestonOption.setHestonParams(heston.copy());
+            double hestonPrice = hestonOption.getPricingModel(BaseOption.OPTION_METHOD_HESTON).price(hestonOption);
+            EuropeanOption sabrOption = option.copy();
+            sabrOption.setSabrParams(sabr.copy());
+            double sabrPrice = sabrOption.getPricingModel(BaseOption.OPTION_METHOD_SABR).price(sabrOption);
+
+            calculator.setOption(option);
+            String[] svModels = {MonteCarlo.MODEL_HESTON, MonteCarlo.MODEL_SABR};
+            double[] closedForms = {hestonPrice, sabrPrice};
+            for (int i = 0; i < svModels.length; i++) {
+                MonteCarlo monteCarlo = new MonteCarlo(126, 100000);
+                monteCarlo.setSeed(20180716L);
+                monteCarlo.setModel(svModels[i]);
+                monteCarlo.setHestonParams(heston);
+                monteCarlo.setSabrParams(sabr);
+                calculator.setMonteCarloParams(monteCarlo);
+                calculator.calculatePrice();
+                System.out.println(svModels[i] + " european K=" + strike + ": " + calculator.getResult() +
+                        " +- " + calculator.getStandardError() + ", closed form: " + closedForms[i]);
+                Assert.assertEquals(0, calculator.getError().getIndex());
+                Assert.assertEquals(closedForms[i], calculator.getResult(), 4 * calculator.getStandardError());
+            }
+            //模拟不修改MonteCarlo持有的Sabr参数
+            Assert.assertNull(sabr.getOption());
+        }
+    }
+
+    @Test
+    public void testMonteCarloObservationSchedule() {
+        AutocallOption option = new AutocallOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 24.95, 0.05, 0));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(100);
+        params.setVolatility(0.4);
+        params.setTimeRemaining(246.0 / 240.0);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+        option.setCouponRate(0.0195833 * 12);
+        option.setKnockInPrice(19.405);
+        option.setKnockOutPrice(27.6564);
+        option.setRefPrice(25.88);
+        option.setTradingDays(240);
+        option.setObserveDays(new int[] {22,42,60,80,101,121,143,164,186,208,223,246});
+
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        //连续观察敲入价: 只模拟观察日 vs 每日网格, 都用布朗桥修正
+        option.setKnockInMonitoringType(BaseOption.MONITORING_TYPE_CONTINUOUS);
+        double[] prices = new double[2];
+        double[] errors = new double[2];
+        boolean[] schedules = {true, false};
+        for (int i = 0; i < schedules.length; i++) {
+            MonteCarlo monteCarlo = new MonteCarlo(246, 50000);
+            monteCarlo.setSeed(20180716L);
+            monteCarlo.setUseObservationSchedule(schedules[i]);
+            calculator.setMonteCarloParams(monteCarlo);
+            long time = System.nanoTime();
+            calculator.calculatePrice();
+            System.out.println("schedule " + schedules[i] + ": " + calculator.getResult() + " +- " +
+                    calculator.getStandardError() + ", " + (System.nanoTime() - time) / 1000000 + "ms");
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            prices[i] = calculator.getResult();
+            errors[i] = calculator.getStandardError();
+        }
+        Assert.assertEquals(prices[1], prices[0], 4 * Math.sqrt(errors[0] * errors[0] + errors[1] * errors[1]));
+
+        //每日离散观察敲入价: 间隔1天的观察日 vs 默认每个点都观察, 两者的网格都是每日网格
+        option.setKnockInMonitoringType(BaseOption.MONITORING_TYPE_DISCRETE);
+        int[] intervals = {1, 0};
+        for (int i = 0; i < intervals.length; i++) {
+            option.setKnockInMonitoringInterval(intervals[i]);
+            MonteCarlo monteCarlo = new MonteCarlo(246, 50000);
+            monteCarlo.setSeed(20180716L);
+            calculator.setMonteCarloParams(monteCarlo);
+            calculator.calculatePrice();
+            System.out.println("discrete interval " + intervals[i] + ": " + calculator.getResult() + " +- " +
+                    calculator.getStandardError());
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            prices[i] = calculator.getResult();
+            errors[i] = calculator.getStandardError();
+        }
+        Assert.assertEquals(prices[1], prices[0], 4 * Math.sqrt(errors[0] * errors[0] + errors[1] * errors[1]));
+    }
+
+    @Test
+    public void testAsianObservationSchedule() {
+        AsianOption option = new AsianOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.02));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(100);
+        params.setVolatility(0.25);
+        params.setTimeRemaining(1);
+        params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+        double[] fixings = {0.25, 0.5, 0.75, 1};
+        option.setObserveTimePoints(fixings);
+        Assert.assertArrayEquals(fixings, option.getMonteCarloObserveTimes(), 0);
+
+        //只模拟4个观察日 vs 252个点的等间距网格, 观察日都在网格上; 控制变量的期望按各自的网格计算
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        boolean[] schedules = {true, false};
+        double[] prices = new double[2];
+        double[] errors = new double[2];
+        double[] deltas = new double[2];
+        double[] deltaErrors = new double[2];
+        for (int i = 0; i < schedules.length; i++) {
+            MonteCarlo monteCarlo = new MonteCarlo(252, 50000);
+            monteCarlo.setSeed(20180716L);
+            monteCarlo.setUseObservationSchedule(schedules[i]);
+            monteCarlo.setUseControlVariate(true);
+            calculator.setMonteCarloParams(monteCarlo);
+            calculator.calculatePrice();
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            prices[i] = calculator.getResult();
+            errors[i] = calculator.getStandardError();
+            monteCarlo.setUseControlVariate(false);
+            monteCarlo.setGreekMethod(MonteCarlo.GREEK_METHOD_PATHWISE);
+            calculator.calculateDelta();
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            deltas[i] = calculator.getResult();
+            deltaErrors[i] = calculator.getStandardError();
+            System.out.println("asian schedule " + schedules[i] + ": " + prices[i] + " +- " + errors[i] +
+                    ", delta: " + deltas[i] + " +- " + deltaErrors[i]);
+        }
+        Assert.assertEquals(prices[1], prices[0], 4 * Math.sqrt(errors[0] * errors[0] + errors[1] * errors[1]));
+        Assert.assertEquals(deltas[1], deltas[0],
+                4 * Math.sqrt(deltaErrors[0] * deltaErrors[0] + deltaErrors[1] * deltaErrors[1]));
+
+        //控制变量的期望是精确的, 与不用控制变量的结果一致
+        MonteCarlo monteCarlo = new MonteCarlo(252, 50000);
+        monteCarlo.setSeed(20180716L);
+        calculator.setMonteCarloParams(monteCarlo);
+        calculator.calculatePrice();
+        Assert.assertEquals(calculator.getResult(), prices[0], 4 * calculator.getStandardError());
+    }
+
+    @Test
+    public void testBarrierMonitoring() {
+        BarrierOption option = new BarrierOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(100);
+        params.setVolatility(0.3);
+        params.setTimeRemaining(1);
+        params.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+        BarrierOptionParams barrierParams = new BarrierOptionParams();
+        barrierParams.setBarrierPrice(85);
+        barrierParams.setBarrierType(BaseOption.BARRIER_TYPE_OUT);
+        barrierParams.setBarrierDirection(BaseOption.BARRIER_DIRECTION_DOWN);
+        option.setBarrierOptionParams(barrierParams);
+        Assert.assertEquals(BaseOption.MONITORING_TYPE_DISCRETE, barrierParams.getMonitoringType());
+
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        //每月离散观察: 只模拟12个观察日 vs 252个点的网格上取最近的点, 观察时间相同
+        barrierParams.setMonitoringFrequency(12);
+        double[] prices = new double[3];
+        double[] errors = new double[3];
+        boolean[] schedules = {true, false};
+        for (int i = 0; i < schedules.length; i++) {
+            MonteCarlo monteCarlo = new MonteCarlo(252, 50000);
+            monteCarlo.setSeed(20180716L);
+            monteCarlo.setUseObservationSchedule(schedules[i]);
+            calculator.setMonteCarloParams(monteCarlo);
+            calculator.calculatePrice();
+            System.out.println("monthly, schedule " + schedules[i] + ": " + calculator.getResult() + " +- " +
+                    calculator.getStandardError());
+            Assert.assertEquals(0, calculator.getError().getIndex());
+            prices[i] = calculator.getResult();
+            errors[i] = calculator.getStandardError();
+        }
+        Assert.assertEquals(prices[1], prices[0], 4 * Math.sqrt(errors[0] * errors[0] + errors[1] * errors[1]));
+
+        //连续观察更容易敲出, 价格更低
+        barrierParams.setMonitoringType(BaseOption.MONITORING_TYPE_CONTINUOUS);
+        MonteCarlo monteCarlo = new MonteCarlo(252, 50000);
+        monteCarlo.setSeed(20180716L);
+        calculator.setMonteCarloParams(monteCarlo);
+        calculator.calculatePrice();
+        System.out.println("continuous: " + calculator.getResult() + " +- " + calculator.getStandardError());
+        prices[2] = calculator.getResult();
+        errors[2] = calculator.getStandardError();
+        Assert.assertTrue(prices[0] - prices[2] > 4 * Math.sqrt(errors[0] * errors[0] + errors[2] * errors[2]));
+    }
+
+    @Test
+    public void testMultiAssetMonteCarlo() {
+        EuropeanOption option1 = new EuropeanOption();
+        option1.setUnderlying(createUnderlyingCase(new Spot(), 100, 0.05, 0.01));
+        VanillaOptionParams params1 = new VanillaOptionParams();
+        params1.setStrikePrice(1);
+        params1.setOptionType(BaseOption.OPTION_TYPE_CALL);
+        params1.setVolatility(0.3);
+        params1.setTimeRemaining(1);
+        option1.setVanillaOptionParams(params1);
+        option1.setVolatilitySurface(new VolatilitySurface());
+        EuropeanOption option2 = new EuropeanOption();
+        option2.setUnderlying(createUnderlyingCase(new Spot(), 95, 0.05, 0.03));
+        VanillaOptionParams params2 = new VanillaOptionParams();
+        params2.setVolatility(0.2);
+        params2.setTimeRemaining(1);
+        option2.setVanillaOptionParams(params2);
+        option2.setVolatilitySurface(new VolatilitySurface());
+        quotientOption option = new quotientOption();
+        option.setOption1(option1);
+        option.setOption2(option2);
+        option.setRho(0.4);
+
+        MonteCarlo monteCarlo = new MonteCarlo(20, 100000);
+        monteCarlo.setSeed(5);
+        MultiAssetMonteCarloCalculator calculator = new MultiAssetMonteCarloCalculator(option);
+        calculator.setMonteCarloParams(monteCarlo);
+        calculator.calculatePrice();
+        System.out.println(option.bsm() + ", " + calculator.getResult() + " +- " + calculator.getStandardError());
+        Assert.assertEquals(0, calculator.getError().getIndex());
+        Assert.assertEquals(option.bsm(), calculator.getResult(), 4 * calculator.getStandardError());
+    }
+
+    @Test
+    public void testLeastSquaresMonteCarlo() {
+        AmericanOption option = new AmericanOption();
+        option.setUnderlying(createUnderlyingCase(new Spot(), 36, 0.06, 0));
+        VanillaOptionParams params = new VanillaOptionParams();
+        params.setStrikePrice(40);
+        params.setVolatility(0.2);
+        params.setTimeRemaining(1);
+        option.setVanillaOptionParams(params);
+        option.setVolatilitySurface(new VolatilitySurface());
+
+        SingleOptionFiniteDifferenceCalculator finiteDifference = new SingleOptionFiniteDifferenceCalculator();
+        finiteDifference.setOption(option);
+        finiteDifference.calculatePrice();
+        MonteCarlo monteCarlo = new MonteCarlo(50, 100000);
+        monteCarlo.setSeed(3);
+        SingleOptionMonteCarloCalculator calculator = new SingleOptionMonteCarloCalculator();
+        calculator.setOption(option);
+        calculator.setMonteCarloParams(monteCarlo);
+        calculator.calculatePrice();
+        System.out.println(finiteDifference.getResult() + ", " + calculator.getResult() + " +- " +
+                calculator.getStandardError());
+        Assert.assertEquals(0, calculator.getError().getIndex());
+        //离散行权的价格略低于连续行权
+        Assert.assertEquals(finiteDifference.getResult(), calculator.getResult(), 4 * calculator.getStandardError() + 0.02);
+    }
+
 }
@@ -8,7 +8,7 @@ import java.util.Objects;
  *
  * @author liangcy
  */
-public abstract class BaseUnderlying implements Serializable {
+public abstract class BaseUnderlying implements Serializable, Cloneable {
     private double spotPrice;
     private double riskFreeRate = 0.0;
     private double dividendRate = 0.0;
@@ -69,4 +69,14 @@ public abstract class BaseUnderlying implements Serializable {
         return spotPrice > 0;
     }
 
+    /**
+     * @return 浅复制, 成员都是基本类型, 子类没有其他成员
+     */
+    public BaseUnderlying copy() {
+        try {
+            return (BaseUnderlying) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -1,8 +1,11 @@
 package volatility;
 
+import calculator.derivatives.BatchImpliedVolatility;
 import calculator.derivatives.SingleOptionAnalysisCalculator;
 import flanagan.math.VectorMaths;
+import option.BaseOption;
 import option.BaseSingleOption;
+import option.EuropeanOption;
 import underlying.gbm.BaseUnderlying;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -218,11 +221,27 @@ public abstract class BaseVolatilitySkew implements Serializable {
         }
     }
 
+    /**
+     * bsm模型的欧式期权用BatchImpliedVolatility一次计算, 其他期权逐个用牛顿迭代;
+     * 计算失败时保留原来的波动率
+     */
     public void updateImpliedVolatility() {
+        List<BaseSingleOption> europeanOptionList = new ArrayList<>();
         SingleOptionAnalysisCalculator calculator = new SingleOptionAnalysisCalculator();
         for (BaseSingleOption option : optionList) {
-            calculator.setOption(option);
-            calculator.calculateImpliedVolatility();
+            if (option.getClass() == EuropeanOption.class &&
+                    BaseOption.OPTION_METHOD_BSM.equals(option.getVanillaOptionParams().getMethodName())) {
+                europeanOptionList.add(option);
+            } else {
+                calculator.setOption(option);
+                calculator.calculateImpliedVolatility();
+            }
+        }
+        double[] impliedVolatility = new BatchImpliedVolatility().impliedVolatility(europeanOptionList);
+        for (int i = 0; i < impliedVolatility.length; i++) {
+            if (impliedVolatility[i] > 0) {
+                europeanOptionList.get(i).getVanillaOptionParams().setVolatility(impliedVolatility[i]);
+            }
         }
     }
 
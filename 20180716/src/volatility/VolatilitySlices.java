@@ -0,0 +1,61 @@
+package volatility;
+
+import calculator.utility.Interpolation;
+
+import java.util.HashMap;
+
+/**
+ * @author liangcy
+ * 波动率曲面在一组固定时间点上的切片, 用于蒙特卡洛路径上逐步取波动率;
+ * interp2先按moneyness做样条插值再按时间插值, 两步都是对节点值的线性运算,
+ * 因此固定时间后, 曲面就是以 moneyness 节点为节点的一条样条, 节点值为该时间的波动率;
+ * 每个时间点的样条系数只计算一次, 取值时只需二分查找区间和计算三次多项式, 不分配内存;
+ */
+public class VolatilitySlices {
+    private final double[] moneynessList;
+    private final double[][] a;
+    private final double[][] b;
+    private final double[][] c;
+    private final double[][] d;
+    private final String extrapolationMethod;
+
+    /**
+     * @param surface       波动率曲面, 不能含有NaN
+     * @param timeRemaining 切片的剩余期限
+     */
+    VolatilitySlices(VolatilitySurface surface, double[] timeRemaining) {
+        this.moneynessList = surface.getMoneynessList().clone();
+        this.extrapolationMethod = surface.getExtrapolationMethod();
+        int n = timeRemaining.length;
+        a = new double[n][];
+        b = new double[n][];
+        c = new double[n][];
+        d = new double[n][];
+        double[] slice = new double[moneynessList.length];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < moneynessList.length; j++) {
+                slice[j] = surface.getVolatility(moneynessList[j], timeRemaining[i]);
+            }
+            HashMap<String, double[]> cs = Interpolation.cubicSplineParameter(moneynessList, slice.clone(),
+                    surface.getInterpolationMethod());
+            a[i] = cs.get("a");
+            b[i] = cs.get("b");
+            c[i] = cs.get("c");
+            d[i] = cs.get("d");
+        }
+    }
+
+    /**
+     * @param index     时间点的序号
+     * @param moneyness moneyness
+     * @return 与VolatilitySurface.getVolatility(moneyness, timeRemaining[index])相同
+     */
+    public double getVolatility(int index, double moneyness) {
+        return Interpolation.getSplinePoint(moneynessList, a[index], b[index], c[index], d[index],
+                moneyness, extrapolationMethod);
+    }
+
+    public int size() {
+        return a.length;
+    }
+}
@@ -81,6 +81,23 @@ public class VolatilitySurface implements Serializable {
                 interpolationMethod, extrapolationMethod);
     }
 
+    /**
+     * 在一组时间点上预先切片, 用于反复取值(如蒙特卡洛路径);
+     *
+     * @param timeRemaining 切片的剩余期限
+     * @return 曲面含有NaN时返回null, 只能逐点调用getVolatility
+     */
+    public VolatilitySlices sliceOnTimeGrid(double[] timeRemaining) {
+        for (double[] moneyness : volSurface) {
+            for (double vol : moneyness) {
+                if (Double.isNaN(vol)) {
+                    return null;
+                }
+            }
+        }
+        return new VolatilitySlices(this, timeRemaining);
+    }
+
     public double[] getVolatilitySkew(double timeRemaining) {
         double[] volatilitySkew = new double[moneynessList.length];
         for (int i = 0; i < moneynessList.length; i++) {